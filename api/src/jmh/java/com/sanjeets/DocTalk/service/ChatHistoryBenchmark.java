@@ -0,0 +1,35 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.cloud.vertexai.api.Content;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Rebuilding model history from stored messages, done once per chat turn. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatHistoryBenchmark {
+
+    @Param({"2", "10", "50", "200"})
+    int messages;
+
+    List<ChatMessage> history;
+    String currentMessageId;
+
+    @Setup
+    public void setup() {
+        history = Fixtures.conversation(messages, Fixtures.answer(Fixtures.stream(Fixtures.GROUNDED_STREAM)));
+        currentMessageId = history.get(history.size() - 1).getId();
+    }
+
+    @Benchmark
+    public List<Content> buildHistory() {
+        return ChatService.buildHistory(history, currentMessageId);
+    }
+}
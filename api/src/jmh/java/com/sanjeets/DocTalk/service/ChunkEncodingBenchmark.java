@@ -0,0 +1,94 @@
+package com.sanjeets.DocTalk.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.generativeai.ResponseHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-chunk SSE payload serialization. Run with {@code -prof gc} to see allocation per chunk.
+ * The {@code jackson*} benchmarks reproduce the map-plus-ObjectMapper encoding that
+ * {@link SseEventEncoder} replaced, as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkEncodingBenchmark {
+
+    ObjectMapper objectMapper;
+    String[] texts;
+    List<Map<String, String>> citations;
+    int next;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        List<String> chunks = new ArrayList<>();
+        citations = new ArrayList<>();
+        for (GenerateContentResponse response : Fixtures.stream(Fixtures.GROUNDED_STREAM)) {
+            chunks.add(ResponseHandler.getText(response));
+            ChatService.collectCitations(response, new HashSet<>(), citations);
+        }
+        texts = chunks.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String jacksonChunk() throws JsonProcessingException {
+        Map<String, String> chunk = new HashMap<>();
+        chunk.put("text", nextText());
+        return objectMapper.writeValueAsString(chunk);
+    }
+
+    @Benchmark
+    public String encoderChunk() {
+        return SseEventEncoder.text(nextText());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void jacksonTurn(Blackhole blackhole) throws JsonProcessingException {
+        for (String text : texts) {
+            Map<String, String> chunk = new HashMap<>();
+            chunk.put("text", text);
+            blackhole.consume(objectMapper.writeValueAsString(chunk));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void encoderTurn(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(SseEventEncoder.text(text));
+        }
+    }
+
+    @Benchmark
+    public String jacksonCitations() throws JsonProcessingException {
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("citations", citations);
+        return objectMapper.writeValueAsString(chunk);
+    }
+
+    @Benchmark
+    public String encoderCitations() {
+        return SseEventEncoder.citations(citations);
+    }
+
+    private String nextText() {
+        String text = texts[next];
+        next = (next + 1) % texts.length;
+        return text;
+    }
+}
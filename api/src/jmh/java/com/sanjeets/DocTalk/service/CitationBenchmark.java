@@ -0,0 +1,38 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Extracting and deduplicating citations from every chunk of a grounded stream. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CitationBenchmark {
+
+    List<GenerateContentResponse> stream;
+
+    @Setup
+    public void setup() {
+        stream = Fixtures.stream(Fixtures.GROUNDED_STREAM);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> collectPerTurn() {
+        Set<String> seen = new HashSet<>();
+        List<Map<String, String>> citations = new ArrayList<>();
+        for (GenerateContentResponse response : stream) {
+            ChatService.collectCitations(response, seen, citations);
+        }
+        return citations;
+    }
+}
@@ -0,0 +1,70 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.protobuf.util.JsonFormat;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Loads response fixtures from {@code src/test/resources/fixtures}. A fixture is a streamed
+ * {@link GenerateContentResponse} sequence, one protobuf-JSON message per line, as produced by
+ * {@code JsonFormat.printer().omittingInsignificantWhitespace()} over a real stream.
+ */
+final class Fixtures {
+
+    static final String GROUNDED_STREAM = "grounded-stream.ndjson";
+
+    private Fixtures() {}
+
+    static List<GenerateContentResponse> stream(String name) {
+        List<GenerateContentResponse> responses = new ArrayList<>();
+        JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Fixtures.class.getResourceAsStream("/fixtures/" + name), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                GenerateContentResponse.Builder builder = GenerateContentResponse.newBuilder();
+                parser.merge(line, builder);
+                responses.add(builder.build());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return responses;
+    }
+
+    /** The concatenated answer text of a fixture stream. */
+    static String answer(List<GenerateContentResponse> responses) {
+        StringBuilder text = new StringBuilder();
+        for (GenerateContentResponse response : responses) {
+            text.append(response.getCandidates(0).getContent().getParts(0).getText());
+        }
+        return text.toString();
+    }
+
+    /** A stored conversation of {@code size} alternating user/model messages. */
+    static List<ChatMessage> conversation(int size, String modelAnswer) {
+        List<ChatMessage> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            boolean user = i % 2 == 0;
+            messages.add(new ChatMessage(
+                    UUID.randomUUID().toString(),
+                    "session-1",
+                    user ? MessageRole.USER : MessageRole.MODEL,
+                    user ? "How does paid leave accrual change with tenure? (" + i + ")" : modelAnswer,
+                    Instant.now().toString()));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,57 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.StorageOptions;
+import com.sanjeets.DocTalk.config.DependencyGuards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Citation URL signing. V4 signing is local, so a throwaway service-account key stands in
+ * for real credentials.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignedUrlBenchmark {
+
+    static final String CITATION_URI = "gs://doctalk-docs/7f3c2a9e-5b41-4c8e-9d2f-1a6b8e0c4d73/employee-handbook-2024.pdf";
+
+    DocumentService documentService;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        ServiceAccountCredentials credentials = ServiceAccountCredentials.newBuilder()
+                .setClientEmail("bench@doctalk-bench.iam.gserviceaccount.com")
+                .setPrivateKey(generator.generateKeyPair().getPrivate())
+                .setProjectId("doctalk-bench")
+                .build();
+        documentService = new DocumentService(
+                StorageOptions.newBuilder().setProjectId("doctalk-bench").setCredentials(credentials).build().getService(),
+                null,
+                null,
+                null,
+                new DependencyGuards(new StandardEnvironment(), new SimpleMeterRegistry()));
+    }
+
+    @Benchmark
+    public BlobId parse() {
+        return DocumentService.parseGsUri(CITATION_URI);
+    }
+
+    @Benchmark
+    public String sign() {
+        return documentService.generateReadSignedUrl(CITATION_URI);
+    }
+}
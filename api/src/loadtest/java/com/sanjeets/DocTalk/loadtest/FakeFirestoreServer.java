@@ -0,0 +1,687 @@
+package com.sanjeets.DocTalk.loadtest;
+
+import com.google.firestore.v1.AggregationResult;
+import com.google.firestore.v1.ArrayValue;
+import com.google.firestore.v1.BatchGetDocumentsRequest;
+import com.google.firestore.v1.BatchGetDocumentsResponse;
+import com.google.firestore.v1.BeginTransactionRequest;
+import com.google.firestore.v1.BeginTransactionResponse;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.CommitResponse;
+import com.google.firestore.v1.Cursor;
+import com.google.firestore.v1.Document;
+import com.google.firestore.v1.DocumentTransform;
+import com.google.firestore.v1.ListDocumentsRequest;
+import com.google.firestore.v1.ListDocumentsResponse;
+import com.google.firestore.v1.MapValue;
+import com.google.firestore.v1.Precondition;
+import com.google.firestore.v1.RollbackRequest;
+import com.google.firestore.v1.RunAggregationQueryRequest;
+import com.google.firestore.v1.RunAggregationQueryResponse;
+import com.google.firestore.v1.RunQueryRequest;
+import com.google.firestore.v1.RunQueryResponse;
+import com.google.firestore.v1.StructuredAggregationQuery;
+import com.google.firestore.v1.StructuredQuery;
+import com.google.firestore.v1.Value;
+import com.google.firestore.v1.Write;
+import com.google.firestore.v1.WriteResult;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory stand-in for the Firestore API, for machines where the emulator cannot run. It
+ * covers what the application uses: document gets, commits with preconditions and transforms,
+ * transactions, structured queries (filters, ordering, cursors, limits, projections, collection
+ * groups), counts and document listing. Transactions are not isolated; commits are atomic.
+ * Snapshot listeners are not supported, so {@link LoadTest} turns them off.
+ */
+public class FakeFirestoreServer implements AutoCloseable {
+
+    private static final String SERVICE = "google.firestore.v1.Firestore";
+    private static final String NAME_FIELD = "__name__";
+    // Staged in place of a document a commit deletes
+    private static final Document DELETED = Document.getDefaultInstance();
+
+    private final NavigableMap<String, Document> documents = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // A few platform threads: carriers the application pins must not stall the database it is
+    // waiting on, and no call here blocks, so a small pool keeps the run's thread count honest
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Server server;
+
+    public FakeFirestoreServer() throws IOException {
+        ServerServiceDefinition service = ServerServiceDefinition.builder(SERVICE)
+                .addMethod(method(MethodDescriptor.MethodType.SERVER_STREAMING, "BatchGetDocuments",
+                                BatchGetDocumentsRequest.getDefaultInstance(), BatchGetDocumentsResponse.getDefaultInstance()),
+                        ServerCalls.asyncServerStreamingCall(this::batchGetDocuments))
+                .addMethod(method(MethodDescriptor.MethodType.SERVER_STREAMING, "RunQuery",
+                                RunQueryRequest.getDefaultInstance(), RunQueryResponse.getDefaultInstance()),
+                        ServerCalls.asyncServerStreamingCall(this::runQuery))
+                .addMethod(method(MethodDescriptor.MethodType.SERVER_STREAMING, "RunAggregationQuery",
+                                RunAggregationQueryRequest.getDefaultInstance(), RunAggregationQueryResponse.getDefaultInstance()),
+                        ServerCalls.asyncServerStreamingCall(this::runAggregationQuery))
+                .addMethod(method(MethodDescriptor.MethodType.UNARY, "Commit",
+                                CommitRequest.getDefaultInstance(), CommitResponse.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::commit))
+                .addMethod(method(MethodDescriptor.MethodType.UNARY, "BeginTransaction",
+                                BeginTransactionRequest.getDefaultInstance(), BeginTransactionResponse.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::beginTransaction))
+                .addMethod(method(MethodDescriptor.MethodType.UNARY, "Rollback",
+                                RollbackRequest.getDefaultInstance(), Empty.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::rollback))
+                .addMethod(method(MethodDescriptor.MethodType.UNARY, "ListDocuments",
+                                ListDocumentsRequest.getDefaultInstance(), ListDocumentsResponse.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::listDocuments))
+                .build();
+        this.server = NettyServerBuilder.forPort(0)
+                .executor(executor)
+                .addService(service)
+                .build()
+                .start();
+    }
+
+    /** In the {@code host:port} form {@code FirestoreOptions.setEmulatorHost} takes. */
+    public String getHost() {
+        return "localhost:" + server.getPort();
+    }
+
+    private void batchGetDocuments(BatchGetDocumentsRequest request, StreamObserver<BatchGetDocumentsResponse> responses) {
+        Timestamp readTime = now();
+        ByteString transaction = request.hasNewTransaction() ? newTransaction() : ByteString.EMPTY;
+        List<String> mask = request.hasMask() ? request.getMask().getFieldPathsList() : null;
+        List<BatchGetDocumentsResponse> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String name : request.getDocumentsList()) {
+                Document document = documents.get(name);
+                BatchGetDocumentsResponse.Builder response = BatchGetDocumentsResponse.newBuilder().setReadTime(readTime);
+                if (document != null) {
+                    response.setFound(project(document, mask));
+                } else {
+                    response.setMissing(name);
+                }
+                found.add(response.build());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!transaction.isEmpty()) {
+            if (found.isEmpty()) {
+                found.add(BatchGetDocumentsResponse.newBuilder().setReadTime(readTime).build());
+            }
+            found.set(0, found.get(0).toBuilder().setTransaction(transaction).build());
+        }
+        found.forEach(responses::onNext);
+        responses.onCompleted();
+    }
+
+    private void runQuery(RunQueryRequest request, StreamObserver<RunQueryResponse> responses) {
+        Timestamp readTime = now();
+        ByteString transaction = request.hasNewTransaction() ? newTransaction() : ByteString.EMPTY;
+        List<Document> results = query(request.getParent(), request.getStructuredQuery());
+        List<String> fields = request.getStructuredQuery().hasSelect()
+                ? request.getStructuredQuery().getSelect().getFieldsList().stream().map(StructuredQuery.FieldReference::getFieldPath).toList()
+                : null;
+        if (results.isEmpty()) {
+            responses.onNext(RunQueryResponse.newBuilder().setReadTime(readTime).setTransaction(transaction).build());
+        }
+        for (int i = 0; i < results.size(); i++) {
+            responses.onNext(RunQueryResponse.newBuilder()
+                    .setDocument(project(results.get(i), fields))
+                    .setReadTime(readTime)
+                    .setTransaction(i == 0 ? transaction : ByteString.EMPTY)
+                    .build());
+        }
+        responses.onCompleted();
+    }
+
+    private void runAggregationQuery(RunAggregationQueryRequest request,
+                                     StreamObserver<RunAggregationQueryResponse> responses) {
+        StructuredAggregationQuery aggregation = request.getStructuredAggregationQuery();
+        List<Document> results = query(request.getParent(), aggregation.getStructuredQuery());
+        AggregationResult.Builder result = AggregationResult.newBuilder();
+        for (StructuredAggregationQuery.Aggregation aggregate : aggregation.getAggregationsList()) {
+            if (!aggregate.hasCount()) {
+                responses.onError(Status.UNIMPLEMENTED.withDescription("Only count() is supported").asRuntimeException());
+                return;
+            }
+            long count = aggregate.getCount().hasUpTo()
+                    ? Math.min(results.size(), aggregate.getCount().getUpTo().getValue())
+                    : results.size();
+            result.putAggregateFields(aggregate.getAlias(), Value.newBuilder().setIntegerValue(count).build());
+        }
+        responses.onNext(RunAggregationQueryResponse.newBuilder()
+                .setResult(result)
+                .setReadTime(now())
+                .setTransaction(request.hasNewTransaction() ? newTransaction() : ByteString.EMPTY)
+                .build());
+        responses.onCompleted();
+    }
+
+    private void commit(CommitRequest request, StreamObserver<CommitResponse> responses) {
+        Timestamp commitTime = now();
+        CommitResponse.Builder response = CommitResponse.newBuilder().setCommitTime(commitTime);
+        lock.writeLock().lock();
+        try {
+            // Applied to a staging copy first, so a failed precondition leaves every document as it was
+            Map<String, Document> staged = new HashMap<>();
+            for (Write write : request.getWritesList()) {
+                response.addWriteResults(apply(write, staged, commitTime));
+            }
+            staged.forEach((name, document) -> {
+                if (document == DELETED) {
+                    documents.remove(name);
+                } else {
+                    documents.put(name, document);
+                }
+            });
+        } catch (StatusRuntimeException e) {
+            responses.onError(e);
+            return;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        responses.onNext(response.build());
+        responses.onCompleted();
+    }
+
+    private void beginTransaction(BeginTransactionRequest request, StreamObserver<BeginTransactionResponse> responses) {
+        responses.onNext(BeginTransactionResponse.newBuilder().setTransaction(newTransaction()).build());
+        responses.onCompleted();
+    }
+
+    private void rollback(RollbackRequest request, StreamObserver<Empty> responses) {
+        responses.onNext(Empty.getDefaultInstance());
+        responses.onCompleted();
+    }
+
+    /** One page with every document directly under the collection, including missing ones that only have children. */
+    private void listDocuments(ListDocumentsRequest request, StreamObserver<ListDocumentsResponse> responses) {
+        String prefix = request.getParent() + "/" + request.getCollectionId() + "/";
+        ListDocumentsResponse.Builder response = ListDocumentsResponse.newBuilder();
+        lock.readLock().lock();
+        try {
+            Set<String> names = new LinkedHashSet<>();
+            for (String name : documents.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+                int end = name.indexOf('/', prefix.length());
+                names.add(end == -1 ? name : name.substring(0, end));
+            }
+            for (String name : names) {
+                Document document = documents.get(name);
+                if (document != null) {
+                    response.addDocuments(document.toBuilder().clearFields());
+                } else if (request.getShowMissing()) {
+                    response.addDocuments(Document.newBuilder().setName(name));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        responses.onNext(response.build());
+        responses.onCompleted();
+    }
+
+    private WriteResult apply(Write write, Map<String, Document> staged, Timestamp commitTime) {
+        String name = switch (write.getOperationCase()) {
+            case UPDATE -> write.getUpdate().getName();
+            case DELETE -> write.getDelete();
+            case TRANSFORM -> write.getTransform().getDocument();
+            default -> throw Status.INVALID_ARGUMENT.withDescription("Write without an operation").asRuntimeException();
+        };
+        Document existing = staged.containsKey(name) ? staged.get(name) : documents.get(name);
+        if (existing == DELETED) {
+            existing = null;
+        }
+        if (write.hasCurrentDocument()) {
+            check(write.getCurrentDocument(), name, existing);
+        }
+
+        WriteResult.Builder result = WriteResult.newBuilder().setUpdateTime(commitTime);
+        if (write.getOperationCase() == Write.OperationCase.DELETE) {
+            staged.put(name, DELETED);
+            return result.build();
+        }
+
+        Map<String, Value> fields;
+        List<DocumentTransform.FieldTransform> transforms;
+        if (write.getOperationCase() == Write.OperationCase.UPDATE) {
+            if (write.hasUpdateMask()) {
+                fields = existing != null ? new HashMap<>(existing.getFieldsMap()) : new HashMap<>();
+                for (String path : write.getUpdateMask().getFieldPathsList()) {
+                    List<String> segments = segments(path);
+                    set(fields, segments, get(write.getUpdate().getFieldsMap(), segments));
+                }
+            } else {
+                fields = new HashMap<>(write.getUpdate().getFieldsMap());
+            }
+            transforms = write.getUpdateTransformsList();
+        } else {
+            fields = existing != null ? new HashMap<>(existing.getFieldsMap()) : new HashMap<>();
+            transforms = write.getTransform().getFieldTransformsList();
+        }
+        for (DocumentTransform.FieldTransform transform : transforms) {
+            List<String> segments = segments(transform.getFieldPath());
+            Value value = transform(get(fields, segments), transform, commitTime);
+            set(fields, segments, value);
+            result.addTransformResults(value);
+        }
+
+        staged.put(name, Document.newBuilder()
+                .setName(name)
+                .putAllFields(fields)
+                .setCreateTime(existing != null ? existing.getCreateTime() : commitTime)
+                .setUpdateTime(commitTime)
+                .build());
+        return result.build();
+    }
+
+    private static void check(Precondition precondition, String name, Document existing) {
+        switch (precondition.getConditionTypeCase()) {
+            case EXISTS -> {
+                if (precondition.getExists() && existing == null) {
+                    throw Status.NOT_FOUND.withDescription("No document to update: " + name).asRuntimeException();
+                }
+                if (!precondition.getExists() && existing != null) {
+                    throw Status.ALREADY_EXISTS.withDescription("Document already exists: " + name).asRuntimeException();
+                }
+            }
+            case UPDATE_TIME -> {
+                if (existing == null || !existing.getUpdateTime().equals(precondition.getUpdateTime())) {
+                    throw Status.FAILED_PRECONDITION.withDescription("Document changed: " + name).asRuntimeException();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static Value transform(Value current, DocumentTransform.FieldTransform transform, Timestamp commitTime) {
+        return switch (transform.getTransformTypeCase()) {
+            case SET_TO_SERVER_VALUE -> Value.newBuilder().setTimestampValue(commitTime).build();
+            case INCREMENT -> arithmetic(current, transform.getIncrement(), Long::sum, Double::sum);
+            case MAXIMUM -> arithmetic(current, transform.getMaximum(), Math::max, Math::max);
+            case MINIMUM -> arithmetic(current, transform.getMinimum(), Math::min, Math::min);
+            case APPEND_MISSING_ELEMENTS -> {
+                List<Value> elements = current != null && current.hasArrayValue()
+                        ? new ArrayList<>(current.getArrayValue().getValuesList()) : new ArrayList<>();
+                for (Value element : transform.getAppendMissingElements().getValuesList()) {
+                    if (elements.stream().noneMatch(e -> equal(e, element))) {
+                        elements.add(element);
+                    }
+                }
+                yield Value.newBuilder().setArrayValue(ArrayValue.newBuilder().addAllValues(elements)).build();
+            }
+            case REMOVE_ALL_FROM_ARRAY -> {
+                List<Value> elements = current != null && current.hasArrayValue()
+                        ? new ArrayList<>(current.getArrayValue().getValuesList()) : new ArrayList<>();
+                elements.removeIf(e -> transform.getRemoveAllFromArray().getValuesList().stream().anyMatch(r -> equal(e, r)));
+                yield Value.newBuilder().setArrayValue(ArrayValue.newBuilder().addAllValues(elements)).build();
+            }
+            default -> throw Status.INVALID_ARGUMENT.withDescription("Unknown transform").asRuntimeException();
+        };
+    }
+
+    private interface LongOperator {
+        long apply(long a, long b);
+    }
+
+    private interface DoubleOperator {
+        double apply(double a, double b);
+    }
+
+    /** Non-numeric fields are replaced by the operand, as the server does. */
+    private static Value arithmetic(Value current, Value operand, LongOperator longs, DoubleOperator doubles) {
+        if (current == null || typeOrder(current) != 2) {
+            return operand;
+        }
+        if (current.hasIntegerValue() && operand.hasIntegerValue()) {
+            return Value.newBuilder().setIntegerValue(longs.apply(current.getIntegerValue(), operand.getIntegerValue())).build();
+        }
+        return Value.newBuilder().setDoubleValue(doubles.apply(number(current), number(operand))).build();
+    }
+
+    private List<Document> query(String parent, StructuredQuery query) {
+        List<StructuredQuery.Order> orders = new ArrayList<>(query.getOrderByList());
+        if (orders.isEmpty() || !orders.get(orders.size() - 1).getField().getFieldPath().equals(NAME_FIELD)) {
+            StructuredQuery.Direction direction = orders.isEmpty()
+                    ? StructuredQuery.Direction.ASCENDING : orders.get(orders.size() - 1).getDirection();
+            orders.add(StructuredQuery.Order.newBuilder()
+                    .setField(StructuredQuery.FieldReference.newBuilder().setFieldPath(NAME_FIELD))
+                    .setDirection(direction)
+                    .build());
+        }
+
+        List<Document> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (StructuredQuery.CollectionSelector from : query.getFromList()) {
+                String prefix = from.getAllDescendants() ? parent + "/" : parent + "/" + from.getCollectionId() + "/";
+                for (Document document : documents.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                    String name = document.getName();
+                    int lastSlash = name.lastIndexOf('/');
+                    boolean inCollection = from.getAllDescendants()
+                            ? name.substring(name.lastIndexOf('/', lastSlash - 1) + 1, lastSlash).equals(from.getCollectionId())
+                            : lastSlash == prefix.length() - 1;
+                    if (inCollection
+                            && (!query.hasWhere() || matches(document, query.getWhere()))
+                            && orders.stream().allMatch(order -> field(document, order.getField().getFieldPath()) != null)) {
+                        matches.add(document);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Comparator<Document> ordering = (a, b) -> {
+            for (StructuredQuery.Order order : orders) {
+                String path = order.getField().getFieldPath();
+                int cmp = compare(field(a, path), field(b, path));
+                if (cmp != 0) {
+                    return order.getDirection() == StructuredQuery.Direction.DESCENDING ? -cmp : cmp;
+                }
+            }
+            return 0;
+        };
+        matches.sort(ordering);
+
+        List<Document> results = new ArrayList<>();
+        for (Document document : matches) {
+            if (query.hasStartAt()) {
+                int cmp = compare(document, query.getStartAt(), orders);
+                if (query.getStartAt().getBefore() ? cmp < 0 : cmp <= 0) continue;
+            }
+            if (query.hasEndAt()) {
+                int cmp = compare(document, query.getEndAt(), orders);
+                if (query.getEndAt().getBefore() ? cmp >= 0 : cmp > 0) continue;
+            }
+            results.add(document);
+        }
+        int from = Math.min(query.getOffset(), results.size());
+        int to = query.hasLimit() ? Math.min(results.size(), from + query.getLimit().getValue()) : results.size();
+        return results.subList(from, to);
+    }
+
+    /** Where a document falls relative to a cursor, in query order. */
+    private static int compare(Document document, Cursor cursor, List<StructuredQuery.Order> orders) {
+        for (int i = 0; i < cursor.getValuesCount() && i < orders.size(); i++) {
+            StructuredQuery.Order order = orders.get(i);
+            int cmp = compare(field(document, order.getField().getFieldPath()), cursor.getValues(i));
+            if (cmp != 0) {
+                return order.getDirection() == StructuredQuery.Direction.DESCENDING ? -cmp : cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean matches(Document document, StructuredQuery.Filter filter) {
+        return switch (filter.getFilterTypeCase()) {
+            case COMPOSITE_FILTER -> {
+                StructuredQuery.CompositeFilter composite = filter.getCompositeFilter();
+                yield composite.getOp() == StructuredQuery.CompositeFilter.Operator.OR
+                        ? composite.getFiltersList().stream().anyMatch(f -> matches(document, f))
+                        : composite.getFiltersList().stream().allMatch(f -> matches(document, f));
+            }
+            case FIELD_FILTER -> matches(document, filter.getFieldFilter());
+            case UNARY_FILTER -> {
+                StructuredQuery.UnaryFilter unary = filter.getUnaryFilter();
+                Value value = field(document, unary.getField().getFieldPath());
+                boolean isNull = value != null && value.hasNullValue();
+                boolean isNaN = value != null && value.hasDoubleValue() && Double.isNaN(value.getDoubleValue());
+                yield switch (unary.getOp()) {
+                    case IS_NULL -> isNull;
+                    case IS_NOT_NULL -> value != null && !isNull;
+                    case IS_NAN -> isNaN;
+                    case IS_NOT_NAN -> value != null && !isNaN;
+                    default -> false;
+                };
+            }
+            default -> true;
+        };
+    }
+
+    private static boolean matches(Document document, StructuredQuery.FieldFilter filter) {
+        Value actual = field(document, filter.getField().getFieldPath());
+        if (actual == null) {
+            return false;
+        }
+        Value expected = filter.getValue();
+        return switch (filter.getOp()) {
+            case EQUAL -> equal(actual, expected);
+            case NOT_EQUAL -> !equal(actual, expected) && !actual.hasNullValue();
+            case LESS_THAN -> comparable(actual, expected) && compare(actual, expected) < 0;
+            case LESS_THAN_OR_EQUAL -> comparable(actual, expected) && compare(actual, expected) <= 0;
+            case GREATER_THAN -> comparable(actual, expected) && compare(actual, expected) > 0;
+            case GREATER_THAN_OR_EQUAL -> comparable(actual, expected) && compare(actual, expected) >= 0;
+            case IN -> expected.getArrayValue().getValuesList().stream().anyMatch(v -> equal(actual, v));
+            case NOT_IN -> expected.getArrayValue().getValuesList().stream().noneMatch(v -> equal(actual, v));
+            case ARRAY_CONTAINS -> actual.hasArrayValue()
+                    && actual.getArrayValue().getValuesList().stream().anyMatch(v -> equal(v, expected));
+            case ARRAY_CONTAINS_ANY -> actual.hasArrayValue()
+                    && actual.getArrayValue().getValuesList().stream()
+                            .anyMatch(v -> expected.getArrayValue().getValuesList().stream().anyMatch(e -> equal(v, e)));
+            default -> false;
+        };
+    }
+
+    private static Value field(Document document, String path) {
+        if (path.equals(NAME_FIELD)) {
+            return Value.newBuilder().setReferenceValue(document.getName()).build();
+        }
+        return get(document.getFieldsMap(), segments(path));
+    }
+
+    /** A copy of the document with only the given fields; null keeps them all. */
+    private static Document project(Document document, List<String> fieldPaths) {
+        if (fieldPaths == null) {
+            return document;
+        }
+        Map<String, Value> fields = new HashMap<>();
+        for (String path : fieldPaths) {
+            if (!path.equals(NAME_FIELD)) {
+                List<String> segments = segments(path);
+                Value value = get(document.getFieldsMap(), segments);
+                if (value != null) {
+                    set(fields, segments, value);
+                }
+            }
+        }
+        return document.toBuilder().clearFields().putAllFields(fields).build();
+    }
+
+    private static Value get(Map<String, Value> fields, List<String> path) {
+        Value value = fields.get(path.get(0));
+        for (int i = 1; i < path.size() && value != null; i++) {
+            value = value.hasMapValue() ? value.getMapValue().getFieldsMap().get(path.get(i)) : null;
+        }
+        return value;
+    }
+
+    /** Sets a nested field, creating maps on the way; a null value removes it. */
+    private static void set(Map<String, Value> fields, List<String> path, Value value) {
+        String key = path.get(0);
+        if (path.size() == 1) {
+            if (value != null) {
+                fields.put(key, value);
+            } else {
+                fields.remove(key);
+            }
+            return;
+        }
+        Value child = fields.get(key);
+        Map<String, Value> nested = child != null && child.hasMapValue()
+                ? new HashMap<>(child.getMapValue().getFieldsMap()) : new HashMap<>();
+        set(nested, path.subList(1, path.size()), value);
+        fields.put(key, Value.newBuilder().setMapValue(MapValue.newBuilder().putAllFields(nested)).build());
+    }
+
+    /** Splits a field path on dots outside backquotes, unescaping quoted segments. */
+    private static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\' && quoted && i + 1 < path.length()) {
+                segment.append(path.charAt(++i));
+            } else if (c == '`') {
+                quoted = !quoted;
+            } else if (c == '.' && !quoted) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+            } else {
+                segment.append(c);
+            }
+        }
+        segments.add(segment.toString());
+        return segments;
+    }
+
+    private static boolean equal(Value a, Value b) {
+        return typeOrder(a) == typeOrder(b) && compare(a, b) == 0;
+    }
+
+    private static boolean comparable(Value a, Value b) {
+        return typeOrder(a) == typeOrder(b);
+    }
+
+    /** Firestore's cross-type ordering: null, booleans, numbers, timestamps, strings, bytes, references, points, arrays, maps. */
+    private static int typeOrder(Value value) {
+        return switch (value.getValueTypeCase()) {
+            case NULL_VALUE -> 0;
+            case BOOLEAN_VALUE -> 1;
+            case INTEGER_VALUE, DOUBLE_VALUE -> 2;
+            case TIMESTAMP_VALUE -> 3;
+            case STRING_VALUE -> 4;
+            case BYTES_VALUE -> 5;
+            case REFERENCE_VALUE -> 6;
+            case GEO_POINT_VALUE -> 7;
+            case ARRAY_VALUE -> 8;
+            case MAP_VALUE -> 9;
+            default -> 10;
+        };
+    }
+
+    private static int compare(Value a, Value b) {
+        int types = Integer.compare(typeOrder(a), typeOrder(b));
+        if (types != 0) {
+            return types;
+        }
+        return switch (a.getValueTypeCase()) {
+            case BOOLEAN_VALUE -> Boolean.compare(a.getBooleanValue(), b.getBooleanValue());
+            case INTEGER_VALUE, DOUBLE_VALUE -> a.hasIntegerValue() && b.hasIntegerValue()
+                    ? Long.compare(a.getIntegerValue(), b.getIntegerValue())
+                    : Double.compare(number(a), number(b));
+            case TIMESTAMP_VALUE -> a.getTimestampValue().getSeconds() != b.getTimestampValue().getSeconds()
+                    ? Long.compare(a.getTimestampValue().getSeconds(), b.getTimestampValue().getSeconds())
+                    : Integer.compare(a.getTimestampValue().getNanos(), b.getTimestampValue().getNanos());
+            case STRING_VALUE -> a.getStringValue().compareTo(b.getStringValue());
+            case BYTES_VALUE -> ByteString.unsignedLexicographicalComparator().compare(a.getBytesValue(), b.getBytesValue());
+            case REFERENCE_VALUE -> comparePaths(a.getReferenceValue(), b.getReferenceValue());
+            case GEO_POINT_VALUE -> a.getGeoPointValue().getLatitude() != b.getGeoPointValue().getLatitude()
+                    ? Double.compare(a.getGeoPointValue().getLatitude(), b.getGeoPointValue().getLatitude())
+                    : Double.compare(a.getGeoPointValue().getLongitude(), b.getGeoPointValue().getLongitude());
+            case ARRAY_VALUE -> compareLists(a.getArrayValue().getValuesList(), b.getArrayValue().getValuesList());
+            case MAP_VALUE -> compareMaps(a.getMapValue().getFieldsMap(), b.getMapValue().getFieldsMap());
+            default -> 0;
+        };
+    }
+
+    private static int comparePaths(String a, String b) {
+        String[] left = a.split("/");
+        String[] right = b.split("/");
+        for (int i = 0; i < left.length && i < right.length; i++) {
+            int cmp = left[i].compareTo(right[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(left.length, right.length);
+    }
+
+    private static int compareLists(List<Value> a, List<Value> b) {
+        for (int i = 0; i < a.size() && i < b.size(); i++) {
+            int cmp = compare(a.get(i), b.get(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    private static int compareMaps(Map<String, Value> a, Map<String, Value> b) {
+        var left = new TreeMap<>(a).entrySet().iterator();
+        var right = new TreeMap<>(b).entrySet().iterator();
+        while (left.hasNext() && right.hasNext()) {
+            var l = left.next();
+            var r = right.next();
+            int cmp = l.getKey().compareTo(r.getKey());
+            if (cmp == 0) {
+                cmp = compare(l.getValue(), r.getValue());
+            }
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Boolean.compare(left.hasNext(), right.hasNext());
+    }
+
+    private static double number(Value value) {
+        return value.hasIntegerValue() ? value.getIntegerValue() : value.getDoubleValue();
+    }
+
+    private static Timestamp now() {
+        Instant now = Instant.now();
+        return Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()).build();
+    }
+
+    private static ByteString newTransaction() {
+        byte[] id = new byte[16];
+        ThreadLocalRandom.current().nextBytes(id);
+        return ByteString.copyFrom(id);
+    }
+
+    private static <Q extends Message, R extends Message> MethodDescriptor<Q, R> method(
+            MethodDescriptor.MethodType type, String name, Q request, R response) {
+        return MethodDescriptor.<Q, R>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE, name))
+                .setRequestMarshaller(ProtoUtils.marshaller(request))
+                .setResponseMarshaller(ProtoUtils.marshaller(response))
+                .build();
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+        executor.shutdownNow();
+    }
+}
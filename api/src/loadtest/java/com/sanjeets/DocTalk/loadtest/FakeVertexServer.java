@@ -0,0 +1,153 @@
+package com.sanjeets.DocTalk.loadtest;
+
+import com.google.cloud.vertexai.api.Candidate;
+import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.GroundingMetadata;
+import com.google.cloud.vertexai.api.Part;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the Vertex AI PredictionService. Replays a canned response stream
+ * (a fixture from {@code src/test/resources/fixtures}) at a configurable token rate,
+ * with or without grounding metadata.
+ */
+public class FakeVertexServer implements AutoCloseable {
+
+    private static final String SERVICE = "google.cloud.aiplatform.v1.PredictionService";
+
+    private static final MethodDescriptor<GenerateContentRequest, GenerateContentResponse> GENERATE_CONTENT =
+            method(MethodDescriptor.MethodType.UNARY, "GenerateContent");
+    private static final MethodDescriptor<GenerateContentRequest, GenerateContentResponse> STREAM_GENERATE_CONTENT =
+            method(MethodDescriptor.MethodType.SERVER_STREAMING, "StreamGenerateContent");
+
+    private final List<GenerateContentResponse> script;
+    private final double tokensPerSecond;
+    private final Duration firstTokenDelay;
+    private final Server server;
+
+    public FakeVertexServer(String fixture, double tokensPerSecond, Duration firstTokenDelay, boolean grounding)
+            throws IOException {
+        this.script = load(fixture, grounding);
+        this.tokensPerSecond = tokensPerSecond;
+        this.firstTokenDelay = firstTokenDelay;
+        ServerServiceDefinition service = ServerServiceDefinition.builder(SERVICE)
+                .addMethod(GENERATE_CONTENT, ServerCalls.asyncUnaryCall(this::generateContent))
+                .addMethod(STREAM_GENERATE_CONTENT, ServerCalls.asyncServerStreamingCall(this::streamGenerateContent))
+                .build();
+        // Responses are paced with sleeps, which are cheap on virtual threads
+        this.server = NettyServerBuilder.forPort(0)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .addService(service)
+                .build()
+                .start();
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    private void streamGenerateContent(GenerateContentRequest request, StreamObserver<GenerateContentResponse> responses) {
+        try {
+            Thread.sleep(firstTokenDelay);
+            for (GenerateContentResponse chunk : script) {
+                responses.onNext(chunk.toBuilder().setModelVersion(modelOf(request)).build());
+                Thread.sleep(pace(chunk));
+            }
+            responses.onCompleted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            responses.onError(e);
+        }
+    }
+
+    private void generateContent(GenerateContentRequest request, StreamObserver<GenerateContentResponse> responses) {
+        try {
+            Thread.sleep(firstTokenDelay);
+            StringBuilder text = new StringBuilder();
+            GroundingMetadata.Builder grounding = GroundingMetadata.newBuilder();
+            GenerateContentResponse last = script.get(script.size() - 1);
+            for (GenerateContentResponse chunk : script) {
+                Candidate candidate = chunk.getCandidates(0);
+                text.append(candidate.getContent().getParts(0).getText());
+                if (candidate.hasGroundingMetadata()) {
+                    grounding.addAllGroundingChunks(candidate.getGroundingMetadata().getGroundingChunksList());
+                }
+                Thread.sleep(pace(chunk));
+            }
+            Candidate.Builder merged = last.getCandidates(0).toBuilder()
+                    .setContent(Content.newBuilder().setRole("model").addParts(Part.newBuilder().setText(text.toString())));
+            if (grounding.getGroundingChunksCount() > 0) {
+                merged.setGroundingMetadata(grounding);
+            }
+            responses.onNext(last.toBuilder().setCandidates(0, merged).setModelVersion(modelOf(request)).build());
+            responses.onCompleted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            responses.onError(e);
+        }
+    }
+
+    /** Time to "generate" a chunk, approximating four characters per token. */
+    private Duration pace(GenerateContentResponse chunk) {
+        String text = chunk.getCandidates(0).getContent().getParts(0).getText();
+        double tokens = Math.max(1, text.length() / 4.0);
+        return Duration.ofNanos((long) (tokens / tokensPerSecond * 1_000_000_000L));
+    }
+
+    private static String modelOf(GenerateContentRequest request) {
+        String model = request.getModel();
+        return model.substring(model.lastIndexOf('/') + 1);
+    }
+
+    private static List<GenerateContentResponse> load(String fixture, boolean grounding) throws IOException {
+        List<GenerateContentResponse> responses = new ArrayList<>();
+        JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                FakeVertexServer.class.getResourceAsStream("/fixtures/" + fixture), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                GenerateContentResponse.Builder builder = GenerateContentResponse.newBuilder();
+                parser.merge(line, builder);
+                if (!grounding) {
+                    builder.getCandidatesBuilder(0).clearGroundingMetadata();
+                }
+                responses.add(builder.build());
+            }
+        }
+        return responses;
+    }
+
+    private static MethodDescriptor<GenerateContentRequest, GenerateContentResponse> method(
+            MethodDescriptor.MethodType type, String name) {
+        return MethodDescriptor.<GenerateContentRequest, GenerateContentResponse>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE, name))
+                .setRequestMarshaller(ProtoUtils.marshaller(GenerateContentRequest.getDefaultInstance()))
+                .setResponseMarshaller(ProtoUtils.marshaller(GenerateContentResponse.getDefaultInstance()))
+                .build();
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+}
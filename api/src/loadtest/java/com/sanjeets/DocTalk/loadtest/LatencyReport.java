@@ -0,0 +1,58 @@
+package com.sanjeets.DocTalk.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Per-operation latency histograms and error counts for a load-test run. */
+class LatencyReport {
+
+    private static final long MAX_TRACKABLE = TimeUnit.MINUTES.toNanos(5);
+
+    private final Map<String, ConcurrentHistogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentSkipListMap<>();
+
+    void record(String operation, long nanos) {
+        histograms.computeIfAbsent(operation, k -> new ConcurrentHistogram(MAX_TRACKABLE, 3))
+                .recordValue(Math.min(nanos, MAX_TRACKABLE));
+    }
+
+    void error(String operation) {
+        errors.computeIfAbsent(operation, k -> new LongAdder()).increment();
+    }
+
+    void print(PrintStream out, Duration elapsed) {
+        double seconds = elapsed.toNanos() / 1_000_000_000.0;
+        out.printf("%n%-16s %8s %7s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "per sec", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (var entry : histograms.entrySet()) {
+            Histogram h = entry.getValue();
+            LongAdder failed = errors.get(entry.getKey());
+            out.printf("%-16s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    entry.getKey(),
+                    h.getTotalCount(),
+                    failed != null ? failed.sum() : 0,
+                    h.getTotalCount() / seconds,
+                    millis(h.getValueAtPercentile(50)),
+                    millis(h.getValueAtPercentile(90)),
+                    millis(h.getValueAtPercentile(99)),
+                    millis(h.getMaxValue()));
+        }
+        errors.forEach((operation, count) -> {
+            if (!histograms.containsKey(operation)) {
+                out.printf("%-16s %8d %7d%n", operation, 0, count.sum());
+            }
+        });
+        out.printf("%nElapsed: %.1f s%n", seconds);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,292 @@
+package com.sanjeets.DocTalk.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.sanjeets.DocTalk.DocTalkApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.FirestoreEmulatorContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test. Boots the full application against local stand-ins for every
+ * external dependency (see {@link LoadTestStandIns}), seeds projects, prompts and
+ * documents through the public API, then drives concurrent streaming chat sessions
+ * alongside the list endpoints the UI polls, and prints latency percentiles per operation.
+ * <p>
+ * Arguments are {@code key=value} pairs:
+ * <ul>
+ *   <li>{@code projects} (default 5), {@code documents} per project (3),
+ *       {@code sessions} in total (50), {@code turns} per session (3)</li>
+ *   <li>{@code tokensPerSecond} (80) and {@code firstTokenMs} (400): fake model pacing</li>
+ *   <li>{@code grounding} (true): whether replayed chunks carry citations</li>
+ *   <li>{@code fixture} (grounded-stream.ndjson): response stream to replay</li>
+ *   <li>{@code cassette}: traffic recorded with {@code doctalk.recording.file}; replaces the fake
+ *       model, and lets search provisioning succeed, with the recorded timing divided by {@code speed} (1)</li>
+ *   <li>{@code virtualThreads} (true): run the server on virtual threads; {@code false} shows the
+ *       platform-thread baseline for the same load</li>
+ * </ul>
+ * Besides latencies, the run reports the peak number of requests in flight at once and the
+ * peak number of platform threads the JVM needed to hold them.
+ * The Firestore emulator is taken from {@code FIRESTORE_EMULATOR_HOST} when set,
+ * otherwise one is started with Testcontainers; {@code firestore=memory} uses
+ * {@link FakeFirestoreServer} instead, for machines without Docker.
+ */
+public class LoadTest {
+
+    private static final String BUCKET = "doctalk-loadtest";
+
+    private final Map<String, String> options;
+    private final LatencyReport report = new LatencyReport();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient http = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private String baseUrl;
+
+    LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split == -1) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        // Devtools would restart the app in its own class loader and swap the stand-ins out from under us
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        new LoadTest(options).run();
+    }
+
+    void run() throws Exception {
+        FirestoreEmulatorContainer emulator = null;
+        FakeFirestoreServer inMemory = null;
+        String emulatorHost = System.getenv("FIRESTORE_EMULATOR_HOST");
+        if (option("firestore", "emulator").equals("memory")) {
+            inMemory = new FakeFirestoreServer();
+            emulatorHost = inMemory.getHost();
+        } else if (emulatorHost == null || emulatorHost.isBlank()) {
+            emulator = new FirestoreEmulatorContainer(
+                    DockerImageName.parse("gcr.io/google.com/cloudsdktool/google-cloud-cli:emulators"));
+            emulator.start();
+            emulatorHost = emulator.getEmulatorEndpoint();
+        }
+
+        String cassette = options.get("cassette");
+        try (ReplayServer replay = new ReplayServer(cassette != null ? Path.of(cassette) : null,
+                    Double.parseDouble(option("speed", "1")));
+             FakeVertexServer vertex = cassette != null ? null : new FakeVertexServer(
+                    option("fixture", "grounded-stream.ndjson"),
+                    Double.parseDouble(option("tokensPerSecond", "80")),
+                    Duration.ofMillis(Long.parseLong(option("firstTokenMs", "400"))),
+                    Boolean.parseBoolean(option("grounding", "true")));
+             ConfigurableApplicationContext app = new SpringApplicationBuilder()
+                     .sources(DocTalkApplication.class, LoadTestStandIns.class)
+                     .profiles("loadtest")
+                     // Arguments rather than default properties, so they win over application.yaml
+                     .run("--server.port=0",
+                             "--spring.main.allow-bean-definition-overriding=true",
+                             "--spring.threads.virtual.enabled=" + option("virtualThreads", "true"),
+                             "--doctalk.gcs.bucket-name=" + BUCKET,
+                             // The in-memory stand-in has no snapshot listeners
+                             "--doctalk.cache.listen=" + (inMemory == null),
+                             "--loadtest.firestore.host=" + emulatorHost,
+                             "--loadtest.vertex.port=" + (vertex != null ? vertex.getPort() : replay.getPort()),
+                             "--loadtest.search.port=" + replay.getPort())) {
+            baseUrl = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+            Storage storage = app.getBean(Storage.class);
+
+            long start = System.nanoTime();
+            List<String> sessions = seed(storage);
+            long seeded = System.nanoTime();
+            System.out.printf("Seeded %d sessions in %.1f s%n", sessions.size(), (seeded - start) / 1e9);
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            converse(sessions);
+            report.print(System.out, Duration.ofNanos(System.nanoTime() - seeded));
+            System.out.printf("Virtual threads %s: peak %d requests in flight, peak %d platform threads%n",
+                    option("virtualThreads", "true"), peakInFlight.get(), threads.getPeakThreadCount());
+        } finally {
+            if (emulator != null) {
+                emulator.stop();
+            }
+            if (inMemory != null) {
+                inMemory.close();
+            }
+        }
+    }
+
+    /** Creates projects, a prompt, documents and sessions through the API; returns session IDs. */
+    private List<String> seed(Storage storage) throws Exception {
+        int projects = intOption("projects", 5);
+        int documents = intOption("documents", 3);
+        int sessions = intOption("sessions", 50);
+
+        String promptId = post("create_prompt", "/api/prompts",
+                Map.of("name", "Load test", "content", "Answer from the project's documents.")).get("id").asText();
+
+        List<String> projectIds = new ArrayList<>();
+        for (int p = 0; p < projects; p++) {
+            String projectId = post("create_project", "/api/projects", Map.of("name", "loadtest-" + p)).get("id").asText();
+            projectIds.add(projectId);
+            for (int d = 0; d < documents; d++) {
+                // Every project shares the same handbook, so half the uploads exercise dedup
+                String fileName = d == 0 ? "handbook.txt" : "doc-" + p + "-" + d + ".txt";
+                String body = d == 0 ? "Shared handbook" : "Document " + p + "-" + d;
+                // Where the signed upload URL of a deduplicated project puts the bytes
+                storage.create(BlobInfo.newBuilder(BUCKET, "_staging/" + projectId + "/" + fileName).setContentType("text/plain").build(),
+                        body.repeat(1000).getBytes(StandardCharsets.UTF_8));
+                post("complete_upload", "/api/documents/complete?projectId=" + projectId + "&fileName=" + encode(fileName), null);
+            }
+        }
+
+        List<String> sessionIds = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            String projectId = projectIds.get(s % projectIds.size());
+            sessionIds.add(post("create_session", "/api/chat/sessions",
+                    Map.of("projectId", projectId, "promptId", promptId)).get("id").asText());
+        }
+        return sessionIds;
+    }
+
+    /** Runs every session concurrently, each taking its turns back to back. */
+    private void converse(List<String> sessions) throws Exception {
+        int turns = intOption("turns", 3);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>();
+            for (String sessionId : sessions) {
+                running.add(executor.submit(() -> {
+                    for (int t = 0; t < turns; t++) {
+                        stream(sessionId, "Question " + t + ": what does the handbook say about onboarding?");
+                        // The UI refreshes these around each turn
+                        get("list_projects", "/api/projects?pageSize=20&view=summary");
+                        get("list_messages", "/api/chat/sessions/" + sessionId + "/messages");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        }
+    }
+
+    private void stream(String sessionId, String content) {
+        long start = System.nanoTime();
+        enter();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/chat/sessions/" + sessionId + "/stream"))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(Map.of("content", content))))
+                    .build();
+            HttpResponse<Stream<String>> response = http.send(request, HttpResponse.BodyHandlers.ofLines());
+            report.record("stream_ttfb", System.nanoTime() - start);
+            if (response.statusCode() != 200) {
+                response.body().close();
+                report.error("stream_total");
+                return;
+            }
+            boolean firstText = true;
+            try (Stream<String> lines = response.body()) {
+                Iterator<String> it = lines.iterator();
+                while (it.hasNext()) {
+                    String line = it.next();
+                    if (firstText && line.startsWith("data:") && line.contains("\"text\"")) {
+                        report.record("stream_ttft", System.nanoTime() - start);
+                        firstText = false;
+                    }
+                }
+            }
+            report.record("stream_total", System.nanoTime() - start);
+        } catch (IOException | InterruptedException e) {
+            report.error("stream_total");
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void enter() {
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+
+    private JsonNode post(String operation, String path, Object body) throws Exception {
+        HttpRequest.BodyPublisher publisher = body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body));
+        return send(operation, HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(publisher)
+                .build());
+    }
+
+    private void get(String operation, String path) {
+        try {
+            send(operation, HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build());
+        } catch (Exception e) {
+            // Already counted
+        }
+    }
+
+    private JsonNode send(String operation, HttpRequest request) throws Exception {
+        long start = System.nanoTime();
+        enter();
+        try {
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() >= 300) {
+                throw new IOException(operation + " returned " + response.statusCode() + ": " + response.body());
+            }
+            report.record(operation, System.nanoTime() - start);
+            return response.body().isEmpty() ? null : objectMapper.readTree(response.body());
+        } catch (Exception e) {
+            report.error(operation);
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    private int intOption(String key, int defaultValue) {
+        return Integer.parseInt(option(key, String.valueOf(defaultValue)));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
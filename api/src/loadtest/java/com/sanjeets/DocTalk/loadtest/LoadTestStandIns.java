@@ -0,0 +1,177 @@
+package com.sanjeets.DocTalk.loadtest;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.aiplatform.v1.GenAiCacheServiceClient;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.api.services.storage.model.Bucket;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import com.google.cloud.storage.spi.v1.StorageRpc;
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.CachedContent;
+import com.google.cloud.vertexai.api.PredictionServiceClient;
+import com.google.cloud.vertexai.api.PredictionServiceSettings;
+import com.sanjeets.DocTalk.config.ContextCacheClient;
+import com.sanjeets.DocTalk.config.DiscoveryEngineFactory;
+import com.sanjeets.DocTalk.config.TrafficRecorder;
+import com.sanjeets.DocTalk.config.VertexAiFactory;
+import io.grpc.ManagedChannelBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Replaces the GCP clients with local stand-ins: the Firestore emulator, an in-memory GCS,
+ * and gRPC stubs for Vertex AI and Discovery Engine ({@link FakeVertexServer} or {@link ReplayServer}).
+ * <p>
+ * Deliberately not a {@code @Configuration}, so component scanning skips it; {@link LoadTest}
+ * registers it after the application's own configuration so these definitions win.
+ */
+public class LoadTestStandIns {
+
+    @Value("${doctalk.gcp.project-id}")
+    private String projectId;
+
+    @Bean
+    public GoogleCredentials googleCredentials() {
+        return GoogleCredentials.create(new AccessToken("loadtest", Date.from(Instant.now().plus(1, ChronoUnit.DAYS))));
+    }
+
+    @Bean
+    public Firestore firestore(@Value("${loadtest.firestore.host}") String emulatorHost) {
+        return FirestoreOptions.newBuilder()
+                .setProjectId(projectId)
+                .setEmulatorHost(emulatorHost)
+                .build()
+                .getService();
+    }
+
+    @Bean
+    public Storage storage() throws NoSuchAlgorithmException {
+        // V4 signing is local, so a throwaway key lets the signed-URL paths run too
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        ServiceAccountCredentials signer = ServiceAccountCredentials.newBuilder()
+                .setClientEmail("loadtest@" + projectId + ".iam.gserviceaccount.com")
+                .setPrivateKey(generator.generateKeyPair().getPrivate())
+                .setProjectId(projectId)
+                .build();
+        StorageOptions inMemory = LocalStorageHelper.getOptions();
+        StorageRpc rpc = bucketsAlwaysExist((StorageRpc) inMemory.getRpc());
+        return inMemory.toBuilder()
+                .setProjectId(projectId)
+                .setCredentials(signer)
+                .setServiceRpcFactory(options -> rpc)
+                .build()
+                .getService();
+    }
+
+    @Bean
+    public VertexAiFactory vertexAiFactory(GoogleCredentials credentials, TrafficRecorder recorder,
+                                           @Value("${loadtest.vertex.port}") int vertexPort,
+                                           @Value("${doctalk.chat.location:us-central1}") String location) {
+        return new VertexAiFactory(credentials, recorder) {
+            @Override
+            public VertexAI create() {
+                return new VertexAI.Builder()
+                        .setProjectId(projectId)
+                        .setLocation(location)
+                        .setCredentials(credentials)
+                        .setPredictionClientSupplier(() -> plaintextClient(vertexPort))
+                        .build();
+            }
+        };
+    }
+
+    @Bean
+    public DiscoveryEngineFactory discoveryEngineFactory(GoogleCredentials credentials, TrafficRecorder recorder,
+                                                         @Value("${loadtest.search.port}") int searchPort) {
+        return new DiscoveryEngineFactory(credentials, recorder) {
+            @Override
+            protected CredentialsProvider credentialsProvider() {
+                return NoCredentialsProvider.create();
+            }
+
+            @Override
+            protected TransportChannelProvider channel(InstantiatingGrpcChannelProvider.Builder defaults) {
+                return defaults.setEndpoint("localhost:" + searchPort)
+                        .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                        .build();
+            }
+        };
+    }
+
+    /** Hands out names without storing anything; the fake Gemini server ignores cached content. */
+    @Bean
+    public ContextCacheClient contextCacheClient(ObjectProvider<GenAiCacheServiceClient> client,
+                                                 @Value("${doctalk.chat.location:us-central1}") String location) {
+        return new ContextCacheClient(client) {
+            @Override
+            public CachedContent create(CachedContent content) {
+                Instant expireTime = Instant.now().plusSeconds(content.getTtl().getSeconds());
+                return content.toBuilder()
+                        .setName("projects/" + projectId + "/locations/" + location + "/cachedContents/" + UUID.randomUUID())
+                        .setExpireTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(expireTime.getEpochSecond()))
+                        .build();
+            }
+
+            @Override
+            public Instant extend(String name, Duration ttl) {
+                return Instant.now().plus(ttl);
+            }
+
+            @Override
+            public void delete(String name) {
+            }
+        };
+    }
+
+    /** The in-memory RPC keeps objects but not buckets; answer bucket lookups with the bucket asked for. */
+    private static StorageRpc bucketsAlwaysExist(StorageRpc delegate) {
+        return (StorageRpc) Proxy.newProxyInstance(StorageRpc.class.getClassLoader(), new Class<?>[]{StorageRpc.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("get") && args[0] instanceof Bucket bucket) {
+                        return bucket;
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static PredictionServiceClient plaintextClient(int port) {
+        try {
+            return PredictionServiceClient.create(PredictionServiceSettings.newBuilder()
+                    .setCredentialsProvider(NoCredentialsProvider.create())
+                    .setTransportChannelProvider(InstantiatingGrpcChannelProvider.newBuilder()
+                            .setEndpoint("localhost:" + port)
+                            .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                            .build())
+                    .build());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.sanjeets.DocTalk.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjeets.DocTalk.config.RecordedCall;
+import io.grpc.HandlerRegistry;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a cassette written by {@code TrafficRecorder} back over gRPC, for any service it
+ * contains. A call whose request was recorded verbatim replays those recordings in order and
+ * then keeps returning the last one, so long-running-operation polls advance to "done" and
+ * stay there. Other calls cycle through everything recorded for the method.
+ * <p>
+ * Timing is reproduced relative to the start of each call, divided by {@code speed}.
+ * Methods that were never recorded fail with UNIMPLEMENTED.
+ */
+public class ReplayServer implements AutoCloseable {
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withCause(e).asRuntimeException();
+            }
+        }
+    };
+
+    private final Map<String, List<RecordedCall>> byMethod = new HashMap<>();
+    private final Map<String, List<RecordedCall>> byRequest = new HashMap<>();
+    private final Map<String, AtomicInteger> cursors = new ConcurrentHashMap<>();
+    private final Map<String, ServerMethodDefinition<?, ?>> definitions = new ConcurrentHashMap<>();
+    private final double speed;
+    private final Server server;
+
+    public ReplayServer(Path cassette, double speed) throws IOException {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.speed = speed;
+        if (cassette != null) {
+            load(cassette);
+        }
+        this.server = NettyServerBuilder.forPort(0)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .fallbackHandlerRegistry(new HandlerRegistry() {
+                    @Override
+                    public ServerMethodDefinition<?, ?> lookupMethod(String methodName, String authority) {
+                        return byMethod.containsKey(methodName)
+                                ? definitions.computeIfAbsent(methodName, ReplayServer.this::define)
+                                : null;
+                    }
+                })
+                .build()
+                .start();
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    private void load(Path cassette) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (BufferedReader reader = Files.newBufferedReader(cassette, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                RecordedCall call = objectMapper.readValue(line, RecordedCall.class);
+                byMethod.computeIfAbsent(call.method(), k -> new ArrayList<>()).add(call);
+                byRequest.computeIfAbsent(call.method() + ' ' + call.request(), k -> new ArrayList<>()).add(call);
+            }
+        }
+    }
+
+    private ServerMethodDefinition<byte[], byte[]> define(String methodName) {
+        MethodDescriptor.MethodType type = MethodDescriptor.MethodType.valueOf(byMethod.get(methodName).get(0).type());
+        ServerCallHandler<byte[], byte[]> handler = switch (type) {
+            case UNARY -> ServerCalls.asyncUnaryCall((request, responses) -> replay(methodName, request, responses));
+            case SERVER_STREAMING ->
+                    ServerCalls.asyncServerStreamingCall((request, responses) -> replay(methodName, request, responses));
+            default -> throw new IllegalStateException("Cannot replay " + type + " method " + methodName);
+        };
+        return ServerMethodDefinition.create(MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(type)
+                .setFullMethodName(methodName)
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build(), handler);
+    }
+
+    private void replay(String methodName, byte[] request, StreamObserver<byte[]> responses) {
+        long start = System.nanoTime();
+        RecordedCall call = next(methodName, Base64.getEncoder().encodeToString(request));
+        try {
+            for (RecordedCall.Message message : call.responses()) {
+                sleepUntil(start, message.atMicros());
+                responses.onNext(Base64.getDecoder().decode(message.data()));
+            }
+            sleepUntil(start, call.closedAtMicros());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            responses.onError(Status.CANCELLED.asRuntimeException());
+            return;
+        }
+        Status status = Status.fromCode(Status.Code.valueOf(call.status())).withDescription(call.description());
+        if (status.isOk()) {
+            responses.onCompleted();
+        } else {
+            responses.onError(status.asRuntimeException());
+        }
+    }
+
+    private RecordedCall next(String methodName, String request) {
+        String key = methodName + ' ' + request;
+        List<RecordedCall> same = byRequest.get(key);
+        if (same != null) {
+            int index = cursors.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+            return same.get(Math.min(index, same.size() - 1));
+        }
+        List<RecordedCall> calls = byMethod.get(methodName);
+        int index = cursors.computeIfAbsent(methodName, k -> new AtomicInteger()).getAndIncrement();
+        return calls.get(Math.floorMod(index, calls.size()));
+    }
+
+    private void sleepUntil(long startNanos, long atMicros) throws InterruptedException {
+        long remaining = startNanos + (long) (TimeUnit.MICROSECONDS.toNanos(atMicros) / speed) - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+}
@@ -1,9 +1,35 @@
 package com.sanjeets.DocTalk.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
 import org.springframework.scheduling.annotation.EnableAsync;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.concurrent.Executors;
+
+/**
+ * Execution model. With {@code spring.threads.virtual.enabled}, MVC requests, {@code @Async}
+ * work, scheduled tasks and the blocking sections of reactive pipelines all run on virtual
+ * threads, so a call parked on Firestore, GCS or Vertex AI holds no platform thread.
+ */
 @Configuration
 @EnableAsync
 public class AsyncConfig {
+
+    // Keeps @Async work (e.g. provisioning) in the trace of the request that started it
+    @Bean
+    public ContextPropagatingTaskDecorator contextPropagatingTaskDecorator() {
+        return new ContextPropagatingTaskDecorator();
+    }
+
+    /** Where reactive pipelines run blocking client calls; bounded elastic when virtual threads are off. */
+    @Bean(destroyMethod = "dispose") // A no-op for the shared bounded elastic scheduler
+    public Scheduler blockingScheduler(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        return virtualThreads
+                ? Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "doctalk-blocking")
+                : Schedulers.boundedElastic();
+    }
 }
@@ -0,0 +1,64 @@
+package com.sanjeets.DocTalk.config;
+
+import com.google.cloud.aiplatform.v1.GenAiCacheServiceClient;
+import com.google.cloud.aiplatform.v1.LocationName;
+import com.google.cloud.vertexai.api.CachedContent;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Timestamp;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Registers and maintains Vertex AI cached content (context caching). Entries are built and
+ * returned as the {@code vertexai} API types {@code ChatService} already uses; the cache service
+ * itself lives in the aiplatform client, whose messages are wire-compatible. Like
+ * {@link VertexAiFactory}, kept as a bean so the load test can swap in a local stub; the
+ * client itself is the lazy singleton from {@link GcpConfig}, so a stub never builds one.
+ */
+@Component
+public class ContextCacheClient {
+
+    private final ObjectProvider<GenAiCacheServiceClient> client;
+
+    @Value("${doctalk.gcp.project-id}")
+    private String projectId;
+
+    @Value("${doctalk.chat.location:us-central1}")
+    private String location;
+
+    public ContextCacheClient(ObjectProvider<GenAiCacheServiceClient> client) {
+        this.client = client;
+    }
+
+    /** Stores {@code content}, which carries its TTL; returns the stored entry with its name and expiry. */
+    public CachedContent create(CachedContent content) throws IOException {
+        com.google.cloud.aiplatform.v1.CachedContent created = client.getObject().createCachedContent(
+                LocationName.of(projectId, location),
+                com.google.cloud.aiplatform.v1.CachedContent.parseFrom(content.toByteString()));
+        return CachedContent.parseFrom(created.toByteString());
+    }
+
+    /** Moves the entry's expiry to {@code ttl} from now, and returns it. */
+    public Instant extend(String name, Duration ttl) throws IOException {
+        com.google.cloud.aiplatform.v1.CachedContent updated = client.getObject().updateCachedContent(
+                com.google.cloud.aiplatform.v1.CachedContent.newBuilder()
+                        .setName(name)
+                        .setTtl(com.google.protobuf.Duration.newBuilder().setSeconds(ttl.toSeconds()))
+                        .build(),
+                FieldMask.newBuilder().addPaths("ttl").build());
+        return toInstant(updated.getExpireTime());
+    }
+
+    public void delete(String name) throws IOException {
+        client.getObject().deleteCachedContent(name);
+    }
+
+    public static Instant toInstant(Timestamp timestamp) {
+        return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+    }
+}
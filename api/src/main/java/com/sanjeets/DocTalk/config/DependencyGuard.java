@@ -0,0 +1,367 @@
+package com.sanjeets.DocTalk.config;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.BaseServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Deadline, circuit breaker and bulkhead for one remote dependency.
+ * <p>
+ * The breaker looks at the outcomes of the last {@code window} calls. Once at least
+ * {@code minimum-calls} of them are in and the share of failures reaches
+ * {@code failure-rate}, it opens: calls are rejected without being made for
+ * {@code open-for}, after which {@code half-open-calls} trial calls are let through. They
+ * close the breaker if all succeed, and a failing one opens it again. Only errors that say
+ * the dependency is unwell count as failures (timeouts, unavailability, server errors), not
+ * a missing document or a bad request. The bulkhead caps the calls in flight at
+ * {@code max-concurrent} and rejects the rest straight away, so a slow dependency cannot tie
+ * up every thread waiting on it; background work that would rather queue can wait a bounded
+ * time for a slot instead. Rejections are {@link DependencyUnavailableException}s.
+ */
+public final class DependencyGuard {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** How one dependency is guarded; see {@code doctalk.resilience} in {@code application.yaml}. */
+    public record Settings(Duration deadline, Duration hedgeAfter, int maxConcurrent, int window, int minimumCalls,
+                           double failureRate, Duration openFor, int halfOpenCalls) {}
+
+    private static final Duration BULKHEAD_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final Set<StatusCode.Code> FAILURE_CODES = EnumSet.of(StatusCode.Code.UNAVAILABLE,
+            StatusCode.Code.INTERNAL, StatusCode.Code.UNKNOWN,
+            StatusCode.Code.RESOURCE_EXHAUSTED, StatusCode.Code.DATA_LOSS);
+
+    private final String name;
+    private final Settings settings;
+    private final MeterRegistry registry;
+    private final Semaphore bulkhead;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final boolean[] outcomes; // Ring of the last calls, true for a failure
+    private int recorded;
+    private int next;
+    private int failures;
+    private volatile State state = State.CLOSED;
+    private long openedAtNanos;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    DependencyGuard(String name, Settings settings, MeterRegistry registry) {
+        this.name = name;
+        this.settings = settings;
+        this.registry = registry;
+        this.bulkhead = new Semaphore(settings.maxConcurrent());
+        this.outcomes = new boolean[Math.max(1, settings.window())];
+
+        Gauge.builder("doctalk.dependency.state", this, g -> g.state.ordinal())
+                .description("Circuit breaker state: 0 closed, 1 open, 2 half-open")
+                .tag("dependency", name)
+                .register(registry);
+        Gauge.builder("doctalk.dependency.inflight", this, g -> settings.maxConcurrent() - g.bulkhead.availablePermits())
+                .description("Calls in flight to the dependency")
+                .tag("dependency", name)
+                .register(registry);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /** How long a single call may take. */
+    public Duration deadline() {
+        return settings.deadline();
+    }
+
+    /**
+     * Takes a bulkhead slot for one call, or rejects it. The permit must be closed when the call
+     * finishes, after reporting its outcome; a call closed without one (cancelled, say) is not counted.
+     *
+     * @throws DependencyUnavailableException if the circuit is open or the bulkhead full
+     */
+    public Permit acquire() {
+        boolean trial = admit();
+        if (!bulkhead.tryAcquire()) {
+            rejectBulkhead(trial);
+        }
+        return new Permit(trial);
+    }
+
+    /**
+     * Like {@link #acquire()}, but waits up to {@code maxWait} for a bulkhead slot rather than
+     * being rejected at once. For background work, which has no caller to hold up.
+     *
+     * @throws DependencyUnavailableException if the circuit is open, or no slot freed up in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Permit acquire(Duration maxWait) throws InterruptedException {
+        boolean trial = admit();
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            if (trial) abandonTrial();
+            throw e;
+        }
+        if (!acquired) {
+            rejectBulkhead(trial);
+        }
+        return new Permit(trial);
+    }
+
+    private void rejectBulkhead(boolean trial) {
+        if (trial) abandonTrial();
+        count("rejected_bulkhead");
+        throw new DependencyUnavailableException(name, name + " has too many calls in flight", BULKHEAD_RETRY_AFTER);
+    }
+
+    /** Runs a blocking call under a permit. The deadline is the caller's to enforce, e.g. in the client's call settings. */
+    public <T> T call(Supplier<T> call) {
+        try (Permit permit = acquire()) {
+            try {
+                T result = call.get();
+                permit.success();
+                return result;
+            } catch (RuntimeException e) {
+                permit.failure(e);
+                throw e;
+            }
+        }
+    }
+
+    /** Guards {@code call} when subscribed, failing it once it runs past the deadline. */
+    public <T> Mono<T> mono(Mono<T> call) {
+        return Mono.defer(() -> {
+            Permit permit = acquire();
+            return call
+                    .timeout(settings.deadline(), Mono.error(() -> timedOut()))
+                    .doOnSuccess(value -> permit.success())
+                    .doOnError(permit::failure)
+                    .doFinally(signal -> permit.close());
+        });
+    }
+
+    /** Guards a stream when subscribed. The stream enforces its own deadlines, which differ per item and overall. */
+    public <T> Flux<T> flux(Flux<T> call) {
+        return Flux.defer(() -> {
+            Permit permit = acquire();
+            return call
+                    .doOnComplete(permit::success)
+                    .doOnError(permit::failure)
+                    .doFinally(signal -> permit.close());
+        });
+    }
+
+    /**
+     * Guards an idempotent read, sending it a second time if the first has not answered within
+     * {@code hedge-after}; whichever answers first wins and the other is cancelled. Both count
+     * against the bulkhead, so hedges stop when the dependency is saturated.
+     */
+    public <T> Mono<T> hedged(Supplier<Mono<T>> call) {
+        Duration hedgeAfter = settings.hedgeAfter();
+        if (hedgeAfter == null || hedgeAfter.isZero() || hedgeAfter.isNegative()) {
+            return mono(Mono.defer(call));
+        }
+        return Mono.defer(() -> {
+            AtomicBoolean hedging = new AtomicBoolean();
+            Mono<T> primary = mono(Mono.defer(call))
+                    .doOnSuccess(value -> hedgeWon(hedging, "primary"));
+            Mono<T> hedge = Mono.delay(hedgeAfter)
+                    .then(Mono.defer(() -> {
+                        hedging.set(true);
+                        return mono(Mono.defer(call));
+                    }))
+                    .doOnSuccess(value -> hedgeWon(hedging, "hedge"))
+                    // A hedge that is rejected or fails leaves the answer to the primary
+                    .onErrorResume(e -> Mono.never());
+            // The first signal wins, so a primary that completes empty is not waited past
+            return Mono.firstWithSignal(primary, hedge);
+        });
+    }
+
+    private void hedgeWon(AtomicBoolean hedging, String winner) {
+        if (!hedging.get()) return;
+        Counter.builder("doctalk.dependency.hedges")
+                .description("Hedged reads, by the attempt that answered first")
+                .tag("dependency", name)
+                .tag("winner", winner)
+                .register(registry)
+                .increment();
+    }
+
+    /** Whether the breaker lets a call through; true if it is one of the half-open trials. */
+    private boolean admit() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                long remaining = openedAtNanos + settings.openFor().toNanos() - System.nanoTime();
+                if (remaining > 0) {
+                    count("rejected_open");
+                    throw new DependencyUnavailableException(name, name + " is unavailable", Duration.ofNanos(remaining));
+                }
+                transition(State.HALF_OPEN);
+                trialsStarted = 0;
+                trialsSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsStarted >= settings.halfOpenCalls()) {
+                    count("rejected_open");
+                    throw new DependencyUnavailableException(name, name + " is recovering", BULKHEAD_RETRY_AFTER);
+                }
+                trialsStarted++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean trial, String outcome) {
+        count(outcome);
+        boolean failure = outcome.equals("failure") || outcome.equals("timeout");
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                if (!trial) return; // Started before the circuit opened; says nothing about now
+                if (failure) {
+                    open();
+                } else if (++trialsSucceeded >= settings.halfOpenCalls()) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+            if (state == State.OPEN) return;
+
+            if (recorded == outcomes.length) {
+                if (outcomes[next]) failures--;
+            } else {
+                recorded++;
+            }
+            outcomes[next] = failure;
+            if (failure) failures++;
+            next = (next + 1) % outcomes.length;
+            if (recorded >= settings.minimumCalls() && failures >= settings.failureRate() * recorded) {
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gives back the slot of a trial that ended without an outcome, so the breaker is not stuck half-open. */
+    private void abandonTrial() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN && trialsStarted > 0) trialsStarted--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAtNanos = System.nanoTime();
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    private void transition(State to) {
+        if (state == to) return;
+        state = to;
+        Counter.builder("doctalk.dependency.transitions")
+                .description("Circuit breaker state changes")
+                .tag("dependency", name)
+                .tag("to", to.name().toLowerCase())
+                .register(registry)
+                .increment();
+    }
+
+    private DependencyUnavailableException timedOut() {
+        return new DependencyUnavailableException(name, name + " did not answer within " + settings.deadline(),
+                BULKHEAD_RETRY_AFTER);
+    }
+
+    private void count(String outcome) {
+        Counter.builder("doctalk.dependency.calls")
+                .description("Calls to the dependency, by outcome")
+                .tag("dependency", name)
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * How a failed call is counted: {@code timeout} or {@code failure} if the error says the
+     * dependency is unwell, {@code client_error} if it says the request was wrong.
+     */
+    static String outcome(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            // Inside a guarded call, this is the guard's own deadline
+            if (e instanceof DependencyUnavailableException || e instanceof TimeoutException) return "timeout";
+            if (e instanceof ApiException api) {
+                StatusCode.Code code = api.getStatusCode().getCode();
+                if (code == StatusCode.Code.DEADLINE_EXCEEDED) return "timeout";
+                return FAILURE_CODES.contains(code) ? "failure" : "client_error";
+            }
+            if (e instanceof BaseServiceException service) {
+                return service.isRetryable() || service.getCode() >= 500 ? "failure" : "client_error";
+            }
+            if (e instanceof IllegalArgumentException || e instanceof CancellationException) return "client_error";
+        }
+        return "failure";
+    }
+
+    /** One call's bulkhead slot and breaker admission. */
+    public final class Permit implements AutoCloseable {
+        private final boolean trial;
+        private boolean reported;
+        private boolean closed;
+
+        private Permit(boolean trial) {
+            this.trial = trial;
+        }
+
+        public void success() {
+            report("success");
+        }
+
+        public void failure(Throwable error) {
+            report(outcome(error));
+        }
+
+        private void report(String outcome) {
+            if (reported) return;
+            reported = true;
+            record(trial, outcome);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            bulkhead.release();
+            if (trial && !reported) abandonTrial();
+        }
+    }
+}
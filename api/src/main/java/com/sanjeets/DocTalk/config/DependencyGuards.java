@@ -0,0 +1,67 @@
+package com.sanjeets.DocTalk.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * The {@link DependencyGuard} of each remote dependency, configured under
+ * {@code doctalk.resilience.<dependency>}. Each dependency gets its own breaker and bulkhead,
+ * so one that is down or slow fails fast without holding up calls to the others.
+ */
+@Component
+public class DependencyGuards {
+
+    private final DependencyGuard firestore;
+    private final DependencyGuard vertexAi;
+    private final DependencyGuard storage;
+    private final DependencyGuard discoveryEngine;
+
+    public DependencyGuards(Environment environment, MeterRegistry registry) {
+        this.firestore = guard("firestore", environment, registry,
+                new DependencyGuard.Settings(Duration.ofSeconds(10), Duration.ofMillis(300), 256, 50, 20, 0.5,
+                        Duration.ofSeconds(10), 3));
+        this.vertexAi = guard("vertex-ai", environment, registry,
+                new DependencyGuard.Settings(Duration.ofSeconds(120), null, 64, 20, 10, 0.5,
+                        Duration.ofSeconds(30), 2));
+        this.storage = guard("storage", environment, registry,
+                new DependencyGuard.Settings(Duration.ofSeconds(15), null, 64, 20, 10, 0.5,
+                        Duration.ofSeconds(15), 2));
+        this.discoveryEngine = guard("discovery-engine", environment, registry,
+                new DependencyGuard.Settings(Duration.ofMinutes(15), null, 8, 10, 5, 0.5,
+                        Duration.ofSeconds(60), 1));
+    }
+
+    public DependencyGuard firestore() {
+        return firestore;
+    }
+
+    public DependencyGuard vertexAi() {
+        return vertexAi;
+    }
+
+    public DependencyGuard storage() {
+        return storage;
+    }
+
+    public DependencyGuard discoveryEngine() {
+        return discoveryEngine;
+    }
+
+    private static DependencyGuard guard(String name, Environment environment, MeterRegistry registry,
+                                         DependencyGuard.Settings defaults) {
+        String prefix = "doctalk.resilience." + name + ".";
+        return new DependencyGuard(name, new DependencyGuard.Settings(
+                environment.getProperty(prefix + "deadline", Duration.class, defaults.deadline()),
+                environment.getProperty(prefix + "hedge-after", Duration.class, defaults.hedgeAfter()),
+                environment.getProperty(prefix + "max-concurrent", Integer.class, defaults.maxConcurrent()),
+                environment.getProperty(prefix + "window", Integer.class, defaults.window()),
+                environment.getProperty(prefix + "minimum-calls", Integer.class, defaults.minimumCalls()),
+                environment.getProperty(prefix + "failure-rate", Double.class, defaults.failureRate()),
+                environment.getProperty(prefix + "open-for", Duration.class, defaults.openFor()),
+                environment.getProperty(prefix + "half-open-calls", Integer.class, defaults.halfOpenCalls())),
+                registry);
+    }
+}
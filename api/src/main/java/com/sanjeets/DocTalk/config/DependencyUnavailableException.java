@@ -0,0 +1,33 @@
+package com.sanjeets.DocTalk.config;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling a remote dependency whose circuit is open or whose bulkhead is
+ * full, and when a call to it runs past its deadline. Carries a hint for when retrying is
+ * likely to succeed.
+ */
+public class DependencyUnavailableException extends RuntimeException {
+
+    private final String dependency;
+    private final Duration retryAfter;
+
+    public DependencyUnavailableException(String dependency, String message, Duration retryAfter) {
+        super(message);
+        this.dependency = dependency;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getDependency() {
+        return dependency;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /** Whole seconds, rounded up, as sent in a {@code Retry-After} header. */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+}
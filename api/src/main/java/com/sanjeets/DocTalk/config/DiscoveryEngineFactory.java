@@ -0,0 +1,61 @@
+package com.sanjeets.DocTalk.config;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.discoveryengine.v1.DataStoreServiceClient;
+import com.google.cloud.discoveryengine.v1.DataStoreServiceSettings;
+import com.google.cloud.discoveryengine.v1.DocumentServiceClient;
+import com.google.cloud.discoveryengine.v1.DocumentServiceSettings;
+import com.google.cloud.discoveryengine.v1.EngineServiceClient;
+import com.google.cloud.discoveryengine.v1.EngineServiceSettings;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Creates Discovery Engine clients for search provisioning and indexing. Like
+ * {@link VertexAiFactory}, kept as a bean so traffic can be recorded or sent to a stand-in.
+ */
+@Component
+public class DiscoveryEngineFactory {
+
+    private final GoogleCredentials credentials;
+    private final TrafficRecorder recorder;
+
+    public DiscoveryEngineFactory(GoogleCredentials credentials, TrafficRecorder recorder) {
+        this.credentials = credentials;
+        this.recorder = recorder;
+    }
+
+    public DataStoreServiceClient dataStores() throws IOException {
+        return DataStoreServiceClient.create(DataStoreServiceSettings.newBuilder()
+                .setCredentialsProvider(credentialsProvider())
+                .setTransportChannelProvider(channel(DataStoreServiceSettings.defaultGrpcTransportProviderBuilder()))
+                .build());
+    }
+
+    public EngineServiceClient engines() throws IOException {
+        return EngineServiceClient.create(EngineServiceSettings.newBuilder()
+                .setCredentialsProvider(credentialsProvider())
+                .setTransportChannelProvider(channel(EngineServiceSettings.defaultGrpcTransportProviderBuilder()))
+                .build());
+    }
+
+    public DocumentServiceClient documents() throws IOException {
+        return DocumentServiceClient.create(DocumentServiceSettings.newBuilder()
+                .setCredentialsProvider(credentialsProvider())
+                .setTransportChannelProvider(channel(DocumentServiceSettings.defaultGrpcTransportProviderBuilder()))
+                .build());
+    }
+
+    protected CredentialsProvider credentialsProvider() {
+        return FixedCredentialsProvider.create(credentials);
+    }
+
+    protected TransportChannelProvider channel(InstantiatingGrpcChannelProvider.Builder defaults) {
+        return recorder.attach(defaults).build();
+    }
+}
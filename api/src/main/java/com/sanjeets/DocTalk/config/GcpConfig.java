@@ -1,6 +1,12 @@
 package com.sanjeets.DocTalk.config;
 
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.gax.retrying.RetrySettings;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.aiplatform.v1.GenAiCacheServiceClient;
+import com.google.cloud.aiplatform.v1.GenAiCacheServiceSettings;
+import com.google.cloud.http.HttpTransportOptions;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.storage.Storage;
@@ -8,8 +14,10 @@ import com.google.cloud.storage.StorageOptions;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 
 import java.io.IOException;
+import java.time.Duration;
 
 @Configuration
 public class GcpConfig {
@@ -17,6 +25,16 @@ public class GcpConfig {
     @Value("${doctalk.gcp.project-id}")
     private String projectId;
 
+    // Client-side deadlines, so a blocking get() on a call to a stalled backend cannot hang forever
+    @Value("${doctalk.resilience.firestore.deadline:10s}")
+    private Duration firestoreDeadline;
+
+    @Value("${doctalk.resilience.storage.deadline:15s}")
+    private Duration storageDeadline;
+
+    @Value("${doctalk.chat.location:us-central1}")
+    private String location;
+
     @Bean
     public GoogleCredentials googleCredentials() throws IOException {
         return GoogleCredentials.getApplicationDefault();
@@ -24,20 +42,47 @@ public class GcpConfig {
 
     @Bean
     public Firestore firestore(GoogleCredentials credentials) {
+        FirestoreOptions defaults = FirestoreOptions.getDefaultInstance();
         FirestoreOptions firestoreOptions =
-            FirestoreOptions.getDefaultInstance().toBuilder()
+            defaults.toBuilder()
                 .setProjectId(projectId)
                 .setCredentials(credentials)
+                // Retries included, every unary call gives up after the deadline
+                .setRetrySettings(defaults.getRetrySettings().toBuilder()
+                        .setLogicalTimeout(firestoreDeadline)
+                        .build())
                 .build();
         return firestoreOptions.getService();
     }
 
     @Bean
     public Storage storage(GoogleCredentials credentials) {
+        int timeoutMillis = (int) storageDeadline.toMillis();
+        RetrySettings retrySettings = ServiceOptions.getDefaultRetrySettings().toBuilder()
+                .setTotalTimeoutDuration(storageDeadline)
+                .build();
         return StorageOptions.newBuilder()
                 .setProjectId(projectId)
                 .setCredentials(credentials)
+                .setRetrySettings(retrySettings)
+                .setTransportOptions(HttpTransportOptions.newBuilder()
+                        .setConnectTimeout(timeoutMillis)
+                        .setReadTimeout(timeoutMillis)
+                        .build())
                 .build()
                 .getService();
     }
+
+    /** Shared by every context-cache call; built on first use and closed with the context. */
+    @Bean
+    @Lazy
+    public GenAiCacheServiceClient genAiCacheServiceClient(GoogleCredentials credentials, TrafficRecorder recorder)
+            throws IOException {
+        return GenAiCacheServiceClient.create(GenAiCacheServiceSettings.newBuilder()
+                .setEndpoint(location + "-aiplatform.googleapis.com:443")
+                .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                .setTransportChannelProvider(
+                        recorder.attach(GenAiCacheServiceSettings.defaultGrpcTransportProviderBuilder()).build())
+                .build());
+    }
 }
@@ -0,0 +1,13 @@
+package com.sanjeets.DocTalk.config;
+
+import java.util.List;
+
+/**
+ * One gRPC call as captured by {@link TrafficRecorder}: the request and every response
+ * message (serialized protobuf, base64), with offsets in microseconds from the call's start.
+ */
+public record RecordedCall(String method, String type, String request, List<Message> responses,
+                           long closedAtMicros, String status, String description) {
+
+    public record Message(long atMicros, String data) {}
+}
@@ -0,0 +1,146 @@
+package com.sanjeets.DocTalk.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Captures Vertex AI and Discovery Engine gRPC traffic, including long-running-operation
+ * polls, to an NDJSON cassette of {@link RecordedCall}s with their original timing.
+ * The load-test harness replays a cassette through a local stub.
+ * <p>
+ * Off unless {@code doctalk.recording.file} is set; when off, {@link #attach} leaves the
+ * channel untouched and nothing is serialized.
+ */
+@Component
+public class TrafficRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    private final ObjectMapper objectMapper;
+    private final BufferedWriter writer;
+    // Not synchronized: file I/O under a monitor would pin the calling virtual thread
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public TrafficRecorder(ObjectMapper objectMapper, @Value("${doctalk.recording.file:}") String file) throws IOException {
+        this.objectMapper = objectMapper;
+        if (file.isBlank()) {
+            this.writer = null;
+        } else {
+            this.writer = Files.newBufferedWriter(Path.of(file), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            log.info("Recording Vertex AI and Discovery Engine traffic to {}", file);
+        }
+    }
+
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    public InstantiatingGrpcChannelProvider.Builder attach(InstantiatingGrpcChannelProvider.Builder channel) {
+        if (!isEnabled()) return channel;
+        ClientInterceptor interceptor = new RecordingInterceptor();
+        return channel.setInterceptorProvider(() -> List.of(interceptor));
+    }
+
+    private void write(RecordedCall call) {
+        writeLock.lock();
+        try {
+            writer.write(objectMapper.writeValueAsString(call));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            log.warn("Failed to record call to {}", call.method(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (writer == null) return;
+        writeLock.lock();
+        try {
+            writer.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static String encode(InputStream serialized) {
+        try (serialized) {
+            return Base64.getEncoder().encodeToString(serialized.readAllBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize message", e);
+        }
+    }
+
+    private static long micros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000;
+    }
+
+    private class RecordingInterceptor implements ClientInterceptor {
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            long start = System.nanoTime();
+            List<RecordedCall.Message> responses = Collections.synchronizedList(new ArrayList<>());
+            return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+
+                private volatile String request;
+
+                @Override
+                public void start(Listener<RespT> listener, Metadata headers) {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(listener) {
+                        @Override
+                        public void onMessage(RespT message) {
+                            responses.add(new RecordedCall.Message(micros(start),
+                                    encode(method.getResponseMarshaller().stream(message))));
+                            super.onMessage(message);
+                        }
+
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            write(new RecordedCall(method.getFullMethodName(), method.getType().name(), request,
+                                    List.copyOf(responses), micros(start), status.getCode().name(), status.getDescription()));
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                    request = encode(method.streamRequest(message));
+                    super.sendMessage(message);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.sanjeets.DocTalk.config;
+
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.PredictionServiceClient;
+import com.google.cloud.vertexai.api.PredictionServiceSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Creates Vertex AI clients for chat turns. Kept as a bean so the endpoint and transport
+ * can be pointed at a local stand-in (see the load-test harness).
+ */
+@Component
+public class VertexAiFactory {
+
+    private final GoogleCredentials credentials;
+    private final TrafficRecorder recorder;
+
+    @Value("${doctalk.gcp.project-id}")
+    private String projectId;
+
+    @Value("${doctalk.chat.location:us-central1}")
+    private String location;
+
+    public VertexAiFactory(GoogleCredentials credentials, TrafficRecorder recorder) {
+        this.credentials = credentials;
+        this.recorder = recorder;
+    }
+
+    public VertexAI create() {
+        VertexAI.Builder builder = new VertexAI.Builder()
+                .setProjectId(projectId)
+                .setLocation(location)
+                .setCredentials(credentials);
+        if (recorder.isEnabled()) {
+            builder.setPredictionClientSupplier(this::recordingClient);
+        }
+        return builder.build();
+    }
+
+    private PredictionServiceClient recordingClient() {
+        try {
+            return PredictionServiceClient.create(PredictionServiceSettings.newBuilder()
+                    .setEndpoint(location + "-aiplatform.googleapis.com:443")
+                    .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                    .setTransportChannelProvider(
+                            recorder.attach(PredictionServiceSettings.defaultGrpcTransportProviderBuilder()).build())
+                    .build());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
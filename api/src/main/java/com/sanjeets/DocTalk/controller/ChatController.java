@@ -1,16 +1,27 @@
 package com.sanjeets.DocTalk.controller;
 
+import com.sanjeets.DocTalk.model.dto.ChatExportLine;
+import com.sanjeets.DocTalk.model.dto.ChatSearchHit;
 import com.sanjeets.DocTalk.model.entity.ChatMessage;
 import com.sanjeets.DocTalk.model.entity.ChatSession;
+import com.sanjeets.DocTalk.config.DependencyUnavailableException;
+import com.sanjeets.DocTalk.service.AdmissionRejectedException;
+import com.sanjeets.DocTalk.service.ChatSearchService;
 import com.sanjeets.DocTalk.service.ChatService;
+import com.sanjeets.DocTalk.service.ChatTransferService;
+import com.sanjeets.DocTalk.service.ContextBudgetExceededException;
+import com.sanjeets.DocTalk.service.SessionMigration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.io.InputStream;
 import java.util.Map;
 import java.util.List;
 
@@ -21,72 +32,146 @@ public class ChatController {
 
     private static final Logger log = LoggerFactory.getLogger(ChatController.class);
     private final ChatService chatService;
+    private final ChatTransferService chatTransferService;
+    private final ChatSearchService chatSearchService;
+    private final SessionMigration sessionMigration;
 
-    public ChatController(ChatService chatService) {
+    public ChatController(ChatService chatService, ChatTransferService chatTransferService,
+                          ChatSearchService chatSearchService, SessionMigration sessionMigration) {
         this.chatService = chatService;
+        this.chatTransferService = chatTransferService;
+        this.chatSearchService = chatSearchService;
+        this.sessionMigration = sessionMigration;
     }
 
     @PostMapping("/sessions")
-    public ResponseEntity<ChatSession> createSession(@RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<ChatSession>> createSession(@RequestBody Map<String, String> request) {
         String projectId = request.get("projectId");
         String promptId = request.get("promptId");
         if (projectId == null) {
-            return ResponseEntity.badRequest().build();
+            return Mono.just(ResponseEntity.badRequest().build());
         }
-        return ResponseEntity.ok(chatService.createSession(projectId, promptId));
+        return chatService.createSession(projectId, promptId).map(ResponseEntity::ok);
     }
 
     @GetMapping("/sessions")
-    public ResponseEntity<List<ChatSession>> getSessions(@RequestParam String projectId) {
-        return ResponseEntity.ok(chatService.getSessions(projectId));
+    public Mono<ResponseEntity<List<ChatSession>>> getSessions(@RequestParam String projectId) {
+        return chatService.getSessions(projectId).map(ResponseEntity::ok);
     }
 
     @GetMapping("/sessions/{sessionId}/messages")
-    public ResponseEntity<List<ChatMessage>> getMessages(@PathVariable String sessionId) {
-        return ResponseEntity.ok(chatService.getMessages(sessionId));
+    public Mono<ResponseEntity<List<ChatMessage>>> getMessages(@PathVariable String sessionId) {
+        return chatService.getMessages(sessionId).map(ResponseEntity::ok);
     }
 
     @PutMapping("/sessions/{sessionId}")
-    public ResponseEntity<ChatSession> updateSession(@PathVariable String sessionId, @RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<ChatSession>> updateSession(@PathVariable String sessionId, @RequestBody Map<String, String> request) {
         String title = request.get("title");
-        if (title == null) return ResponseEntity.badRequest().build();
-        try {
-            return ResponseEntity.ok(chatService.updateSession(sessionId, title));
-        } catch (IllegalArgumentException e) {
-            return ResponseEntity.notFound().build();
-        }
+        if (title == null) return Mono.just(ResponseEntity.badRequest().build());
+        return chatService.updateSession(sessionId, title)
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.notFound().build()));
     }
 
     @DeleteMapping("/sessions/{sessionId}")
-    public ResponseEntity<Void> deleteSession(@PathVariable String sessionId) {
-        chatService.deleteSession(sessionId);
-        return ResponseEntity.noContent().build();
+    public Mono<ResponseEntity<Void>> deleteSession(@PathVariable String sessionId) {
+        return chatService.deleteSession(sessionId).then(Mono.just(ResponseEntity.noContent().<Void>build()));
     }
 
     @PostMapping("/sessions/{sessionId}/messages")
-    public ResponseEntity<ChatMessage> sendMessage(@PathVariable String sessionId, @RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<ChatMessage>> sendMessage(@PathVariable String sessionId, @RequestBody Map<String, String> request) {
         String content = request.get("content");
         if (content == null) {
-            return ResponseEntity.badRequest().build();
-        }
-        try {
-            return ResponseEntity.ok(chatService.sendMessage(sessionId, content));
-        } catch (IllegalArgumentException e) {
-            log.warn("Invalid request in sendMessage: {}", e.getMessage());
-            return ResponseEntity.notFound().build();
-        } catch (Exception e) {
-            log.error("Unexpected error in sendMessage", e);
-            return ResponseEntity.internalServerError().build();
+            return Mono.just(ResponseEntity.badRequest().build());
         }
+        return chatService.sendMessage(sessionId, content)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(rejection("sendMessage", sessionId, e)));
     }
 
+    // Spring frames each element as an SSE "data:" event, so no ServerSentEvent wrapper per chunk
     @PostMapping(value = "/sessions/{sessionId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ServerSentEvent<String>> streamMessage(@PathVariable String sessionId, @RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<Flux<String>>> streamMessage(@PathVariable String sessionId, @RequestBody Map<String, String> request) {
         String content = request.get("content");
         if (content == null) {
-            return Flux.error(new IllegalArgumentException("Content is required"));
+            return Mono.just(ResponseEntity.badRequest().build());
         }
         return chatService.streamMessage(sessionId, content)
-                .map(data -> ServerSentEvent.builder(data).build());
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(rejection("streamMessage", sessionId, e)));
+    }
+
+    @GetMapping("/search")
+    public Mono<ResponseEntity<List<ChatSearchHit>>> search(@RequestParam String projectId, @RequestParam String q,
+                                                            @RequestParam(defaultValue = "20") int limit) {
+        return chatSearchService.search(projectId, q, limit)
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.notFound().build()));
+    }
+
+    @PostMapping("/search/rebuild")
+    public Mono<ResponseEntity<Map<String, Integer>>> rebuildSearchIndex(@RequestParam String projectId) {
+        return chatSearchService.rebuildIndex(projectId)
+                .map(messages -> ResponseEntity.ok(Map.of("messages", messages)))
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.notFound().build()));
+    }
+
+    // Spring writes each line as JSON plus a newline, requesting the next only once it is sent
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<ChatExportLine>>> exportHistory(@RequestParam String projectId) {
+        return chatTransferService.exportHistory(projectId)
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.notFound().build()));
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Map<String, ?>>> importHistory(@RequestParam String projectId, InputStream body) {
+        return chatTransferService.importHistory(projectId, body)
+                .<ResponseEntity<Map<String, ?>>>map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> {
+                    log.warn("Rejected import into project {}: {}", projectId, e.getMessage());
+                    return Mono.just(ResponseEntity.badRequest().body(Map.of("error", e.getMessage())));
+                });
+    }
+
+    /** Starts moving sessions out of the old top-level collection, in the background. */
+    @PostMapping("/migration")
+    public Mono<ResponseEntity<Map<String, Object>>> startMigration() {
+        return sessionMigration.start().map(status -> ResponseEntity.accepted().body(status));
+    }
+
+    @GetMapping("/migration")
+    public Mono<ResponseEntity<Map<String, Object>>> migrationStatus() {
+        return sessionMigration.status().map(ResponseEntity::ok);
+    }
+
+    /** Maps a turn that failed before its first byte to a status code. */
+    private static <T> ResponseEntity<T> rejection(String operation, String sessionId, Throwable e) {
+        if (e instanceof AdmissionRejectedException rejected) {
+            log.warn("Rejected {} for session {}: {}", operation, sessionId, e.getMessage());
+            return tooManyRequests(rejected);
+        }
+        if (e instanceof DependencyUnavailableException unavailable) {
+            log.warn("Rejected {} for session {}: {}", operation, sessionId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(unavailable.getRetryAfterSeconds()))
+                    .build();
+        }
+        if (e instanceof ContextBudgetExceededException) {
+            log.warn("Rejected {} for session {}: {}", operation, sessionId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        if (e instanceof IllegalArgumentException) {
+            log.warn("Invalid request in {}: {}", operation, e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+        log.error("Unexpected error in {}", operation, e);
+        return ResponseEntity.internalServerError().build();
+    }
+
+    private static <T> ResponseEntity<T> tooManyRequests(AdmissionRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .build();
     }
 }
\ No newline at end of file
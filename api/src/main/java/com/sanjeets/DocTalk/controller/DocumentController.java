@@ -1,6 +1,7 @@
 package com.sanjeets.DocTalk.controller;
 
 import com.sanjeets.DocTalk.model.dto.DocumentSummary;
+import com.sanjeets.DocTalk.model.entity.DocumentLink;
 import com.sanjeets.DocTalk.service.DocumentService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -39,6 +40,24 @@ public class DocumentController {
         ));
     }
 
+    @PostMapping("/complete")
+    public ResponseEntity<Map<String, Object>> completeUpload(
+            @RequestParam("projectId") String projectId,
+            @RequestParam("fileName") String fileName) {
+        try {
+            DocumentService.CompletedUpload upload = documentService.completeUpload(projectId, fileName);
+            DocumentLink link = upload.link();
+            return ResponseEntity.ok(Map.of(
+                "fileName", link.getFileName(),
+                "contentHash", link.getContentHash(),
+                "duplicate", link.isLinked(),
+                "reindex", upload.reindex()
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @DeleteMapping
     public ResponseEntity<Void> deleteDocument(
             @RequestParam("projectId") String projectId,
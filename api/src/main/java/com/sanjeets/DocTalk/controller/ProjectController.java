@@ -1,13 +1,15 @@
 package com.sanjeets.DocTalk.controller;
 
 import com.sanjeets.DocTalk.controller.dto.CreateProjectRequest;
+import com.sanjeets.DocTalk.model.dto.PageResult;
 import com.sanjeets.DocTalk.model.entity.Project;
+import com.sanjeets.DocTalk.model.entity.ProjectStatus;
 import com.sanjeets.DocTalk.service.ProjectService;
 import com.sanjeets.DocTalk.service.SearchInfraService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
-import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -24,14 +26,19 @@ public class ProjectController {
     }
 
     @PostMapping
-    public ResponseEntity<Project> createProject(@RequestBody CreateProjectRequest request) {
-        Project project = projectService.createProject(request);
-        return ResponseEntity.ok(project);
+    public Mono<ResponseEntity<Project>> createProject(@RequestBody CreateProjectRequest request) {
+        return projectService.createProject(request).map(ResponseEntity::ok);
     }
 
     @GetMapping
-    public ResponseEntity<List<Project>> listProjects() {
-        return ResponseEntity.ok(projectService.getAllProjects());
+    public Mono<ResponseEntity<PageResult<Project>>> listProjects(
+            @RequestParam(value = "status", required = false) ProjectStatus status,
+            @RequestParam(value = "pageSize", defaultValue = "50") int pageSize,
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "view", defaultValue = "full") String view) {
+        return projectService.listProjects(status, pageSize, pageToken, "summary".equalsIgnoreCase(view))
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()));
     }
 
     @PostMapping("/{projectId}/provision")
@@ -1,11 +1,12 @@
 package com.sanjeets.DocTalk.controller;
 
+import com.sanjeets.DocTalk.model.dto.PageResult;
 import com.sanjeets.DocTalk.model.entity.Prompt;
 import com.sanjeets.DocTalk.service.PromptService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
-import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -20,33 +21,37 @@ public class PromptController {
     }
 
     @PostMapping
-    public ResponseEntity<Prompt> createPrompt(@RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<Prompt>> createPrompt(@RequestBody Map<String, String> request) {
         String name = request.get("name");
         String content = request.get("content");
         if (name == null || content == null) {
-            return ResponseEntity.badRequest().build();
+            return Mono.just(ResponseEntity.badRequest().build());
         }
-        return ResponseEntity.ok(promptService.createPrompt(name, content));
+        return promptService.createPrompt(name, content).map(ResponseEntity::ok);
     }
 
     @GetMapping
-    public ResponseEntity<List<Prompt>> listPrompts() {
-        return ResponseEntity.ok(promptService.getAllPrompts());
+    public Mono<ResponseEntity<PageResult<Prompt>>> listPrompts(
+            @RequestParam(value = "pageSize", defaultValue = "50") int pageSize,
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "view", defaultValue = "full") String view) {
+        return promptService.listPrompts(pageSize, pageToken, "summary".equalsIgnoreCase(view))
+                .map(ResponseEntity::ok)
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()));
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<Prompt> updatePrompt(@PathVariable String id, @RequestBody Map<String, String> request) {
+    public Mono<ResponseEntity<Prompt>> updatePrompt(@PathVariable String id, @RequestBody Map<String, String> request) {
         String name = request.get("name");
         String content = request.get("content");
         if (name == null || content == null) {
-            return ResponseEntity.badRequest().build();
+            return Mono.just(ResponseEntity.badRequest().build());
         }
-        return ResponseEntity.ok(promptService.updatePrompt(id, name, content));
+        return promptService.updatePrompt(id, name, content).map(ResponseEntity::ok);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deletePrompt(@PathVariable String id) {
-        promptService.deletePrompt(id);
-        return ResponseEntity.noContent().build();
+    public Mono<ResponseEntity<Void>> deletePrompt(@PathVariable String id) {
+        return promptService.deletePrompt(id).then(Mono.just(ResponseEntity.noContent().<Void>build()));
     }
 }
@@ -0,0 +1,35 @@
+package com.sanjeets.DocTalk.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ChatSession;
+
+/**
+ * One line of a chat history export: either a session or one of its messages. A session's
+ * line comes before its messages, which follow in the order they were sent.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChatExportLine {
+    private ChatSession session;
+    private ChatMessage message;
+
+    public ChatExportLine() {}
+
+    public static ChatExportLine of(ChatSession session) {
+        ChatExportLine line = new ChatExportLine();
+        line.setSession(session);
+        return line;
+    }
+
+    public static ChatExportLine of(ChatMessage message) {
+        ChatExportLine line = new ChatExportLine();
+        line.setMessage(message);
+        return line;
+    }
+
+    public ChatSession getSession() { return session; }
+    public void setSession(ChatSession session) { this.session = session; }
+
+    public ChatMessage getMessage() { return message; }
+    public void setMessage(ChatMessage message) { this.message = message; }
+}
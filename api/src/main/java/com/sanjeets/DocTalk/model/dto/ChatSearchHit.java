@@ -0,0 +1,48 @@
+package com.sanjeets.DocTalk.model.dto;
+
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+
+/** A message matching a chat history search, with the session it belongs to. */
+public class ChatSearchHit {
+    private String messageId;
+    private String sessionId;
+    private String sessionTitle;
+    private MessageRole role;
+    private String createdAt;
+    private String snippet; // Text around the first matching term
+    private double score; // Relevance; only meaningful relative to other hits of the same search
+
+    public ChatSearchHit() {}
+
+    public ChatSearchHit(String messageId, String sessionId, String sessionTitle, MessageRole role,
+                         String createdAt, String snippet, double score) {
+        this.messageId = messageId;
+        this.sessionId = sessionId;
+        this.sessionTitle = sessionTitle;
+        this.role = role;
+        this.createdAt = createdAt;
+        this.snippet = snippet;
+        this.score = score;
+    }
+
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+
+    public String getSessionTitle() { return sessionTitle; }
+    public void setSessionTitle(String sessionTitle) { this.sessionTitle = sessionTitle; }
+
+    public MessageRole getRole() { return role; }
+    public void setRole(MessageRole role) { this.role = role; }
+
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+
+    public String getSnippet() { return snippet; }
+    public void setSnippet(String snippet) { this.snippet = snippet; }
+
+    public double getScore() { return score; }
+    public void setScore(double score) { this.score = score; }
+}
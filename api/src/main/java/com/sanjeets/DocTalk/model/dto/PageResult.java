@@ -0,0 +1,21 @@
+package com.sanjeets.DocTalk.model.dto;
+
+import java.util.List;
+
+public class PageResult<T> {
+    private List<T> items;
+    private String nextPageToken; // null on the last page
+
+    public PageResult() {}
+
+    public PageResult(List<T> items, String nextPageToken) {
+        this.items = items;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<T> getItems() { return items; }
+    public void setItems(List<T> items) { this.items = items; }
+
+    public String getNextPageToken() { return nextPageToken; }
+    public void setNextPageToken(String nextPageToken) { this.nextPageToken = nextPageToken; }
+}
@@ -10,6 +10,7 @@ public class ChatMessage {
     private String content;
     private List<Map<String, String>> citations; // List of {uri, title}
     private String createdAt;
+    private Integer tokenCount; // Estimated for user turns, as reported by the model for replies
 
     public ChatMessage() {}
 
@@ -38,4 +39,7 @@ public class ChatMessage {
 
     public String getCreatedAt() { return createdAt; }
     public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+
+    public Integer getTokenCount() { return tokenCount; }
+    public void setTokenCount(Integer tokenCount) { this.tokenCount = tokenCount; }
 }
@@ -1,11 +1,14 @@
 package com.sanjeets.DocTalk.model.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class ChatSession {
     private String id;
     private String projectId;
     private String promptId; // The persona used for this session
     private String title;
     private String createdAt;
+    private ConversationState conversation; // Null for sessions created before it was kept
 
     public ChatSession() {}
 
@@ -31,4 +34,8 @@ public class ChatSession {
 
     public String getCreatedAt() { return createdAt; }
     public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+
+    @JsonIgnore // Model context only; the UI reads the messages
+    public ConversationState getConversation() { return conversation; }
+    public void setConversation(ConversationState conversation) { this.conversation = conversation; }
 }
@@ -0,0 +1,29 @@
+package com.sanjeets.DocTalk.model.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact copy of a session's conversation, kept on the session document so a turn can be
+ * built from a single read. The messages subcollection stays the full record shown in the UI.
+ */
+public class ConversationState {
+    private List<ChatMessage> recent = new ArrayList<>(); // Latest messages, oldest first, without citations
+    private String summary; // Earlier turns folded out of recent
+    private List<String> citationUris = new ArrayList<>(); // Latest documents cited, least recent first
+    private int exchanges;
+
+    public ConversationState() {}
+
+    public List<ChatMessage> getRecent() { return recent; }
+    public void setRecent(List<ChatMessage> recent) { this.recent = recent; }
+
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+
+    public List<String> getCitationUris() { return citationUris; }
+    public void setCitationUris(List<String> citationUris) { this.citationUris = citationUris; }
+
+    public int getExchanges() { return exchanges; }
+    public void setExchanges(int exchanges) { this.exchanges = exchanges; }
+}
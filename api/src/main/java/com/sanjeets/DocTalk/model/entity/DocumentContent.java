@@ -0,0 +1,47 @@
+package com.sanjeets.DocTalk.model.entity;
+
+/**
+ * A unique blob of document bytes, keyed by its content hash.
+ * Every project file name that resolves to these bytes holds one reference.
+ */
+public class DocumentContent {
+    private String id;          // sha256-<hex>
+    private String bucketName;  // Canonical physical copy
+    private String objectName;
+    private String contentType;
+    private Long size;
+    private long refCount;
+    private String createdAt;
+
+    public DocumentContent() {}
+
+    public DocumentContent(String id, String bucketName, String objectName, String contentType, Long size, String createdAt) {
+        this.id = id;
+        this.bucketName = bucketName;
+        this.objectName = objectName;
+        this.contentType = contentType;
+        this.size = size;
+        this.createdAt = createdAt;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getBucketName() { return bucketName; }
+    public void setBucketName(String bucketName) { this.bucketName = bucketName; }
+
+    public String getObjectName() { return objectName; }
+    public void setObjectName(String objectName) { this.objectName = objectName; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public long getRefCount() { return refCount; }
+    public void setRefCount(long refCount) { this.refCount = refCount; }
+
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,63 @@
+package com.sanjeets.DocTalk.model.entity;
+
+/**
+ * A file name inside a project, pointing at a {@link DocumentContent}.
+ * Only the canonical reference has a physical object; the others are links.
+ */
+public class DocumentLink {
+    private String id;
+    private String projectId;
+    private String fileName;
+    private String contentHash;
+    private String bucketName;  // Where this name lives (or would live) physically
+    private String objectName;
+    private boolean linked;     // true if no physical object exists for this name
+    private String contentType;
+    private Long size;
+    private String createdAt;
+
+    public DocumentLink() {}
+
+    public DocumentLink(String id, String projectId, String fileName, String contentHash,
+                        String bucketName, String objectName, String contentType, Long size, String createdAt) {
+        this.id = id;
+        this.projectId = projectId;
+        this.fileName = fileName;
+        this.contentHash = contentHash;
+        this.bucketName = bucketName;
+        this.objectName = objectName;
+        this.contentType = contentType;
+        this.size = size;
+        this.createdAt = createdAt;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getProjectId() { return projectId; }
+    public void setProjectId(String projectId) { this.projectId = projectId; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+
+    public String getBucketName() { return bucketName; }
+    public void setBucketName(String bucketName) { this.bucketName = bucketName; }
+
+    public String getObjectName() { return objectName; }
+    public void setObjectName(String objectName) { this.objectName = objectName; }
+
+    public boolean isLinked() { return linked; }
+    public void setLinked(boolean linked) { this.linked = linked; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public String getCreatedAt() { return createdAt; }
+    public void setCreatedAt(String createdAt) { this.createdAt = createdAt; }
+}
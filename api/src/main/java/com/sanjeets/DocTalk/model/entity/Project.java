@@ -4,6 +4,7 @@ public class Project {
     private String id;
     private String name;
     private ProjectStatus status;
+    private String statusChangedAt;
     private String gcsPrefix;
     private String dataStoreId;
     private String engineId;
@@ -11,12 +12,15 @@ public class Project {
     private String latestImportOperation;
     private String importStatus; // IDLE, RUNNING, COMPLETED, FAILED
     private String lastIndexedAt;
+    private String importRequestedAt; // Set when a replica claims the sync slot
 
     // Storage configuration (Epic 8)
     private StorageMode storageMode; // MANAGED or BYOB
     private String bucketName;       // For BYOB: user's bucket, For MANAGED: our bucket
     private String bucketPrefix;     // For BYOB: user's prefix, For MANAGED: same as gcsPrefix
 
+    private Double schedulingWeight; // Share of Gemini capacity under contention; null means 1.0
+
     public Project() {}
 
     public Project(String id, String name, ProjectStatus status, String gcsPrefix, String dataStoreId, String engineId, String createdAt) {
@@ -40,6 +44,9 @@ public class Project {
     public ProjectStatus getStatus() { return status; }
     public void setStatus(ProjectStatus status) { this.status = status; }
 
+    public String getStatusChangedAt() { return statusChangedAt; }
+    public void setStatusChangedAt(String statusChangedAt) { this.statusChangedAt = statusChangedAt; }
+
     public String getGcsPrefix() { return gcsPrefix; }
     public void setGcsPrefix(String gcsPrefix) { this.gcsPrefix = gcsPrefix; }
 
@@ -61,6 +68,9 @@ public class Project {
     public String getLastIndexedAt() { return lastIndexedAt; }
     public void setLastIndexedAt(String lastIndexedAt) { this.lastIndexedAt = lastIndexedAt; }
 
+    public String getImportRequestedAt() { return importRequestedAt; }
+    public void setImportRequestedAt(String importRequestedAt) { this.importRequestedAt = importRequestedAt; }
+
     public StorageMode getStorageMode() { return storageMode; }
     public void setStorageMode(StorageMode storageMode) { this.storageMode = storageMode; }
 
@@ -69,4 +79,7 @@ public class Project {
 
     public String getBucketPrefix() { return bucketPrefix; }
     public void setBucketPrefix(String bucketPrefix) { this.bucketPrefix = bucketPrefix; }
+
+    public Double getSchedulingWeight() { return schedulingWeight; }
+    public void setSchedulingWeight(Double schedulingWeight) { this.schedulingWeight = schedulingWeight; }
 }
@@ -0,0 +1,107 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Bounded, TTL-based read-through cache of Firestore document snapshots.
+ * Snapshots are immutable, so every read deserializes a fresh entity and callers
+ * may mutate what they get back without corrupting the cache.
+ * <p>
+ * Entries are the reads themselves: callers missing the same id share one read, and
+ * invalidating an id drops a read still in flight along with its result, so a snapshot
+ * taken before a write cannot be cached after that write has evicted it.
+ */
+class DocumentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentCache.class);
+
+    private final String name;
+    private final AsyncCache<String, DocumentSnapshot> cache;
+    private ListenerRegistration registration;
+
+    DocumentCache(String name, long maxSize, Duration ttl, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("doctalk.cache.hit.ratio", cache, c -> c.synchronous().stats().hitRate())
+                .tag("cache", name)
+                .register(meterRegistry);
+    }
+
+    /** Blocking read-through; {@code loader} starts the Firestore read for a missing id. */
+    DocumentSnapshot get(String id, Function<String, ApiFuture<DocumentSnapshot>> loader)
+            throws InterruptedException, ExecutionException {
+        // Waits outside the cache's locks, so a virtual thread is not pinned for the read
+        return getAsync(id, key -> toCompletable(loader.apply(key))).get();
+    }
+
+    /** Read-through for asynchronous callers; a hit is an already completed future. */
+    CompletableFuture<DocumentSnapshot> getAsync(String id, Function<String, CompletableFuture<DocumentSnapshot>> loader) {
+        return cache.get(id, (key, executor) -> loader.apply(key));
+    }
+
+    void invalidate(String id) {
+        cache.synchronous().invalidate(id);
+    }
+
+    /**
+     * Evicts entries whenever the document changes in Firestore, including writes
+     * made by other replicas. TTL remains the fallback if the listener drops.
+     */
+    void listen(CollectionReference collection) {
+        registration = collection.addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                log.warn("Cache listener for {} failed; relying on TTL", name, error);
+                return;
+            }
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                invalidate(change.getDocument().getId());
+            }
+        });
+    }
+
+    void close() {
+        if (registration != null) {
+            registration.remove();
+        }
+    }
+
+    private static <T> CompletableFuture<T> toCompletable(ApiFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                result.completeExceptionally(error);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.cloud.firestore.*;
+import com.sanjeets.DocTalk.model.entity.DocumentContent;
+import com.sanjeets.DocTalk.model.entity.DocumentLink;
+import io.micrometer.observation.annotation.Observed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+@Repository
+@Observed(name = "doctalk.repository")
+public class DocumentContentRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentContentRepository.class);
+    private final Firestore firestore;
+    private static final String CONTENTS_COLLECTION = "doctalk-document-contents";
+    private static final String LINKS_COLLECTION = "doctalk-document-links";
+
+    public DocumentContentRepository(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    public static String linkId(String projectId, String fileName) {
+        // File names may contain '/', which Firestore does not allow in document IDs
+        return projectId + "_" + URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+    }
+
+    public DocumentLink findLink(String projectId, String fileName) {
+        try {
+            DocumentSnapshot doc = firestore.collection(LINKS_COLLECTION).document(linkId(projectId, fileName)).get().get();
+            return doc.exists() ? doc.toObject(DocumentLink.class) : null;
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to find document link", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    public List<DocumentLink> findLinksByProject(String projectId) {
+        try {
+            return firestore.collection(LINKS_COLLECTION)
+                    .whereEqualTo("projectId", projectId)
+                    .get()
+                    .get()
+                    .toObjects(DocumentLink.class);
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to list document links", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    public List<DocumentLink> findLinksByContent(String contentHash) {
+        try {
+            return firestore.collection(LINKS_COLLECTION)
+                    .whereEqualTo("contentHash", contentHash)
+                    .get()
+                    .get()
+                    .toObjects(DocumentLink.class);
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to list document links", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    public DocumentContent findContent(String contentHash) {
+        try {
+            DocumentSnapshot doc = firestore.collection(CONTENTS_COLLECTION).document(contentHash).get().get();
+            return doc.exists() ? doc.toObject(DocumentContent.class) : null;
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to find document content", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    /** Reads many contents in one round trip; unknown hashes are left out. */
+    public List<DocumentContent> findContents(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) return List.of();
+        DocumentReference[] refs = contentHashes.stream()
+                .map(hash -> firestore.collection(CONTENTS_COLLECTION).document(hash))
+                .toArray(DocumentReference[]::new);
+        try {
+            List<DocumentContent> contents = new ArrayList<>();
+            for (DocumentSnapshot doc : firestore.getAll(refs).get()) {
+                if (doc.exists()) contents.add(doc.toObject(DocumentContent.class));
+            }
+            return contents;
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to find document contents", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    /**
+     * Adds a reference from {@code link} to its content. If the content is unknown,
+     * {@code candidate} (the link's own physical object) becomes the canonical copy.
+     * Returns the stored link; {@link DocumentLink#isLinked()} tells the caller whether
+     * its uploaded object is now redundant.
+     */
+    public DocumentLink addReference(DocumentLink link, DocumentContent candidate) {
+        DocumentReference contentRef = firestore.collection(CONTENTS_COLLECTION).document(link.getContentHash());
+        DocumentReference linkRef = firestore.collection(LINKS_COLLECTION).document(link.getId());
+        try {
+            return firestore.runTransaction(tx -> {
+                DocumentSnapshot contentDoc = tx.get(contentRef).get();
+                DocumentContent content = contentDoc.exists() ? contentDoc.toObject(DocumentContent.class) : null;
+                if (content == null) {
+                    content = candidate;
+                    content.setRefCount(0);
+                }
+                content.setRefCount(content.getRefCount() + 1);
+                link.setLinked(!(content.getBucketName().equals(link.getBucketName())
+                        && content.getObjectName().equals(link.getObjectName())));
+                tx.set(contentRef, content);
+                tx.set(linkRef, link);
+                return link;
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to add document reference", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    /**
+     * Drops the reference held by a project file name. Returns the content as it stands
+     * afterwards (refCount 0 means it was the last reference and the record is gone),
+     * or null if the name was not registered.
+     */
+    public DocumentContent removeReference(String projectId, String fileName) {
+        DocumentReference linkRef = firestore.collection(LINKS_COLLECTION).document(linkId(projectId, fileName));
+        try {
+            return firestore.runTransaction(tx -> {
+                DocumentSnapshot linkDoc = tx.get(linkRef).get();
+                if (!linkDoc.exists()) return null;
+                DocumentLink link = linkDoc.toObject(DocumentLink.class);
+
+                DocumentReference contentRef = firestore.collection(CONTENTS_COLLECTION).document(link.getContentHash());
+                DocumentSnapshot contentDoc = tx.get(contentRef).get();
+                tx.delete(linkRef);
+                if (!contentDoc.exists()) return null;
+
+                DocumentContent content = contentDoc.toObject(DocumentContent.class);
+                content.setRefCount(Math.max(0, content.getRefCount() - 1));
+                if (content.getRefCount() == 0) {
+                    tx.delete(contentRef);
+                } else {
+                    tx.update(contentRef, "refCount", content.getRefCount());
+                }
+                return content;
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to remove document reference", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+
+    /**
+     * Makes {@code link}'s physical location the canonical copy of its content.
+     * Called once the bytes have been copied there.
+     */
+    public void promote(DocumentLink link) {
+        DocumentReference contentRef = firestore.collection(CONTENTS_COLLECTION).document(link.getContentHash());
+        DocumentReference linkRef = firestore.collection(LINKS_COLLECTION).document(link.getId());
+        WriteBatch batch = firestore.batch();
+        batch.update(contentRef, "bucketName", link.getBucketName(), "objectName", link.getObjectName());
+        batch.update(linkRef, "linked", false);
+        try {
+            batch.commit().get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to promote document link", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque cursors for name-ordered collection pages. A token carries the sort key and
+ * document ID of the last item, so resuming costs no extra read.
+ */
+final class PageTokens {
+
+    static final int MAX_PAGE_SIZE = 200;
+    private static final char SEPARATOR = '\u0000';
+
+    private PageTokens() {}
+
+    /** Orders by {@code field}, breaking ties on document ID, and resumes after {@code pageToken}. */
+    static Query page(CollectionReference collection, Query query, String field, int pageSize, String pageToken) {
+        query = query.orderBy(field).orderBy(FieldPath.documentId());
+        if (pageToken != null && !pageToken.isEmpty()) {
+            String decoded = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+            int split = decoded.indexOf(SEPARATOR);
+            if (split == -1) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            query = query.startAfter(decoded.substring(0, split), collection.document(decoded.substring(split + 1)));
+        }
+        return query.limit(limit(pageSize));
+    }
+
+    /** Returns the token for the page after {@code documents}, or null if this was the last one. */
+    static String next(List<? extends DocumentSnapshot> documents, String field, int pageSize) {
+        if (documents.isEmpty() || documents.size() < limit(pageSize)) {
+            return null;
+        }
+        DocumentSnapshot last = documents.get(documents.size() - 1);
+        String key = last.getString(field);
+        String raw = (key != null ? key : "") + SEPARATOR + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** The page size a query actually uses, so {@link #page} and {@link #next} agree on what a full page is. */
+    static int limit(int pageSize) {
+        return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    }
+}
@@ -1,62 +1,152 @@
 package com.sanjeets.DocTalk.repository;
 
-import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.firestore.*;
+import com.sanjeets.DocTalk.model.dto.PageResult;
 import com.sanjeets.DocTalk.model.entity.Project;
+import com.sanjeets.DocTalk.model.entity.ProjectStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.annotation.Observed;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 @Repository
+@Observed(name = "doctalk.repository")
 public class ProjectRepository {
 
     private static final Logger log = LoggerFactory.getLogger(ProjectRepository.class);
     private final Firestore firestore;
-    private static final String COLLECTION_NAME = "doctalk-projects";
+    static final String COLLECTION_NAME = "doctalk-projects";
+    // Fields needed to render a project card and refresh its import status
+    private static final String[] SUMMARY_FIELDS = {
+            "id", "name", "status", "importStatus", "latestImportOperation", "lastIndexedAt", "createdAt", "storageMode"
+    };
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+    private final DocumentCache cache;
 
-    public ProjectRepository(Firestore firestore) {
+    public ProjectRepository(Firestore firestore, MeterRegistry meterRegistry,
+                             @Value("${doctalk.cache.projects.max-size:1000}") long cacheMaxSize,
+                             @Value("${doctalk.cache.projects.ttl:5m}") Duration cacheTtl,
+                             @Value("${doctalk.cache.listen:true}") boolean cacheListen) {
         this.firestore = firestore;
+        this.cache = new DocumentCache("projects", cacheMaxSize, cacheTtl, meterRegistry);
+        if (cacheListen) {
+            cache.listen(firestore.collection(COLLECTION_NAME));
+        }
+    }
+
+    public Project findById(String id) {
+        DocumentSnapshot document = load(id);
+        if (document.exists()) {
+            return document.toObject(Project.class);
+        }
+        return null;
     }
 
-    public void save(Project project) {
-        ApiFuture<WriteResult> future = firestore.collection(COLLECTION_NAME).document(project.getId()).set(project);
+    /** Field-level write: only the given fields change, the rest of the document is left untouched. */
+    public void updateFields(String id, Map<String, Object> fields) {
         try {
-            future.get();
+            firestore.collection(COLLECTION_NAME).document(id).update(fields).get();
         } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to save project", e);
+            log.error("Failed to update project", e);
             throw new RuntimeException("Database error", e);
+        } finally {
+            cache.invalidate(id);
         }
     }
 
-    public Project findById(String id) {
+    /**
+     * Optimistic read-modify-write. {@code change} sees the current stored project and returns the
+     * fields to update, or null to leave it as is. The write is conditioned on the document's update
+     * time and retried from a fresh read if another writer got there first.
+     * Returns the applied fields, or null if {@code change} declined.
+     */
+    public Map<String, Object> update(String id, Function<Project, Map<String, Object>> change) {
+        DocumentReference ref = firestore.collection(COLLECTION_NAME).document(id);
         try {
-            DocumentSnapshot document = firestore.collection(COLLECTION_NAME).document(id).get().get();
-            if (document.exists()) {
-                return document.toObject(Project.class);
+            for (int attempt = 1; attempt <= MAX_UPDATE_ATTEMPTS; attempt++) {
+                DocumentSnapshot document = ref.get().get();
+                if (!document.exists()) {
+                    throw new IllegalArgumentException("Project not found: " + id);
+                }
+                Map<String, Object> fields = change.apply(document.toObject(Project.class));
+                if (fields == null) {
+                    return null;
+                }
+                try {
+                    ref.update(fields, Precondition.updatedAt(document.getUpdateTime())).get();
+                    return fields;
+                } catch (ExecutionException e) {
+                    if (!isPreconditionFailure(e.getCause())) throw e;
+                    log.debug("Project {} changed concurrently, retrying ({}/{})", id, attempt, MAX_UPDATE_ATTEMPTS);
+                } finally {
+                    cache.invalidate(id);
+                }
             }
-            return null;
         } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to find project", e);
+            log.error("Failed to update project", e);
             throw new RuntimeException("Database error", e);
         }
+        throw new ConcurrentModificationException("Project " + id + " is being modified concurrently");
+    }
+
+    private static boolean isPreconditionFailure(Throwable error) {
+        return error instanceof ApiException apiException
+                && apiException.getStatusCode().getCode() == StatusCode.Code.FAILED_PRECONDITION;
+    }
+
+    /**
+     * Name-ordered page of projects, optionally filtered by status. With {@code summary},
+     * only the fields needed by list views are read.
+     */
+    Query pageQuery(ProjectStatus status, int pageSize, String pageToken, boolean summary) {
+        CollectionReference collection = firestore.collection(COLLECTION_NAME);
+        Query query = collection;
+        if (status != null) {
+            query = query.whereEqualTo("status", status.name());
+        }
+        if (summary) {
+            query = query.select(SUMMARY_FIELDS);
+        }
+        return PageTokens.page(collection, query, "name", pageSize, pageToken);
+    }
+
+    static PageResult<Project> toPage(List<QueryDocumentSnapshot> documents, int pageSize) {
+        List<Project> projects = new ArrayList<>();
+        for (DocumentSnapshot document : documents) {
+            projects.add(document.toObject(Project.class));
+        }
+        return new PageResult<>(projects, PageTokens.next(documents, "name", pageSize));
     }
 
-    public List<Project> findAll() {
+    private DocumentSnapshot load(String id) {
         try {
-            ApiFuture<QuerySnapshot> future = firestore.collection(COLLECTION_NAME).get();
-            List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-            List<Project> projects = new ArrayList<>();
-            for (DocumentSnapshot document : documents) {
-                projects.add(document.toObject(Project.class));
-            }
-            return projects;
+            return cache.get(id, key -> firestore.collection(COLLECTION_NAME).document(key).get());
         } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to list projects", e);
+            log.error("Failed to find project", e);
             throw new RuntimeException("Database error", e);
         }
     }
+
+    /** Shared with {@link ReactiveProjectRepository}, so a write through either evicts for both. */
+    DocumentCache cache() {
+        return cache;
+    }
+
+    @PreDestroy
+    void closeCache() {
+        cache.close();
+    }
 }
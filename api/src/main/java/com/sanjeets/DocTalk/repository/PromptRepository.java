@@ -1,80 +1,90 @@
 package com.sanjeets.DocTalk.repository;
 
-import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
+import com.sanjeets.DocTalk.model.dto.PageResult;
 import com.sanjeets.DocTalk.model.entity.Prompt;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.annotation.Observed;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 @Repository
+@Observed(name = "doctalk.repository")
 public class PromptRepository {
 
     private static final Logger log = LoggerFactory.getLogger(PromptRepository.class);
     private final Firestore firestore;
-    private static final String COLLECTION_NAME = "doctalk-prompts";
+    static final String COLLECTION_NAME = "doctalk-prompts";
+    private final DocumentCache cache;
 
-    public PromptRepository(Firestore firestore) {
+    public PromptRepository(Firestore firestore, MeterRegistry meterRegistry,
+                            @Value("${doctalk.cache.prompts.max-size:500}") long cacheMaxSize,
+                            @Value("${doctalk.cache.prompts.ttl:10m}") Duration cacheTtl,
+                            @Value("${doctalk.cache.listen:true}") boolean cacheListen) {
         this.firestore = firestore;
+        this.cache = new DocumentCache("prompts", cacheMaxSize, cacheTtl, meterRegistry);
+        if (cacheListen) {
+            cache.listen(firestore.collection(COLLECTION_NAME));
+        }
     }
 
-    public void save(Prompt prompt) {
-        ApiFuture<WriteResult> future = firestore.collection(COLLECTION_NAME).document(prompt.getId()).set(prompt);
-        try {
-            future.get();
-        } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to save prompt", e);
-            throw new RuntimeException("Database error", e);
-        }
+    public Prompt findById(String id) {
+        return toPrompt(load(id));
     }
 
-    public void delete(String id) {
-        ApiFuture<WriteResult> future = firestore.collection(COLLECTION_NAME).document(id).delete();
-        try {
-            future.get();
-        } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to delete prompt", e);
-            throw new RuntimeException("Database error", e);
+    /** Name-ordered page of prompts. With {@code summary}, the (potentially long) content is not read. */
+    Query pageQuery(int pageSize, String pageToken, boolean summary) {
+        CollectionReference collection = firestore.collection(COLLECTION_NAME);
+        Query query = summary ? collection.select("name", "createdAt") : collection;
+        return PageTokens.page(collection, query, "name", pageSize, pageToken);
+    }
+
+    static PageResult<Prompt> toPage(List<QueryDocumentSnapshot> documents, int pageSize) {
+        List<Prompt> prompts = new ArrayList<>();
+        for (DocumentSnapshot document : documents) {
+            Prompt prompt = toPrompt(document);
+            if (prompt != null) {
+                prompts.add(prompt);
+            }
         }
+        return new PageResult<>(prompts, PageTokens.next(documents, "name", pageSize));
     }
 
-    public Prompt findById(String id) {
-        try {
-            DocumentSnapshot doc = firestore.collection(COLLECTION_NAME).document(id).get().get();
-            if (doc.exists()) {
-                Prompt prompt = doc.toObject(Prompt.class);
-                if (prompt != null) {
-                    prompt.setId(doc.getId());
-                    return prompt;
-                }
+    static Prompt toPrompt(DocumentSnapshot doc) {
+        if (doc.exists()) {
+            Prompt prompt = doc.toObject(Prompt.class);
+            if (prompt != null) {
+                prompt.setId(doc.getId());
+                return prompt;
             }
-            return null;
-        } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to find prompt", e);
-            throw new RuntimeException("Database error", e);
         }
+        return null;
     }
 
-    public List<Prompt> findAll() {
+    private DocumentSnapshot load(String id) {
         try {
-            ApiFuture<QuerySnapshot> future = firestore.collection(COLLECTION_NAME).get();
-            List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-            List<Prompt> prompts = new ArrayList<>();
-            for (DocumentSnapshot document : documents) {
-                Prompt prompt = document.toObject(Prompt.class);
-                if (prompt != null) {
-                    prompt.setId(document.getId());
-                    prompts.add(prompt);
-                }
-            }
-            return prompts;
+            return cache.get(id, key -> firestore.collection(COLLECTION_NAME).document(key).get());
         } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to list prompts", e);
+            log.error("Failed to find prompt", e);
             throw new RuntimeException("Database error", e);
         }
     }
+
+    /** Shared with {@link ReactivePromptRepository}, so a write through either evicts for both. */
+    DocumentCache cache() {
+        return cache;
+    }
+
+    @PreDestroy
+    void closeCache() {
+        cache.close();
+    }
 }
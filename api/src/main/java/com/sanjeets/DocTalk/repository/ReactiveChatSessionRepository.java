@@ -0,0 +1,352 @@
+package com.sanjeets.DocTalk.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import com.google.cloud.firestore.AggregateQuerySnapshot;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.sanjeets.DocTalk.config.DependencyGuards;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ChatSession;
+import com.sanjeets.DocTalk.model.entity.ConversationState;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sessions live in a {@value #SESSIONS_COLLECTION} collection under their project's document,
+ * and their messages in a {@value #MESSAGES_COLLECTION} collection under the session. Sessions
+ * created before that are in the top-level {@value #LEGACY_SESSIONS_COLLECTION} collection until
+ * they are migrated.
+ * <p>
+ * While {@code doctalk.chat.sessions.legacy-read} is on, sessions are also read from the
+ * top-level collection they used to live in. Listings merge both layouts, and a session looked
+ * up by ID that is only found in the old one is moved to its project first, so every write goes
+ * to the new layout. {@link #streamLegacySessionIds} and {@link #migrateSession} move the rest.
+ */
+@Repository
+public class ReactiveChatSessionRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveChatSessionRepository.class);
+    static final String SESSIONS_COLLECTION = "sessions";
+    static final String MESSAGES_COLLECTION = "messages";
+    static final String LEGACY_SESSIONS_COLLECTION = "doctalk-chat-sessions";
+    // Firestore's limit on writes per batch
+    private static final int MAX_BATCH_WRITES = 500;
+    // Everything but the conversation state, which only chat turns read
+    private static final String[] LIST_FIELDS = {"id", "projectId", "promptId", "title", "createdAt"};
+    private final Firestore firestore;
+    private final ReactiveFirestore reactive;
+    private final boolean legacyRead;
+
+    /** A session moved out of the top-level collection, and how many messages moved with it. */
+    public record Migration(ChatSession session, int messages) {}
+
+    public ReactiveChatSessionRepository(Firestore firestore, ObservationRegistry observationRegistry,
+                                         DependencyGuards guards,
+                                         @Value("${doctalk.chat.sessions.legacy-read:true}") boolean legacyRead) {
+        this.firestore = firestore;
+        this.reactive = new ReactiveFirestore(ReactiveChatSessionRepository.class, log, observationRegistry, guards.firestore());
+        this.legacyRead = legacyRead;
+    }
+
+    /** The sessions of {@code projectId}. */
+    static CollectionReference sessions(Firestore firestore, String projectId) {
+        return firestore.collection(ProjectRepository.COLLECTION_NAME).document(projectId).collection(SESSIONS_COLLECTION);
+    }
+
+    // --- Sessions ---
+
+    public Mono<Void> saveSession(ChatSession session) {
+        return reactive.call("saveSession", "Failed to save session",
+                () -> sessionRef(session).set(session)).then();
+    }
+
+    /**
+     * Empty if there is no such session. Session IDs are minted by {@link SessionIds}, imported
+     * ones included, so they are unique across projects and this looks the session up in every
+     * project's sessions at once.
+     */
+    public Mono<ChatSession> getSession(String id) {
+        Mono<ChatSession> current = reactive.call("getSession", "Failed to find session",
+                        () -> firestore.collectionGroup(SESSIONS_COLLECTION).whereEqualTo("id", id).limit(1).get())
+                .flatMap(query -> Mono.justOrEmpty(query.getDocuments().stream().findFirst()))
+                .map(doc -> doc.toObject(ChatSession.class));
+        if (!legacyRead) return current;
+        // Read again once moved, in case another replica moved it first and has written to it since
+        return current.switchIfEmpty(Mono.defer(() -> migrateSession(id).then(current)));
+    }
+
+    public Mono<List<ChatSession>> getSessionsByProject(String projectId) {
+        Mono<List<ChatSession>> current = reactive.call("getSessionsByProject", "Failed to list sessions",
+                        () -> sessions(firestore, projectId).select(LIST_FIELDS).get())
+                .map(query -> query.toObjects(ChatSession.class));
+        if (!legacyRead) return current;
+        Mono<List<ChatSession>> legacy = reactive.call("getLegacySessionsByProject", "Failed to list sessions",
+                        () -> firestore.collection(LEGACY_SESSIONS_COLLECTION)
+                                .whereEqualTo("projectId", projectId)
+                                .select(LIST_FIELDS)
+                                .get())
+                .map(query -> query.toObjects(ChatSession.class));
+        return Mono.zip(current, legacy, ReactiveChatSessionRepository::merge);
+    }
+
+    /** The {@code limit} most recently created sessions, newest first, without their conversation state. */
+    public Mono<List<ChatSession>> findRecent(int limit) {
+        Mono<List<ChatSession>> current = reactive.call("findRecent", "Failed to list sessions",
+                        () -> firestore.collectionGroup(SESSIONS_COLLECTION)
+                                .orderBy("createdAt", Query.Direction.DESCENDING)
+                                .limit(limit)
+                                .select(LIST_FIELDS)
+                                .get())
+                .map(query -> query.toObjects(ChatSession.class));
+        if (!legacyRead) return current;
+        Mono<List<ChatSession>> legacy = reactive.call("findRecentLegacy", "Failed to list sessions",
+                        () -> firestore.collection(LEGACY_SESSIONS_COLLECTION)
+                                .orderBy("createdAt", Query.Direction.DESCENDING)
+                                .limit(limit)
+                                .select(LIST_FIELDS)
+                                .get())
+                .map(query -> query.toObjects(ChatSession.class));
+        return Mono.zip(current, legacy, (sessions, legacySessions) -> {
+            List<ChatSession> merged = merge(sessions, legacySessions);
+            merged.sort(Comparator.comparing(ChatSession::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder())));
+            return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+        });
+    }
+
+    /**
+     * Every session of {@code projectId}, without conversation state, read {@code batchSize}
+     * at a time as the subscriber asks for more. Sessions still in the old layout come last.
+     */
+    public Flux<ChatSession> streamSessionsByProject(String projectId, int batchSize) {
+        Flux<ChatSession> current = cursor("streamSessionsByProject", "Failed to list sessions",
+                sessions(firestore, projectId)
+                        .select(LIST_FIELDS)
+                        .orderBy(FieldPath.documentId()), batchSize)
+                .map(doc -> doc.toObject(ChatSession.class));
+        if (!legacyRead) return current;
+        return Flux.defer(() -> {
+            // IDs only, to skip sessions caught halfway through being moved
+            Set<String> seen = new HashSet<>();
+            return Flux.concat(
+                    current.doOnNext(session -> seen.add(session.getId())),
+                    cursor("streamLegacySessionsByProject", "Failed to list sessions",
+                            firestore.collection(LEGACY_SESSIONS_COLLECTION)
+                                    .whereEqualTo("projectId", projectId)
+                                    .select(LIST_FIELDS)
+                                    .orderBy(FieldPath.documentId()), batchSize)
+                            .map(doc -> doc.toObject(ChatSession.class))
+                            .filter(session -> !seen.contains(session.getId())));
+        });
+    }
+
+    /** Sets the title alone, so a rename never overwrites a concurrent turn's conversation state. */
+    public Mono<Void> updateTitle(ChatSession session, String title) {
+        return reactive.call("updateTitle", "Failed to update session",
+                () -> sessionRef(session).update("title", title)).then();
+    }
+
+    // --- Messages ---
+
+    public Mono<Void> saveMessage(ChatSession session, ChatMessage message) {
+        return reactive.call("saveMessage", "Failed to save message",
+                () -> sessionRef(session)
+                        .collection(MESSAGES_COLLECTION)
+                        .document(message.getId())
+                        .set(message)).then();
+    }
+
+    /**
+     * Saves a turn's answer and replaces the session's conversation state with {@code update}
+     * applied to the current one (null if the session has none yet), in one transaction.
+     * {@code update} may run more than once if the transaction is retried.
+     */
+    public Mono<Void> saveExchange(ChatSession target, ChatMessage answer, UnaryOperator<ConversationState> update) {
+        DocumentReference session = sessionRef(target);
+        return reactive.call("saveExchange", "Failed to save message", () -> firestore.runTransaction(tx -> {
+            DocumentSnapshot current = tx.get(session).get();
+            ConversationState state = current.exists() ? current.get("conversation", ConversationState.class) : null;
+            tx.set(session.collection(MESSAGES_COLLECTION).document(answer.getId()), answer);
+            tx.update(session, "conversation", update.apply(state));
+            return null;
+        })).then();
+    }
+
+    public Mono<List<ChatMessage>> getMessages(ChatSession session) {
+        return reactive.call("getMessages", "Failed to list messages",
+                        () -> sessionRef(session)
+                                .collection(MESSAGES_COLLECTION)
+                                .orderBy("createdAt", Query.Direction.ASCENDING)
+                                .get())
+                .map(query -> query.toObjects(ChatMessage.class));
+    }
+
+    /**
+     * The session's messages in order, read {@code batchSize} at a time like {@link #streamSessionsByProject}.
+     * Streamed sessions may still be in the old layout, so one without messages is also looked for there.
+     */
+    public Flux<ChatMessage> streamMessages(ChatSession session, int batchSize) {
+        Flux<ChatMessage> current = streamMessages(sessionRef(session), batchSize);
+        if (!legacyRead) return current;
+        return current.switchIfEmpty(Flux.defer(() -> streamMessages(
+                firestore.collection(LEGACY_SESSIONS_COLLECTION).document(session.getId()), batchSize)));
+    }
+
+    private Flux<ChatMessage> streamMessages(DocumentReference session, int batchSize) {
+        return cursor("streamMessages", "Failed to list messages",
+                session.collection(MESSAGES_COLLECTION)
+                        .orderBy("createdAt", Query.Direction.ASCENDING)
+                        .orderBy(FieldPath.documentId()), batchSize)
+                .map(doc -> doc.toObject(ChatMessage.class));
+    }
+
+    /**
+     * Creates sessions and messages of {@code projectId} as they are, in one batch; together they
+     * must fit Firestore's limit of {@value #MAX_BATCH_WRITES} writes. The batch fails, writing
+     * nothing, if any of their IDs is already taken.
+     */
+    public Mono<Void> saveAll(String projectId, List<ChatSession> sessions, List<ChatMessage> messages) {
+        if (sessions.size() + messages.size() > MAX_BATCH_WRITES) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_WRITES + " writes per batch");
+        }
+        return reactive.call("saveAll", "Failed to import sessions", () -> {
+            WriteBatch batch = firestore.batch();
+            for (ChatSession session : sessions) {
+                batch.create(sessions(firestore, projectId).document(session.getId()), session);
+            }
+            for (ChatMessage message : messages) {
+                batch.create(sessions(firestore, projectId)
+                        .document(message.getSessionId())
+                        .collection(MESSAGES_COLLECTION)
+                        .document(message.getId()), message);
+            }
+            return batch.commit();
+        }).then();
+    }
+
+    public Mono<Void> deleteSession(ChatSession session) {
+        return deleteTree(sessionRef(session));
+    }
+
+    // --- Migration ---
+
+    /** IDs of the sessions still in the old layout, read {@code batchSize} at a time. */
+    public Flux<String> streamLegacySessionIds(int batchSize) {
+        return cursor("streamLegacySessionIds", "Failed to list sessions",
+                firestore.collection(LEGACY_SESSIONS_COLLECTION)
+                        .select(FieldPath.documentId())
+                        .orderBy(FieldPath.documentId()), batchSize)
+                .map(QueryDocumentSnapshot::getId);
+    }
+
+    public Mono<Long> countLegacySessions() {
+        return reactive.call("countLegacySessions", "Failed to count sessions",
+                        () -> firestore.collection(LEGACY_SESSIONS_COLLECTION).count().get())
+                .map(AggregateQuerySnapshot::getCount);
+    }
+
+    /**
+     * Moves a session and its messages from the top-level collection to its project, then
+     * deletes the old copy; empty if it is not in the old layout. Every step can be repeated,
+     * so a move that failed halfway, or runs on two replicas at once, still ends complete. A
+     * session already in its project is not overwritten, since it may have had turns since.
+     */
+    public Mono<Migration> migrateSession(String id) {
+        DocumentReference legacy = firestore.collection(LEGACY_SESSIONS_COLLECTION).document(id);
+        return reactive.call("getLegacySession", "Failed to find session", legacy::get)
+                .filter(DocumentSnapshot::exists)
+                .flatMap(doc -> {
+                    ChatSession session = doc.toObject(ChatSession.class);
+                    if (session.getProjectId() == null) {
+                        return Mono.error(new IllegalStateException("Session " + id + " has no project"));
+                    }
+                    DocumentReference target = sessionRef(session);
+                    Map<String, Object> data = doc.getData();
+                    return copyMessages(legacy, target)
+                            .flatMap(messages -> reactive.call("migrateSession", "Failed to migrate session",
+                                            () -> firestore.runTransaction(tx -> {
+                                                if (!tx.get(target).get().exists()) tx.create(target, data);
+                                                return null;
+                                            }))
+                                    .then(deleteTree(legacy))
+                                    .thenReturn(new Migration(session, messages)));
+                });
+    }
+
+    /** Copies every message under {@code from} to {@code to}, a batch at a time; resolves to how many. */
+    private Mono<Integer> copyMessages(DocumentReference from, DocumentReference to) {
+        return cursor("copyMessages", "Failed to migrate session",
+                        from.collection(MESSAGES_COLLECTION).orderBy(FieldPath.documentId()), MAX_BATCH_WRITES)
+                .buffer(MAX_BATCH_WRITES)
+                .concatMap(messages -> reactive.call("copyMessages", "Failed to migrate session", () -> {
+                    WriteBatch batch = firestore.batch();
+                    for (QueryDocumentSnapshot message : messages) {
+                        batch.set(to.collection(MESSAGES_COLLECTION).document(message.getId()), message.getData());
+                    }
+                    return batch.commit();
+                }).thenReturn(messages.size()))
+                .reduce(0, Integer::sum);
+    }
+
+    /** Deletes the session's messages in batches, then the session itself. */
+    private Mono<Void> deleteTree(DocumentReference session) {
+        return reactive.call("listMessageIds", "Failed to list messages",
+                        () -> session.collection(MESSAGES_COLLECTION).select(FieldPath.documentId()).get())
+                .flatMapIterable(QuerySnapshot::getDocuments)
+                .map(QueryDocumentSnapshot::getReference)
+                .buffer(MAX_BATCH_WRITES)
+                .concatMap(messages -> reactive.call("deleteMessages", "Failed to delete session", () -> {
+                    WriteBatch batch = firestore.batch();
+                    messages.forEach(batch::delete);
+                    return batch.commit();
+                }))
+                .then(reactive.call("deleteSession", "Failed to delete session", session::delete))
+                .then();
+    }
+
+    private DocumentReference sessionRef(ChatSession session) {
+        return sessions(firestore, session.getProjectId()).document(session.getId());
+    }
+
+    /** {@code sessions} followed by those of {@code others} that are not among them. */
+    private static List<ChatSession> merge(List<ChatSession> sessions, List<ChatSession> others) {
+        Map<String, ChatSession> merged = new LinkedHashMap<>();
+        sessions.forEach(session -> merged.put(session.getId(), session));
+        others.forEach(session -> merged.putIfAbsent(session.getId(), session));
+        return new ArrayList<>(merged.values());
+    }
+
+    /** Pages through {@code query} in order, resuming after the last document of each page. */
+    private Flux<QueryDocumentSnapshot> cursor(String method, String failure, Query query, int batchSize) {
+        return reactive.call(method, failure, () -> query.limit(batchSize).get())
+                .expand(page -> page.size() < batchSize
+                        ? Mono.empty()
+                        : reactive.call(method, failure, () -> query
+                                .startAfter(page.getDocuments().get(page.size() - 1))
+                                .limit(batchSize)
+                                .get()))
+                // One page ahead at most, so memory stays at a couple of pages however long the stream
+                .concatMapIterable(QuerySnapshot::getDocuments, 1);
+    }
+}
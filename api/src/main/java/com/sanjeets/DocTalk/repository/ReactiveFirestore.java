@@ -0,0 +1,90 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sanjeets.DocTalk.config.DependencyGuard;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
+import org.slf4j.Logger;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * Adapts Firestore's {@link ApiFuture}s to {@link Mono}s. The call starts on subscription
+ * and completes from the client's callback, so no thread waits on the RPC; cancelling the
+ * subscription cancels the future. Each call is observed as {@code doctalk.repository},
+ * like the {@code @Observed} blocking repositories, and failures surface as the same
+ * {@code "Database error"} they throw. Every call runs under the Firestore
+ * {@link DependencyGuard}: past its deadline the future is cancelled, and while the circuit is
+ * open calls are rejected without being made.
+ */
+final class ReactiveFirestore {
+
+    private final Logger log;
+    private final String className;
+    private final ObservationRegistry observationRegistry;
+    private final DependencyGuard guard;
+
+    ReactiveFirestore(Class<?> repository, Logger log, ObservationRegistry observationRegistry, DependencyGuard guard) {
+        this.log = log;
+        this.className = repository.getSimpleName();
+        this.observationRegistry = observationRegistry;
+        this.guard = guard;
+    }
+
+    /**
+     * Like {@link #call}, for single-document gets: one that has not answered within the guard's
+     * {@code hedge-after} is sent again, and the first answer wins. Not for queries, whose cost
+     * grows with what they match, so a second copy adds load just when the backend is slow.
+     */
+    <T> Mono<T> read(String method, String failure, Supplier<ApiFuture<T>> call) {
+        return observe(method, guard.hedged(() -> future(failure, call)));
+    }
+
+    /**
+     * Runs {@code call} when subscribed; a null result completes empty. Exceptions thrown while
+     * building the call (an invalid page token, say) are passed through as they are.
+     */
+    <T> Mono<T> call(String method, String failure, Supplier<ApiFuture<T>> call) {
+        return observe(method, guard.mono(future(failure, call)));
+    }
+
+    private <T> Mono<T> future(String failure, Supplier<ApiFuture<T>> call) {
+        return Mono.<T>create(sink -> {
+            ApiFuture<T> future = call.get();
+            sink.onCancel(() -> future.cancel(false));
+            ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+                @Override
+                public void onSuccess(T value) {
+                    sink.success(value);
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    if (error instanceof CancellationException) return; // The subscriber has gone
+                    log.error(failure, error);
+                    sink.error(new RuntimeException("Database error", error));
+                }
+            }, MoreExecutors.directExecutor());
+        });
+    }
+
+    private <T> Mono<T> observe(String method, Mono<T> result) {
+        return Mono.deferContextual(context -> {
+            Observation observation = Observation.createNotStarted("doctalk.repository", observationRegistry)
+                    .contextualName(className + "#" + method)
+                    .lowCardinalityKeyValue("class", className)
+                    .lowCardinalityKeyValue("method", method)
+                    .parentObservation(context.getOrDefault(ObservationThreadLocalAccessor.KEY, null))
+                    .start();
+            return result
+                    .doOnError(observation::error)
+                    .doFinally(signal -> observation.stop());
+        });
+    }
+}
@@ -0,0 +1,62 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.sanjeets.DocTalk.config.DependencyGuards;
+import com.sanjeets.DocTalk.model.dto.PageResult;
+import com.sanjeets.DocTalk.model.entity.Project;
+import com.sanjeets.DocTalk.model.entity.ProjectStatus;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link ProjectRepository}, for request paths that compose
+ * reactively. Reads go through the same document cache, so either repository sees the
+ * other's writes. Conditional updates stay on {@link ProjectRepository}.
+ */
+@Repository
+public class ReactiveProjectRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveProjectRepository.class);
+    private final Firestore firestore;
+    private final ProjectRepository projects;
+    private final DocumentCache cache;
+    private final ReactiveFirestore reactive;
+
+    public ReactiveProjectRepository(Firestore firestore, ProjectRepository projects, ObservationRegistry observationRegistry,
+                                     DependencyGuards guards) {
+        this.firestore = firestore;
+        this.projects = projects;
+        this.cache = projects.cache();
+        this.reactive = new ReactiveFirestore(ReactiveProjectRepository.class, log, observationRegistry, guards.firestore());
+    }
+
+    public Mono<Void> save(Project project) {
+        return reactive.call("save", "Failed to save project",
+                        () -> firestore.collection(ProjectRepository.COLLECTION_NAME).document(project.getId()).set(project))
+                .doFinally(signal -> cache.invalidate(project.getId()))
+                .then();
+    }
+
+    /** Empty if there is no such project. */
+    public Mono<Project> findById(String id) {
+        // Suppressing cancel leaves the shared read to the other callers waiting on it
+        return Mono.deferContextual(context -> Mono.fromFuture(() -> cache.getAsync(id,
+                        key -> reactive.read("findById", "Failed to find project",
+                                        () -> firestore.collection(ProjectRepository.COLLECTION_NAME).document(key).get())
+                                .contextWrite(context)
+                                .toFuture()), true))
+                .filter(DocumentSnapshot::exists)
+                .map(document -> document.toObject(Project.class));
+    }
+
+    /** See {@link ProjectRepository#findPage}. */
+    public Mono<PageResult<Project>> findPage(ProjectStatus status, int pageSize, String pageToken, boolean summary) {
+        return reactive.call("findPage", "Failed to list projects",
+                        () -> projects.pageQuery(status, pageSize, pageToken, summary).get())
+                .map(snapshot -> ProjectRepository.toPage(snapshot.getDocuments(), pageSize));
+    }
+}
@@ -0,0 +1,64 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.cloud.firestore.Firestore;
+import com.sanjeets.DocTalk.config.DependencyGuards;
+import com.sanjeets.DocTalk.model.dto.PageResult;
+import com.sanjeets.DocTalk.model.entity.Prompt;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link PromptRepository}, sharing its document cache.
+ */
+@Repository
+public class ReactivePromptRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactivePromptRepository.class);
+    private final Firestore firestore;
+    private final PromptRepository prompts;
+    private final DocumentCache cache;
+    private final ReactiveFirestore reactive;
+
+    public ReactivePromptRepository(Firestore firestore, PromptRepository prompts, ObservationRegistry observationRegistry,
+                                    DependencyGuards guards) {
+        this.firestore = firestore;
+        this.prompts = prompts;
+        this.cache = prompts.cache();
+        this.reactive = new ReactiveFirestore(ReactivePromptRepository.class, log, observationRegistry, guards.firestore());
+    }
+
+    public Mono<Void> save(Prompt prompt) {
+        return reactive.call("save", "Failed to save prompt",
+                        () -> firestore.collection(PromptRepository.COLLECTION_NAME).document(prompt.getId()).set(prompt))
+                .doFinally(signal -> cache.invalidate(prompt.getId()))
+                .then();
+    }
+
+    public Mono<Void> delete(String id) {
+        return reactive.call("delete", "Failed to delete prompt",
+                        () -> firestore.collection(PromptRepository.COLLECTION_NAME).document(id).delete())
+                .doFinally(signal -> cache.invalidate(id))
+                .then();
+    }
+
+    /** Empty if there is no such prompt. */
+    public Mono<Prompt> findById(String id) {
+        // Suppressing cancel leaves the shared read to the other callers waiting on it
+        return Mono.deferContextual(context -> Mono.fromFuture(() -> cache.getAsync(id,
+                        key -> reactive.read("findById", "Failed to find prompt",
+                                        () -> firestore.collection(PromptRepository.COLLECTION_NAME).document(key).get())
+                                .contextWrite(context)
+                                .toFuture()), true))
+                .mapNotNull(PromptRepository::toPrompt);
+    }
+
+    /** See {@link PromptRepository#findPage}. */
+    public Mono<PageResult<Prompt>> findPage(int pageSize, String pageToken, boolean summary) {
+        return reactive.call("findPage", "Failed to list prompts",
+                        () -> prompts.pageQuery(pageSize, pageToken, summary).get())
+                .map(snapshot -> PromptRepository.toPage(snapshot.getDocuments(), pageSize));
+    }
+}
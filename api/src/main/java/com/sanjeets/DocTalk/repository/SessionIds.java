@@ -0,0 +1,49 @@
+package com.sanjeets.DocTalk.repository;
+
+import java.security.SecureRandom;
+
+/**
+ * Session IDs that sort by creation time: 26 Crockford base32 characters, a 48-bit millisecond
+ * timestamp followed by 80 random bits (the ULID layout). IDs made in the same millisecond
+ * increment the random part, so they still sort in creation order within this replica.
+ * <p>
+ * Sessions live under their project's document, so consecutive IDs only share a key range
+ * within one project; across projects, writes spread over the projects' random IDs.
+ */
+public final class SessionIds {
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static long lastMillis;
+    private static long randomHigh; // Top 16 of the 80 random bits
+    private static long randomLow;
+
+    private SessionIds() {}
+
+    public static synchronized String next() {
+        long now = Math.max(System.currentTimeMillis(), lastMillis);
+        if (now == lastMillis) {
+            if (++randomLow == 0) randomHigh = (randomHigh + 1) & 0xFFFF;
+        } else {
+            lastMillis = now;
+            randomHigh = RANDOM.nextInt(1 << 16);
+            randomLow = RANDOM.nextLong();
+        }
+
+        char[] id = new char[26];
+        long time = now;
+        for (int i = 9; i >= 0; i--) {
+            id[i] = ALPHABET[(int) (time & 31)];
+            time >>>= 5;
+        }
+        long high = randomHigh;
+        long low = randomLow;
+        for (int i = 25; i >= 10; i--) {
+            id[i] = ALPHABET[(int) (low & 31)];
+            low = (low >>> 5) | (high << 59);
+            high >>>= 5;
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,44 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.SetOptions;
+import io.micrometer.observation.annotation.Observed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/** Daily Gemini token totals per project, one document per project and UTC day. */
+@Repository
+@Observed(name = "doctalk.repository")
+public class TokenUsageRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenUsageRepository.class);
+    private final Firestore firestore;
+    private static final String COLLECTION_NAME = "doctalk-token-usage";
+
+    public TokenUsageRepository(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    /** Adds to the day's totals, creating the document on first use. */
+    public void increment(String projectId, String day, long promptTokens, long candidatesTokens, long totalTokens, long calls) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("projectId", projectId);
+        fields.put("day", day);
+        fields.put("promptTokens", FieldValue.increment(promptTokens));
+        fields.put("candidatesTokens", FieldValue.increment(candidatesTokens));
+        fields.put("totalTokens", FieldValue.increment(totalTokens));
+        fields.put("calls", FieldValue.increment(calls));
+        try {
+            firestore.collection(COLLECTION_NAME).document(projectId + "_" + day).set(fields, SetOptions.merge()).get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Failed to record token usage", e);
+            throw new RuntimeException("Database error", e);
+        }
+    }
+}
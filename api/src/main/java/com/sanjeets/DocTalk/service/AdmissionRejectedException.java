@@ -0,0 +1,26 @@
+package com.sanjeets.DocTalk.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a Gemini call cannot be admitted: the wait queue is full, or the call
+ * waited longer than allowed. Carries a hint for when retrying is likely to succeed.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public AdmissionRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /** Whole seconds, rounded up, as sent in a {@code Retry-After} header. */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+}
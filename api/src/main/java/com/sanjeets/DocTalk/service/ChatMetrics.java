@@ -0,0 +1,169 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer instruments for a chat turn. Every phase of {@code sendMessage} and
+ * {@code streamMessage} is timed under {@code doctalk.chat.phase}, with the streaming
+ * path adding time-to-first-token, inter-chunk gaps and generation throughput.
+ * <p>
+ * Each turn is also an observation ({@code doctalk.chat.turn}) and each phase a span
+ * beneath it, so a slow turn can be broken down in a trace.
+ */
+@Component
+public class ChatMetrics {
+
+    public static final String SYNC = "sync";
+    public static final String STREAM = "stream";
+
+    private final MeterRegistry registry;
+    private final ObservationRegistry observationRegistry;
+    private final Tracer tracer;
+
+    public ChatMetrics(MeterRegistry registry, ObservationRegistry observationRegistry, ObjectProvider<Tracer> tracer) {
+        this.registry = registry;
+        this.observationRegistry = observationRegistry;
+        this.tracer = tracer.getIfAvailable(() -> Tracer.NOOP);
+    }
+
+    /** Creates the not-yet-started observation covering one chat turn. */
+    public Observation turn(String mode, String sessionId, String model) {
+        return Observation.createNotStarted("doctalk.chat.turn", observationRegistry)
+                .contextualName("chat " + mode)
+                .lowCardinalityKeyValue("mode", mode)
+                .lowCardinalityKeyValue("model", model)
+                .highCardinalityKeyValue("session.id", sessionId);
+    }
+
+    /** Adds the project to the current turn once the session has been resolved. */
+    public void tagProject(String projectId) {
+        Observation turn = observationRegistry.getCurrentObservation();
+        if (turn != null) {
+            turn.highCardinalityKeyValue("project.id", projectId);
+        }
+    }
+
+    /** Replaces the turn's model with the routed one, and adds the route. */
+    public void tagRoute(ModelRouter.Route route) {
+        Observation turn = observationRegistry.getCurrentObservation();
+        if (turn != null) {
+            turn.lowCardinalityKeyValue("model", route.model());
+            turn.lowCardinalityKeyValue("route", route.name());
+        }
+    }
+
+    public <T> T time(String phase, String mode, Supplier<T> operation) {
+        Span span = tracer.nextSpan().name("chat " + phase).tag("mode", mode).start();
+        long start = System.nanoTime();
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            return operation.get();
+        } catch (RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            timer(phase, mode).record(Duration.ofNanos(System.nanoTime() - start));
+            span.end();
+        }
+    }
+
+    public void time(String phase, String mode, Runnable operation) {
+        time(phase, mode, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /** Times {@code operation} from subscription to termination, with a span like the blocking variant. */
+    public <T> Mono<T> time(String phase, String mode, Mono<T> operation) {
+        return Mono.defer(() -> {
+            Span span = tracer.nextSpan().name("chat " + phase).tag("mode", mode).start();
+            long start = System.nanoTime();
+            return operation
+                    .doOnError(span::error)
+                    .doFinally(signal -> {
+                        timer(phase, mode).record(Duration.ofNanos(System.nanoTime() - start));
+                        span.end();
+                    });
+        });
+    }
+
+    /** Records a phase measured by the caller, ending now, including its span. */
+    public void recordPhase(String phase, String mode, long nanos) {
+        timer(phase, mode).record(Duration.ofNanos(nanos));
+        Instant end = Instant.now();
+        long endMicros = ChronoUnit.MICROS.between(Instant.EPOCH, end);
+        tracer.spanBuilder()
+                .name("chat " + phase)
+                .tag("mode", mode)
+                .startTimestamp(endMicros - nanos / 1_000, TimeUnit.MICROSECONDS)
+                .start()
+                .end(endMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private Timer timer(String phase, String mode) {
+        return Timer.builder("doctalk.chat.phase")
+                .description("Time spent in each phase of a chat turn")
+                .tags("phase", phase, "mode", mode)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void recordTimeToFirstToken(String model, String route, long nanos) {
+        Timer.builder("doctalk.chat.ttft")
+                .description("Time from request receipt to the first streamed text chunk")
+                .tag("model", model)
+                .tag("route", route)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    public void recordChunkGap(String model, long nanos) {
+        Timer.builder("doctalk.chat.chunk.gap")
+                .description("Time between consecutive streamed text chunks")
+                .tag("model", model)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    /** Records token usage from the response's usage metadata, plus throughput over {@code generationNanos}. */
+    public void recordUsage(String projectId, String model, GenerateContentResponse response, long generationNanos) {
+        if (response == null || !response.hasUsageMetadata()) return;
+        GenerateContentResponse.UsageMetadata usage = response.getUsageMetadata();
+        recordTokens(projectId, model, "prompt", usage.getPromptTokenCount());
+        recordTokens(projectId, model, "candidates", usage.getCandidatesTokenCount());
+        recordTokens(projectId, model, "total", usage.getTotalTokenCount());
+        // Part of the prompt count, read from a context cache rather than sent
+        recordTokens(projectId, model, "cached", usage.getCachedContentTokenCount());
+
+        if (generationNanos > 0 && usage.getCandidatesTokenCount() > 0) {
+            DistributionSummary.builder("doctalk.chat.tokens.per.second")
+                    .description("Output tokens per second of generation")
+                    .tag("model", model)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(usage.getCandidatesTokenCount() / (generationNanos / 1_000_000_000.0));
+        }
+    }
+
+    private void recordTokens(String projectId, String model, String type, int count) {
+        registry.counter("doctalk.chat.tokens", "project", projectId, "model", model, "type", type).increment(count);
+    }
+}
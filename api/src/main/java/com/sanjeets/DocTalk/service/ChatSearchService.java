@@ -0,0 +1,267 @@
+package com.sanjeets.DocTalk.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.sanjeets.DocTalk.model.dto.ChatSearchHit;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ChatSession;
+import com.sanjeets.DocTalk.repository.ReactiveChatSessionRepository;
+import com.sanjeets.DocTalk.repository.ReactiveProjectRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Full-text search over each project's chat history, served from an in-process
+ * {@link MessageIndex} per project.
+ * <p>
+ * A project's index is loaded on first use: from its snapshot under
+ * {@code doctalk.chat.search.directory} if there is one, otherwise rebuilt from Firestore.
+ * Snapshots are only kept when a directory is set. Messages and sessions are applied as this
+ * replica saves them, and changed indexes are written back every {@code flush-interval}. A write
+ * to a project whose index is not loaded only marks its snapshot stale, so the next load rebuilds
+ * it instead. Each replica only sees its own writes, so an index older than {@code rebuild-after}
+ * is rebuilt in the background on its next search; changes made meanwhile are applied to both
+ * the old and the new index. At most {@code max-projects} indexes are held, least recently used
+ * first out.
+ */
+@Service
+public class ChatSearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatSearchService.class);
+    private static final int MAX_HITS = 100;
+
+    private final ReactiveChatSessionRepository chatSessionRepository;
+    private final ReactiveProjectRepository projectRepository;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry registry;
+    private final Scheduler blockingScheduler;
+    private final Path directory;
+    private final Duration rebuildAfter;
+    private final int batchSize;
+    private final Cache<String, MessageIndex> indexes;
+    // Loads and rebuilds in flight, so a project is only read from Firestore once at a time
+    private final Map<String, Mono<MessageIndex>> loading = new ConcurrentHashMap<>();
+    // Projects written to while not loaded, whose snapshot misses those writes
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();
+
+    public ChatSearchService(ReactiveChatSessionRepository chatSessionRepository,
+                             ReactiveProjectRepository projectRepository, ObjectMapper objectMapper,
+                             MeterRegistry registry, Scheduler blockingScheduler,
+                             @Value("${doctalk.chat.search.directory:}") String directory,
+                             @Value("${doctalk.chat.search.max-projects:200}") long maxProjects,
+                             @Value("${doctalk.chat.search.rebuild-after:6h}") Duration rebuildAfter,
+                             @Value("${doctalk.chat.transfer.batch-size:200}") int batchSize) {
+        this.chatSessionRepository = chatSessionRepository;
+        this.projectRepository = projectRepository;
+        this.objectMapper = objectMapper;
+        this.registry = registry;
+        this.blockingScheduler = blockingScheduler;
+        this.directory = directory.isBlank() ? null : Path.of(directory);
+        this.rebuildAfter = rebuildAfter;
+        this.batchSize = batchSize;
+        this.indexes = Caffeine.newBuilder()
+                .maximumSize(maxProjects)
+                // Evicted indexes are saved, so they come back from disk rather than Firestore
+                .removalListener((String projectId, MessageIndex index, RemovalCause cause) -> {
+                    if (index != null && cause.wasEvicted()) save(projectId, index);
+                })
+                .build();
+        Gauge.builder("doctalk.chat.search.projects", indexes, Cache::estimatedSize)
+                .description("Project search indexes held in memory")
+                .register(registry);
+    }
+
+    /** The best {@code limit} messages of the project matching {@code query}, best first. */
+    public Mono<List<ChatSearchHit>> search(String projectId, String query, int limit) {
+        return projectRepository.findById(projectId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Project not found")))
+                // Deferred, so an unknown project starts no load
+                .then(Mono.defer(() -> index(projectId)))
+                .map(index -> {
+                    if (System.currentTimeMillis() - index.builtAtMillis() > rebuildAfter.toMillis()) {
+                        refresh(projectId);
+                    }
+                    long start = System.nanoTime();
+                    List<ChatSearchHit> hits = index.search(query, Math.max(1, Math.min(limit, MAX_HITS)));
+                    Timer.builder("doctalk.chat.search.latency")
+                            .description("Time to rank a chat history search, once the index is loaded")
+                            .publishPercentileHistogram()
+                            .register(registry)
+                            .record(Duration.ofNanos(System.nanoTime() - start));
+                    return hits;
+                });
+    }
+
+    /** Applies a saved message, and the session's current title, to the project's index. */
+    public void indexMessage(String projectId, ChatSession session, ChatMessage message) {
+        apply(projectId, index -> {
+            index.putSession(session.getId(), session.getTitle());
+            index.put(message);
+        });
+    }
+
+    public void indexSession(ChatSession session) {
+        apply(session.getProjectId(), index -> index.putSession(session.getId(), session.getTitle()));
+    }
+
+    public void removeSession(String projectId, String sessionId) {
+        apply(projectId, index -> index.removeSession(sessionId));
+    }
+
+    /** Drops the project's index and snapshot after a bulk write; the next search rebuilds it. */
+    public void invalidate(String projectId) {
+        indexes.invalidate(projectId);
+        deleteSnapshot(projectId);
+    }
+
+    /** Rebuilds the project's index from Firestore, replacing the current one when done. */
+    public Mono<Integer> rebuildIndex(String projectId) {
+        return projectRepository.findById(projectId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Project not found")))
+                .then(Mono.defer(() -> refresh(projectId)))
+                .map(MessageIndex::size);
+    }
+
+    /**
+     * Applies {@code change} to the loaded index and to any load or rebuild in flight. A project
+     * with neither is not loaded on the write path; its snapshot is marked stale instead.
+     */
+    private void apply(String projectId, Consumer<MessageIndex> change) {
+        MessageIndex current = indexes.getIfPresent(projectId);
+        if (current != null) change.accept(current);
+        Mono<MessageIndex> pending = loading.get(projectId);
+        if (pending == null && current == null) {
+            markStale(projectId);
+            // A load that started meanwhile may have read the snapshot already
+            pending = loading.get(projectId);
+        }
+        if (pending != null) {
+            pending.subscribe(change, e -> log.warn("Failed to update search index for project {}", projectId, e));
+        }
+    }
+
+    private Mono<MessageIndex> index(String projectId) {
+        MessageIndex current = indexes.getIfPresent(projectId);
+        if (current != null) return Mono.just(current);
+        return loading.computeIfAbsent(projectId, id -> track(id,
+                Mono.fromCallable(() -> stale.remove(id) ? null : read(id))
+                        .subscribeOn(blockingScheduler)
+                        .switchIfEmpty(Mono.defer(() -> rebuild(id)))));
+    }
+
+    private Mono<MessageIndex> refresh(String projectId) {
+        Mono<MessageIndex> rebuild = loading.computeIfAbsent(projectId, id -> track(id, rebuild(id)));
+        rebuild.subscribe(index -> {}, e -> log.warn("Failed to rebuild search index for project {}", projectId, e));
+        return rebuild;
+    }
+
+    /** Skips the project's snapshot on its next load; the file goes too, so a restart skips it as well. */
+    private void markStale(String projectId) {
+        if (stale.add(projectId) && directory != null) {
+            Mono.fromRunnable(() -> deleteSnapshot(projectId))
+                    .subscribeOn(blockingScheduler)
+                    .subscribe();
+        }
+    }
+
+    /** Shares {@code load} between callers, publishes its result, and forgets it once done. */
+    private Mono<MessageIndex> track(String projectId, Mono<MessageIndex> load) {
+        return load
+                .doOnNext(index -> indexes.put(projectId, index))
+                .doFinally(signal -> loading.remove(projectId))
+                .cache();
+    }
+
+    private Mono<MessageIndex> rebuild(String projectId) {
+        MessageIndex index = new MessageIndex(System.currentTimeMillis());
+        long start = System.nanoTime();
+        return chatSessionRepository.streamSessionsByProject(projectId, batchSize)
+                .concatMap(session -> {
+                    index.putSession(session.getId(), session.getTitle());
+                    return chatSessionRepository.streamMessages(session, batchSize).doOnNext(index::put);
+                }, 1)
+                .then(Mono.fromSupplier(() -> {
+                    Timer.builder("doctalk.chat.search.rebuild")
+                            .description("Time to rebuild a project's search index from Firestore")
+                            .register(registry)
+                            .record(Duration.ofNanos(System.nanoTime() - start));
+                    log.info("Rebuilt search index for project {}: {} messages", projectId, index.size());
+                    return index;
+                }));
+    }
+
+    /** The project's snapshot, or null if there is none or it cannot be read. */
+    private MessageIndex read(String projectId) {
+        if (directory == null) return null;
+        Path path = snapshotPath(projectId);
+        if (!Files.exists(path)) return null;
+        try {
+            return MessageIndex.of(objectMapper.readValue(path.toFile(), MessageIndex.Snapshot.class));
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable search snapshot {}", path, e);
+            return null;
+        }
+    }
+
+    /** Writes the project's snapshot if it changed, via a temporary file so a crash never leaves half of one. */
+    private void save(String projectId, MessageIndex index) {
+        if (directory == null) return;
+        MessageIndex.Snapshot snapshot = index.snapshotIfDirty();
+        if (snapshot == null) return;
+        Path path = snapshotPath(projectId);
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "index", ".tmp");
+            objectMapper.writeValue(temporary.toFile(), snapshot);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            index.markDirty();
+            log.warn("Failed to save search snapshot {}", path, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${doctalk.chat.search.flush-interval:1m}")
+    public void flush() {
+        indexes.asMap().forEach(this::save);
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private void deleteSnapshot(String projectId) {
+        if (directory == null) return;
+        try {
+            Files.deleteIfExists(snapshotPath(projectId));
+        } catch (IOException e) {
+            log.warn("Failed to delete search snapshot for project {}", projectId, e);
+        }
+    }
+
+    private Path snapshotPath(String projectId) {
+        return directory.resolve(projectId.replaceAll("[^A-Za-z0-9_-]", "_") + ".json");
+    }
+}
@@ -1,6 +1,6 @@
 package com.sanjeets.DocTalk.service;
 
-import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -8,51 +8,78 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.api.gax.grpc.GrpcCallContext;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ServerStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.api.Candidate;
 import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.GoogleSearchRetrieval;
 import com.google.cloud.vertexai.api.GroundingChunk;
 import com.google.cloud.vertexai.api.GroundingMetadata;
+import com.google.cloud.vertexai.api.Part;
 import com.google.cloud.vertexai.api.Retrieval;
 import com.google.cloud.vertexai.api.Tool;
 import com.google.cloud.vertexai.api.VertexAISearch;
 import com.google.cloud.vertexai.generativeai.ContentMaker;
-import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import com.google.cloud.vertexai.generativeai.ResponseHandler;
-import com.google.cloud.vertexai.generativeai.ResponseStream;
+import com.sanjeets.DocTalk.config.DependencyGuard;
+import com.sanjeets.DocTalk.config.DependencyGuards;
+import com.sanjeets.DocTalk.config.DependencyUnavailableException;
+import com.sanjeets.DocTalk.config.VertexAiFactory;
 import com.sanjeets.DocTalk.model.entity.ChatMessage;
 import com.sanjeets.DocTalk.model.entity.ChatSession;
+import com.sanjeets.DocTalk.model.entity.ConversationState;
 import com.sanjeets.DocTalk.model.entity.MessageRole;
 import com.sanjeets.DocTalk.model.entity.Project;
 import com.sanjeets.DocTalk.model.entity.Prompt;
-import com.sanjeets.DocTalk.repository.ChatSessionRepository;
-import com.sanjeets.DocTalk.repository.ProjectRepository;
-import com.sanjeets.DocTalk.repository.PromptRepository;
+import com.sanjeets.DocTalk.repository.ReactiveChatSessionRepository;
+import com.sanjeets.DocTalk.repository.ReactiveProjectRepository;
+import com.sanjeets.DocTalk.repository.ReactivePromptRepository;
+import com.sanjeets.DocTalk.repository.SessionIds;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
 
 @Service
 public class ChatService {
 
     private static final Logger log = LoggerFactory.getLogger(ChatService.class);
 
-    private final ChatSessionRepository chatSessionRepository;
-    private final ProjectRepository projectRepository;
-    private final PromptRepository promptRepository;
-    private final ObjectMapper objectMapper;
+    private final ReactiveChatSessionRepository chatSessionRepository;
+    private final ReactiveProjectRepository projectRepository;
+    private final ReactivePromptRepository promptRepository;
     private final DocumentService documentService;
+    private final ChatMetrics chatMetrics;
+    private final VertexAiFactory vertexAiFactory;
+    private final GenerationAdmission admission;
+    private final GenerationCoalescer generationCoalescer;
+    private final TokenAccounting tokenAccounting;
+    private final ConversationCompactor conversationCompactor;
+    private final PromptContextCache promptContextCache;
+    private final ModelRouter modelRouter;
+    private final ChatSearchService chatSearchService;
+    private final DependencyGuard vertexAi;
+    private final Scheduler blockingScheduler;
 
     @Value("${doctalk.gcp.project-id}")
     private String gcpProjectId;
@@ -66,357 +93,625 @@ public class ChatService {
     @Value("${doctalk.chat.model:gemini-1.5-flash-001}")
     private String modelName;
 
-    public ChatService(ChatSessionRepository chatSessionRepository, ProjectRepository projectRepository,
-            PromptRepository promptRepository, ObjectMapper objectMapper, DocumentService documentService) {
+    // Longest wait for the next chunk of a stream, the first one included
+    @Value("${doctalk.resilience.vertex-ai.stream-idle:30s}")
+    private Duration streamIdle;
+
+    @Value("${doctalk.admission.estimated-tokens:4000}")
+    private int baseTokenEstimate;
+
+    public ChatService(ReactiveChatSessionRepository chatSessionRepository, ReactiveProjectRepository projectRepository,
+            ReactivePromptRepository promptRepository, DocumentService documentService,
+            ChatMetrics chatMetrics, VertexAiFactory vertexAiFactory, GenerationAdmission admission,
+            GenerationCoalescer generationCoalescer, TokenAccounting tokenAccounting,
+            ConversationCompactor conversationCompactor, PromptContextCache promptContextCache,
+            ModelRouter modelRouter, ChatSearchService chatSearchService, DependencyGuards guards,
+            Scheduler blockingScheduler) {
         this.chatSessionRepository = chatSessionRepository;
         this.projectRepository = projectRepository;
         this.promptRepository = promptRepository;
-        this.objectMapper = objectMapper;
         this.documentService = documentService;
+        this.chatMetrics = chatMetrics;
+        this.vertexAiFactory = vertexAiFactory;
+        this.admission = admission;
+        this.generationCoalescer = generationCoalescer;
+        this.tokenAccounting = tokenAccounting;
+        this.conversationCompactor = conversationCompactor;
+        this.promptContextCache = promptContextCache;
+        this.modelRouter = modelRouter;
+        this.chatSearchService = chatSearchService;
+        this.vertexAi = guards.vertexAi();
+        this.blockingScheduler = blockingScheduler;
     }
 
-    public ChatSession createSession(String projectId, String promptId) {
+    public Mono<ChatSession> createSession(String projectId, String promptId) {
         String title = java.time.format.DateTimeFormatter.ofPattern("MMM dd, HH:mm")
                 .withZone(java.time.ZoneId.systemDefault())
                 .format(Instant.now());
 
         ChatSession session = new ChatSession(
-                UUID.randomUUID().toString(),
+                SessionIds.next(),
                 projectId,
                 promptId,
                 title,
                 Instant.now().toString()
         );
-        chatSessionRepository.saveSession(session);
-        return session;
+        session.setConversation(new ConversationState());
+        return chatSessionRepository.saveSession(session).thenReturn(session);
     }
 
-    public List<ChatSession> getSessions(String projectId) {
-        List<ChatSession> sessions = chatSessionRepository.getSessionsByProject(projectId);
-        sessions.sort((s1, s2) -> s2.getCreatedAt().compareTo(s1.getCreatedAt())); // Descending order
-        return sessions;
+    public Mono<List<ChatSession>> getSessions(String projectId) {
+        return chatSessionRepository.getSessionsByProject(projectId)
+                .map(sessions -> {
+                    sessions.sort((s1, s2) -> s2.getCreatedAt().compareTo(s1.getCreatedAt())); // Descending order
+                    return sessions;
+                });
     }
 
-    public List<ChatMessage> getMessages(String sessionId) {
-        List<ChatMessage> messages = chatSessionRepository.getMessages(sessionId);
-        // Enrich with signed URLs for display
-        for (ChatMessage msg : messages) {
-            if (msg.getCitations() != null) {
-                for (Map<String, String> citation : msg.getCitations()) {
-                    String originalUri = citation.get("uri");
-                    citation.put("uri", documentService.generateReadSignedUrl(originalUri));
-                }
-            }
-        }
-        return messages;
+    public Mono<List<ChatMessage>> getMessages(String sessionId) {
+        return chatSessionRepository.getSession(sessionId)
+                .flatMap(chatSessionRepository::getMessages)
+                .defaultIfEmpty(List.of())
+                // Signing may call out to IAM, so it runs off the Firestore callback thread
+                .publishOn(blockingScheduler)
+                .map(messages -> {
+                    // Enrich with signed URLs for display
+                    for (ChatMessage msg : messages) {
+                        if (msg.getCitations() != null) {
+                            for (Map<String, String> citation : msg.getCitations()) {
+                                String originalUri = citation.get("uri");
+                                citation.put("uri", documentService.generateReadSignedUrl(originalUri));
+                            }
+                        }
+                    }
+                    return messages;
+                });
     }
 
-    public ChatSession updateSession(String sessionId, String newTitle) {
-        ChatSession session = chatSessionRepository.getSession(sessionId);
-        if (session == null) throw new IllegalArgumentException("Session not found");
-        session.setTitle(newTitle);
-        chatSessionRepository.saveSession(session);
-        return session;
+    public Mono<ChatSession> updateSession(String sessionId, String newTitle) {
+        return chatSessionRepository.getSession(sessionId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Session not found")))
+                .flatMap(session -> {
+                    session.setTitle(newTitle);
+                    return chatSessionRepository.updateTitle(session, newTitle)
+                            .doOnSuccess(ignored -> chatSearchService.indexSession(session))
+                            .thenReturn(session);
+                });
     }
 
-    public void deleteSession(String sessionId) {
-        chatSessionRepository.deleteSession(sessionId);
+    /** Reads the session first to learn where it is stored and which project's search index to update. */
+    public Mono<Void> deleteSession(String sessionId) {
+        return chatSessionRepository.getSession(sessionId)
+                .flatMap(session -> chatSessionRepository.deleteSession(session)
+                        .doOnSuccess(ignored -> chatSearchService.removeSession(session.getProjectId(), sessionId)));
     }
 
-    public ChatMessage sendMessage(String sessionId, String userMessageText) {
-        log.info("sendMessage called for sessionId: {}", sessionId);
-
-        ChatSession session = chatSessionRepository.getSession(sessionId);
-
-        if (session == null)
-            throw new IllegalArgumentException("Session not found");
+    public Mono<ChatMessage> sendMessage(String sessionId, String userMessageText) {
+        return Mono.defer(() -> {
+            Observation turn = chatMetrics.turn(ChatMetrics.SYNC, sessionId, modelName).start();
+            return sendMessageInTurn(sessionId, userMessageText)
+                    .doOnError(turn::error)
+                    .doFinally(signal -> turn.stop())
+                    .contextWrite(Context.of(ObservationThreadLocalAccessor.KEY, turn));
+        });
+    }
 
-        Project project = projectRepository.findById(session.getProjectId());
-        if (project == null)
-            throw new IllegalArgumentException("Project not found");
+    private Mono<ChatMessage> sendMessageInTurn(String sessionId, String userMessageText) {
+        log.info("sendMessage called for sessionId: {}", sessionId);
+        String mode = ChatMetrics.SYNC;
+
+        return loadConversation(sessionId, mode).flatMap(conversation -> {
+            Project project = conversation.project();
+
+            // Size the request up front: persona, summary and as much history as the budget allows
+            TokenAccounting.Budgeted context = tokenAccounting.fit(conversation.prompt(), conversation.summary(),
+                    conversation.history(), null, userMessageText);
+            ModelRouter.Route route = modelRouter.route(userMessageText, context.history().size(), conversation.summary() != null);
+            chatMetrics.tagRoute(route);
+            log.info("Using GCP Project: {}, VertexAI Location: {}, Model: {} ({}), DataStore: {}",
+                    gcpProjectId, vertexAiLocation, route.model(), route.reason(), project.getDataStoreId());
+            return sendMessageAdmitted(conversation, route, context, userMessageText);
+        });
+    }
 
-        log.info("Using GCP Project: {}, VertexAI Location: {}, Model: {}, DataStore: {}",
-                gcpProjectId, vertexAiLocation, modelName, project.getDataStoreId());
+    /**
+     * Waits for a Gemini slot before saving anything, so a rejected turn leaves no trace. The
+     * question is then saved while the client and request are set up and the reply generated.
+     * Only admission and the Gemini call itself block, on {@code blockingScheduler}.
+     */
+    private Mono<ChatMessage> sendMessageAdmitted(Conversation conversation, ModelRouter.Route route,
+                                                  TokenAccounting.Budgeted context, String userMessageText) {
+        String mode = ChatMetrics.SYNC;
+        Project project = conversation.project();
+        String sessionId = conversation.session().getId();
+        return Mono.using(
+            () -> chatMetrics.time("admission", mode, () -> admission.acquire(project, estimateTokens(context.inputTokens()))),
+            permit -> {
+                // 1. Save User Message
+                ChatMessage userMessage = new ChatMessage(
+                        UUID.randomUUID().toString(),
+                        sessionId,
+                        MessageRole.USER,
+                        userMessageText,
+                        Instant.now().toString());
+                userMessage.setTokenCount(TokenAccounting.estimate(userMessageText));
+
+                Mono<ChatMessage> reply = Mono.using(
+                    () -> chatMetrics.time("vertex_client", mode, vertexAiFactory::create),
+                    vertexAI -> Mono.fromCallable(() -> generateReply(vertexAI, permit, conversation, route, context, userMessage)),
+                    VertexAI::close
+                ).subscribeOn(blockingScheduler);
+
+                return Mono.zip(chatMetrics.time("save_user", mode, saveQuestion(conversation, userMessage)).thenReturn(userMessage),
+                                reply, (question, modelMessage) -> modelMessage)
+                        // 3. Save Model Response, once the question is saved too
+                        .flatMap(modelMessage -> chatMetrics.time("save_model", mode, saveExchange(conversation, userMessage, modelMessage))
+                                .thenReturn(modelMessage));
+            },
+            GenerationAdmission.Permit::close
+        )
+        .onErrorMap(ApiException.class, e -> {
+            log.error("Gemini interaction failed", e);
+            return new RuntimeException("AI Error", e);
+        })
+        .subscribeOn(blockingScheduler);
+    }
 
-        // 1. Save User Message
-        ChatMessage userMessage = new ChatMessage(
+    /** The blocking Gemini call of a synchronous turn; returns the reply, not yet saved. */
+    private ChatMessage generateReply(VertexAI vertexAI, GenerationAdmission.Permit permit, Conversation conversation,
+                                      ModelRouter.Route route, TokenAccounting.Budgeted context, ChatMessage userMessage) {
+        String mode = ChatMetrics.SYNC;
+        Project project = conversation.project();
+
+        // 2. Prepare Gemini Request, with history
+        GenerateContentRequest request = chatMetrics.time("model_setup", mode, () -> buildRequest(route.model(), project,
+                conversation.prompt(), conversation.summary(), buildHistory(context.history(), userMessage.getId()),
+                userMessage.getContent()));
+
+        long generateStart = System.nanoTime();
+        GenerateContentResponse response = vertexAi.call(() -> vertexAI.getPredictionServiceClient()
+                .generateContentCallable().call(request, callContext()));
+        long generateNanos = System.nanoTime() - generateStart;
+        chatMetrics.recordPhase("generate", mode, generateNanos);
+        chatMetrics.recordUsage(project.getId(), route.model(), response, generateNanos);
+        tokenAccounting.recordUsage(project.getId(), response);
+        recordUsage(permit, response);
+        String responseText = ResponseHandler.getText(response);
+
+        // Extract Citations
+        List<Map<String, String>> citations = new ArrayList<>();
+        collectCitations(response, new HashSet<>(), citations);
+
+        ChatMessage modelMessage = new ChatMessage(
                 UUID.randomUUID().toString(),
-                sessionId,
-                MessageRole.USER,
-                userMessageText,
+                userMessage.getSessionId(),
+                MessageRole.MODEL,
+                responseText,
                 Instant.now().toString());
-        chatSessionRepository.saveMessage(userMessage);
-
-        // 2. Prepare Gemini Request
-        try (VertexAI vertexAI = new VertexAI(gcpProjectId, vertexAiLocation)) {
-
-            // System Instruction (Persona)
-            Content systemInstruction = null;
-            if (session.getPromptId() != null) {
-                Prompt prompt = promptRepository.findById(session.getPromptId());
-                if (prompt != null) {
-                    systemInstruction = ContentMaker.fromMultiModalData(prompt.getContent());
-                }
-            }
-
-            // Grounding Tool
-            Tool groundingTool;
-            if (project.getDataStoreId() != null) {
-                String dataStoreResource = String.format(
-                        "projects/%s/locations/%s/collections/default_collection/dataStores/%s",
-                        gcpProjectId, searchLocation, project.getDataStoreId());
+        modelMessage.setCitations(citations);
+        if (response.hasUsageMetadata()) {
+            modelMessage.setTokenCount(response.getUsageMetadata().getCandidatesTokenCount());
+        }
+        return modelMessage;
+    }
 
-                Retrieval retrieval = Retrieval.newBuilder()
-                        .setVertexAiSearch(VertexAISearch.newBuilder().setDatastore(dataStoreResource).build())
-                        .build();
+    /**
+     * Resolves to the event stream once the turn is accepted: the session and project exist
+     * and the question passed the checks and fits the context budget. Until then failures are
+     * errors of the {@code Mono}, so the caller can still answer with a status code.
+     * <p>
+     * The turn's observation stays open until the stream terminates, and rides in the Reactor
+     * context so phases running on other threads still land in this turn's trace.
+     */
+    public Mono<Flux<String>> streamMessage(String sessionId, String userMessageText) {
+        return Mono.defer(() -> {
+            Observation turn = chatMetrics.turn(ChatMetrics.STREAM, sessionId, modelName).start();
+            Context context = Context.of(ObservationThreadLocalAccessor.KEY, turn);
+            return streamMessageInTurn(sessionId, userMessageText)
+                    .map(stream -> stream
+                            .doOnError(turn::error)
+                            .doFinally(signal -> turn.stop())
+                            .contextWrite(context))
+                    .doOnError(e -> {
+                        turn.error(e);
+                        turn.stop();
+                    })
+                    .doOnCancel(turn::stop)
+                    .contextWrite(context);
+        });
+    }
 
-                groundingTool = Tool.newBuilder()
-                        .setRetrieval(retrieval)
-                        .build();
-            } else {
-                // Fallback
-                groundingTool = Tool.newBuilder()
-                        .setGoogleSearchRetrieval(GoogleSearchRetrieval.newBuilder().build())
-                        .build();
-            }
+    private Mono<Flux<String>> streamMessageInTurn(String sessionId, String userMessageText) {
+        log.info("streamMessage called for sessionId: {}", sessionId);
+        String mode = ChatMetrics.STREAM;
+        long requestStart = System.nanoTime();
 
-            // Initialize Model with Config
-            GenerativeModel.Builder builder = new GenerativeModel.Builder()
-                    .setModelName(modelName)
-                    .setVertexAi(vertexAI)
-                    .setTools(Collections.singletonList(groundingTool));
+        return loadConversation(sessionId, mode).map(conversation -> {
+            ChatSession session = conversation.session();
+            Project project = conversation.project();
+            Prompt prompt = conversation.prompt();
 
-            if (systemInstruction != null) {
-                builder.setSystemInstruction(systemInstruction);
-            }
+            // Reject up front when the question is too long or the project's queue is full
+            tokenAccounting.checkQuestion(userMessageText);
+            admission.checkQueue(project);
 
-            GenerativeModel model = builder.build();
+            // 1. The user message, saved once the turn is admitted
+            ChatMessage userMessage = new ChatMessage(
+                    UUID.randomUUID().toString(),
+                    sessionId,
+                    MessageRole.USER,
+                    userMessageText,
+                    Instant.now().toString());
+            userMessage.setTokenCount(TokenAccounting.estimate(userMessageText));
+
+            TokenAccounting.Budgeted context = tokenAccounting.fit(prompt, conversation.summary(),
+                    conversation.history(), userMessage.getId(), userMessageText);
+            List<Content> history = buildHistory(context.history(), userMessage.getId());
+            ModelRouter.Route route = modelRouter.route(userMessageText, history.size(), conversation.summary() != null);
+            chatMetrics.tagRoute(route);
+            GenerateContentRequest request = chatMetrics.time("model_setup", mode,
+                    () -> buildRequest(route.model(), project, prompt, conversation.summary(), history, userMessageText));
+
+            // Determine initial status
+            String initialStatus = SseEventEncoder.status(
+                    project.getDataStoreId() != null && !project.getDataStoreId().isEmpty()
+                            ? "Searching project documents..."
+                            : "Thinking...");
+
+            // A slow strong model is hedged with the fast one, which gets its request only if it is started
+            Supplier<Flux<GenerateContentResponse>> generation = () -> modelRouter.hedge(route,
+                    admitted -> generate(project, route.model(), request, context.inputTokens(), admitted),
+                    () -> {
+                        String fallbackModel = modelRouter.fallback().model();
+                        return generate(project, fallbackModel, buildRequest(fallbackModel, project, prompt,
+                                conversation.summary(), history, userMessageText), context.inputTokens(), () -> {});
+                    });
+
+            // Identical first-turn questions share one generation; each session still saves its own answer
+            Flux<GenerateContentResponse> responses = history.isEmpty() && conversation.summary() == null
+                    ? generationCoalescer.join(
+                            GenerationCoalescer.key(project.getId(), session.getPromptId(), project.getLastIndexedAt(), userMessageText),
+                            generation)
+                    : generation.get();
+
+            // The question is saved once Gemini starts answering, so a turn turned away by admission or
+            // the Vertex AI guard leaves no trace; the text streams meanwhile and the answer waits for it
+            Mono<Void> savedQuestion = chatMetrics.time("save_user", mode, saveQuestion(conversation, userMessage)).cache();
+            Flux<GenerateContentResponse> answering = responses.switchOnFirst((first, all) -> first.hasValue()
+                    ? Flux.merge(savedQuestion.then(Mono.<GenerateContentResponse>empty()), all)
+                    : all);
+
+            return Flux.concat(
+                Flux.just(initialStatus),
+                streamEvents(answering, route, sessionId, requestStart,
+                        answer -> savedQuestion.then(saveExchange(conversation, userMessage, answer)))
+            )
+            // The status event is already sent, so a rejection mid-stream is reported as an event
+            .onErrorResume(AdmissionRejectedException.class,
+                    e -> Flux.just(SseEventEncoder.error(e.getMessage(), e.getRetryAfterSeconds())))
+            .onErrorResume(DependencyUnavailableException.class,
+                    e -> Flux.just(SseEventEncoder.error(e.getMessage(), e.getRetryAfterSeconds())));
+        });
+    }
 
-            // Generate Content with History
-            List<ChatMessage> historyMessages = chatSessionRepository.getMessages(sessionId);
-            com.google.cloud.vertexai.generativeai.ChatSession chat = model.startChat();
+    /**
+     * One streamed Gemini call. It holds an admission permit and a client for as long as it runs,
+     * and records generation time and token usage once, however many turns it is shared with.
+     * The call runs under the Vertex AI guard, with its deadline on the whole stream and
+     * {@code stream-idle} on the wait for each chunk. {@code admitted} runs once the permit is granted.
+     * Responses carry {@code model} as their model version, so whoever reads them knows which
+     * model answered a hedged turn.
+     */
+    private Flux<GenerateContentResponse> generate(Project project, String model, GenerateContentRequest request,
+                                                   int inputTokens, Runnable admitted) {
+        String mode = ChatMetrics.STREAM;
+        return Flux.using(
+            () -> {
+                GenerationAdmission.Permit permit =
+                        chatMetrics.time("admission", mode, () -> admission.acquire(project, estimateTokens(inputTokens)));
+                admitted.run();
+                return permit;
+            },
+            permit -> vertexAi.flux(Flux.using(
+                () -> chatMetrics.time("vertex_client", mode, vertexAiFactory::create),
+                vertexAI -> {
+                    try {
+                        // Stream
+                        long generateStart = System.nanoTime();
+                        ServerStream<GenerateContentResponse> stream =
+                                vertexAI.getPredictionServiceClient().streamGenerateContentCallable()
+                                        .call(request, callContext().withStreamWaitTimeoutDuration(streamIdle));
+                        GenerateContentResponse[] lastUsage = {null};
+                        return Flux.fromIterable(stream)
+                                .doOnCancel(stream::cancel)
+                                .map(resp -> withModel(resp, model))
+                                .doOnNext(resp -> {
+                                    if (resp.hasUsageMetadata()) {
+                                        lastUsage[0] = resp;
+                                    }
+                                })
+                                .doOnComplete(() -> {
+                                    long generateNanos = System.nanoTime() - generateStart;
+                                    chatMetrics.recordPhase("generate", mode, generateNanos);
+                                    chatMetrics.recordUsage(project.getId(), model, lastUsage[0], generateNanos);
+                                    tokenAccounting.recordUsage(project.getId(), lastUsage[0]);
+                                    recordUsage(permit, lastUsage[0]);
+                                });
+                    } catch (Exception e) {
+                        return Flux.error(e);
+                    }
+                },
+                VertexAI::close
+            )),
+            GenerationAdmission.Permit::close
+        )
+        // Admission and the response iterator block; the rest of the turn does not
+        .subscribeOn(blockingScheduler);
+    }
 
-            // Replay history (excluding the one we just saved)
-            List<Content> historyContent = new ArrayList<>();
-            for (ChatMessage msg : historyMessages) {
-                if (msg.getId().equals(userMessage.getId()))
-                    continue;
+    private static GenerateContentResponse withModel(GenerateContentResponse response, String model) {
+        return model.equals(response.getModelVersion()) ? response : response.toBuilder().setModelVersion(model).build();
+    }
 
-                if (msg.getRole() == MessageRole.USER) {
-                    historyContent.add(ContentMaker.fromMultiModalData(msg.getContent()));
-                } else {
-                    historyContent.add(ContentMaker.forRole("model").fromString(msg.getContent()));
-                }
-            }
-            chat.setHistory(historyContent);
-
-            GenerateContentResponse response = chat.sendMessage(userMessageText);
-            String responseText = ResponseHandler.getText(response);
-
-            // Extract Citations
-            List<Map<String, String>> citations = new ArrayList<>();
-            if (response.getCandidatesCount() > 0) {
-                Candidate candidate = response.getCandidates(0);
-                if (candidate.hasGroundingMetadata()) {
-                    GroundingMetadata metadata = candidate.getGroundingMetadata();
-                    for (GroundingChunk chunk : metadata.getGroundingChunksList()) {
-                        if (chunk.hasRetrievedContext()) {
-                            GroundingChunk.RetrievedContext context = chunk.getRetrievedContext();
-                            Map<String, String> citation = new HashMap<>();
-                            citation.put("uri", context.getUri());
-                            citation.put("title", context.getTitle());
-                            citations.add(citation);
-                        }
+    /** Turns one subscriber's view of the responses into SSE events, and saves the answer to its session. */
+    private Flux<String> streamEvents(Flux<GenerateContentResponse> responses, ModelRouter.Route route, String sessionId,
+                                      long requestStart, Function<ChatMessage, Mono<Void>> saveAnswer) {
+        String mode = ChatMetrics.STREAM;
+
+        // State for aggregation
+        StringBuilder fullResponse = new StringBuilder();
+        List<Map<String, String>> allCitations = new ArrayList<>();
+        Set<String> uniqueUris = new HashSet<>();
+        long[] lastChunkAt = {0L};
+        Integer[] replyTokens = {null};
+
+        // Citations are signed as soon as their URI first appears, on their own branch so
+        // text chunks never wait on signing. Each event carries every citation so far.
+        Map<String, Mono<String>> signedUris = new ConcurrentHashMap<>();
+        Flux<GenerateContentResponse> shared = responses.publish().autoConnect(2);
+
+        Flux<String> textEvents = shared
+                .map(resp -> {
+                    if (resp.hasUsageMetadata()) {
+                        replyTokens[0] = resp.getUsageMetadata().getCandidatesTokenCount();
                     }
-                }
-            }
-
-            // 3. Save Model Response
-            ChatMessage modelMessage = new ChatMessage(
-                    UUID.randomUUID().toString(),
-                    sessionId,
-                    MessageRole.MODEL,
-                    responseText,
-                    Instant.now().toString());
-            modelMessage.setCitations(citations);
-            chatSessionRepository.saveMessage(modelMessage);
+                    String text = ResponseHandler.getText(resp);
+                    if (text != null) {
+                        long now = System.nanoTime();
+                        // The model that answered, which for a hedged turn may not be the routed one
+                        String model = resp.getModelVersion().isEmpty() ? route.model() : resp.getModelVersion();
+                        if (lastChunkAt[0] == 0L) {
+                            chatMetrics.recordTimeToFirstToken(model, route.name(), now - requestStart);
+                        } else {
+                            chatMetrics.recordChunkGap(model, now - lastChunkAt[0]);
+                        }
+                        lastChunkAt[0] = now;
 
-            return modelMessage;
+                        fullResponse.append(text);
+                        return SseEventEncoder.text(text);
+                    }
+                    return "";
+                })
+                .filter(s -> !s.isEmpty());
+
+        Flux<String> citationEvents = shared
+                .filter(resp -> {
+                    int known = allCitations.size();
+                    collectCitations(resp, uniqueUris, allCitations);
+                    for (int i = known; i < allCitations.size(); i++) {
+                        String uri = allCitations.get(i).get("uri");
+                        // Only a head start; a failure surfaces again when the citations are signed
+                        signedUri(uri, signedUris, mode).subscribe(null,
+                                e -> log.debug("Early signing failed for {}", uri, e));
+                    }
+                    return allCitations.size() > known;
+                })
+                .map(resp -> List.copyOf(allCitations))
+                // Lists are cumulative, so only the newest one waiting to be sent matters
+                .onBackpressureLatest()
+                .concatMap(snapshot -> signCitations(snapshot, signedUris, mode))
+                .map(SseEventEncoder::citations);
+
+        return Flux.merge(textEvents, citationEvents)
+                // Save to DB once the answer is complete, before the final citations event
+                .concatWith(Mono.defer(() -> {
+                    log.info("Stream finished. Citations: {}", allCitations.size());
+                    ChatMessage modelMessage = new ChatMessage(
+                            UUID.randomUUID().toString(),
+                            sessionId,
+                            MessageRole.MODEL,
+                            fullResponse.toString(),
+                            Instant.now().toString());
+                    modelMessage.setCitations(allCitations);
+                    modelMessage.setTokenCount(replyTokens[0]);
+                    return chatMetrics.time("save_model", mode, saveAnswer.apply(modelMessage));
+                }).then(Mono.empty()))
+                // Reconcile: the complete list, in order, from signatures already made
+                .concatWith(Flux.defer(() -> allCitations.isEmpty()
+                        ? Flux.empty()
+                        : signCitations(List.copyOf(allCitations), signedUris, mode)
+                                .map(signed -> SseEventEncoder.citations(signed, true))
+                                .flux()));
+    }
 
-        } catch (IOException e) {
-            log.error("Gemini interaction failed", e);
-            throw new RuntimeException("AI Error", e);
-        }
+    /** What a turn needs before calling Gemini. */
+    private record Conversation(ChatSession session, Project project, Prompt prompt, String summary, List<ChatMessage> history) {}
+
+    /**
+     * Reads the session, then its project and prompt in parallel. History comes from the
+     * session's conversation state; only sessions that predate it read their messages.
+     */
+    private Mono<Conversation> loadConversation(String sessionId, String mode) {
+        return chatMetrics.time("session", mode, chatSessionRepository.getSession(sessionId))
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Session not found")))
+                .flatMap(session -> {
+                    ConversationState state = session.getConversation();
+                    return Mono.zip(
+                            chatMetrics.time("project", mode, projectRepository.findById(session.getProjectId()))
+                                    .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Project not found"))),
+                            chatMetrics.time("prompt", mode, loadPrompt(session)),
+                            state != null
+                                    ? Mono.just(state.getRecent())
+                                    : chatMetrics.time("history", mode, chatSessionRepository.getMessages(session))
+                    ).map(loaded -> {
+                        chatMetrics.tagProject(loaded.getT1().getId());
+                        return new Conversation(session, loaded.getT1(), loaded.getT2().orElse(null),
+                                state != null ? state.getSummary() : null, loaded.getT3());
+                    });
+                });
     }
 
-    public Flux<String> streamMessage(String sessionId, String userMessageText) {
-        log.info("streamMessage called for sessionId: {}", sessionId);
+    /** Saves the question, then adds it to the project's search index. */
+    private Mono<Void> saveQuestion(Conversation conversation, ChatMessage question) {
+        return chatSessionRepository.saveMessage(conversation.session(), question)
+                .doOnSuccess(ignored -> chatSearchService.indexMessage(
+                        conversation.project().getId(), conversation.session(), question));
+    }
 
-        ChatSession session = chatSessionRepository.getSession(sessionId);
-        if (session == null)
-            throw new IllegalArgumentException("Session not found");
+    /**
+     * Saves the answer and folds the exchange into the session's conversation state, together.
+     * A session without state gets one built from the history this turn read.
+     */
+    private Mono<Void> saveExchange(Conversation conversation, ChatMessage question, ChatMessage answer) {
+        List<ChatMessage> history = conversation.session().getConversation() == null ? conversation.history() : List.of();
+        return chatSessionRepository.saveExchange(conversation.session(), answer, state -> conversationCompactor.append(
+                        state != null ? state : conversationCompactor.seed(history, question.getId()), question, answer))
+                .doOnSuccess(ignored -> chatSearchService.indexMessage(
+                        conversation.project().getId(), conversation.session(), answer));
+    }
 
-        Project project = projectRepository.findById(session.getProjectId());
-        if (project == null)
-            throw new IllegalArgumentException("Project not found");
+    /** The session's system prompt, if it has one that still exists. */
+    private Mono<Optional<Prompt>> loadPrompt(ChatSession session) {
+        if (session.getPromptId() == null) return Mono.just(Optional.empty());
+        return promptRepository.findById(session.getPromptId())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+    }
 
-        // 1. Save User Message
-        ChatMessage userMessage = new ChatMessage(
-                UUID.randomUUID().toString(),
-                sessionId,
-                MessageRole.USER,
-                userMessageText,
-                Instant.now().toString());
-        chatSessionRepository.saveMessage(userMessage);
-
-        // Determine initial status
-        String initialStatus;
-        try {
-            Map<String, String> statusMap = new HashMap<>();
-            if (project.getDataStoreId() != null && !project.getDataStoreId().isEmpty()) {
-                statusMap.put("status", "Searching project documents...");
-            } else {
-                statusMap.put("status", "Thinking...");
+    /**
+     * The Gemini request for a turn. The persona and grounding tool are the same for every turn
+     * of a project and prompt, so once registered they are referenced from the context cache
+     * instead of being sent again. The summary differs per session, so it rides ahead of the
+     * first turn rather than in the system instruction.
+     */
+    private GenerateContentRequest buildRequest(String modelId, Project project, Prompt prompt, String summary,
+                                                List<Content> history, String question) {
+        String model = String.format("projects/%s/locations/%s/publishers/google/models/%s",
+                gcpProjectId, vertexAiLocation, modelId);
+        List<Tool> tools = Collections.singletonList(groundingTool(project));
+        Content persona = prompt != null && prompt.getContent() != null
+                ? ContentMaker.fromMultiModalData(prompt.getContent())
+                : null;
+
+        GenerateContentRequest.Builder request = GenerateContentRequest.newBuilder().setModel(model);
+        String cachedContent = promptContextCache.lookup(model, persona, tools, tokenAccounting.count(prompt));
+        if (cachedContent != null) {
+            request.setCachedContent(cachedContent);
+        } else {
+            request.addAllTools(tools);
+            if (persona != null) {
+                request.setSystemInstruction(persona);
             }
-            initialStatus = objectMapper.writeValueAsString(statusMap);
-        } catch (Exception e) {
-            initialStatus = "{\"status\": \"Processing...\"}";
         }
 
-        return Flux.concat(
-            Flux.just(initialStatus),
-            Flux.using(
-                () -> new VertexAI(gcpProjectId, vertexAiLocation),
-                vertexAI -> {
-                    try {
-                        // System Instruction
-                        Content systemInstruction = null;
-                        if (session.getPromptId() != null) {
-                            Prompt prompt = promptRepository.findById(session.getPromptId());
-                            if (prompt != null) {
-                                systemInstruction = ContentMaker.fromMultiModalData(prompt.getContent());
-                            }
-                        }
+        request.addAllContents(history);
+        request.addContents(ContentMaker.fromMultiModalData(question));
+        if (summary != null) {
+            Content first = request.getContents(0);
+            request.setContents(0, first.toBuilder()
+                    .addParts(0, Part.newBuilder().setText("Summary of the conversation so far:\n" + summary + "\n\n")));
+        }
+        return request.build();
+    }
 
-                        // Grounding Tool
-                        Tool groundingTool;
-                        if (project.getDataStoreId() != null) {
-                            String dataStoreResource = String.format(
-                                    "projects/%s/locations/%s/collections/default_collection/dataStores/%s",
-                                    gcpProjectId, searchLocation, project.getDataStoreId());
-                            Retrieval retrieval = Retrieval.newBuilder()
-                                    .setVertexAiSearch(VertexAISearch.newBuilder().setDatastore(dataStoreResource).build())
-                                    .build();
-                            groundingTool = Tool.newBuilder().setRetrieval(retrieval).build();
-                        } else {
-                            groundingTool = Tool.newBuilder()
-                                    .setGoogleSearchRetrieval(GoogleSearchRetrieval.newBuilder().build())
-                                    .build();
-                        }
+    private Tool groundingTool(Project project) {
+        if (project.getDataStoreId() != null) {
+            String dataStoreResource = String.format(
+                    "projects/%s/locations/%s/collections/default_collection/dataStores/%s",
+                    gcpProjectId, searchLocation, project.getDataStoreId());
 
-                        GenerativeModel.Builder builder = new GenerativeModel.Builder()
-                                .setModelName(modelName)
-                                .setVertexAi(vertexAI)
-                                .setTools(Collections.singletonList(groundingTool));
+            Retrieval retrieval = Retrieval.newBuilder()
+                    .setVertexAiSearch(VertexAISearch.newBuilder().setDatastore(dataStoreResource).build())
+                    .build();
 
-                        if (systemInstruction != null) {
-                            builder.setSystemInstruction(systemInstruction);
-                        }
+            return Tool.newBuilder()
+                    .setRetrieval(retrieval)
+                    .build();
+        }
+        // Fallback
+        return Tool.newBuilder()
+                .setGoogleSearchRetrieval(GoogleSearchRetrieval.newBuilder().build())
+                .build();
+    }
 
-                        GenerativeModel model = builder.build();
-
-                        // History
-                        List<ChatMessage> historyMessages = chatSessionRepository.getMessages(sessionId);
-                        com.google.cloud.vertexai.generativeai.ChatSession chat = model.startChat();
-                        List<Content> historyContent = new ArrayList<>();
-                        for (ChatMessage msg : historyMessages) {
-                            if (msg.getId().equals(userMessage.getId())) continue;
-                            if (msg.getRole() == MessageRole.USER) {
-                                historyContent.add(ContentMaker.fromMultiModalData(msg.getContent()));
-                            } else {
-                                historyContent.add(ContentMaker.forRole("model").fromString(msg.getContent()));
-                            }
-                        }
-                        chat.setHistory(historyContent);
+    /** Copies {@code citations} with display URIs, waiting on signatures already started for this turn. */
+    private Mono<List<Map<String, String>>> signCitations(List<Map<String, String>> citations,
+                                                         Map<String, Mono<String>> signedUris, String mode) {
+        return Flux.fromIterable(citations)
+                .flatMapSequential(cite -> signedUri(cite.get("uri"), signedUris, mode)
+                        .map(signed -> {
+                            Map<String, String> displayCite = new HashMap<>(cite);
+                            displayCite.put("uri", signed);
+                            return displayCite;
+                        }))
+                .collectList();
+    }
 
-                        // Stream
-                        ResponseStream<GenerateContentResponse> stream = chat.sendMessageStream(userMessageText);
+    /** Signs {@code uri} for display once per turn, off the calling thread; later callers share the result. */
+    private Mono<String> signedUri(String uri, Map<String, Mono<String>> signedUris, String mode) {
+        return signedUris.computeIfAbsent(uri, u -> Mono
+                .fromCallable(() -> chatMetrics.time("sign_citation", mode, () -> documentService.generateReadSignedUrl(u)))
+                .subscribeOn(blockingScheduler)
+                .cache());
+    }
 
-                        // State for aggregation
-                        StringBuilder fullResponse = new StringBuilder();
-                        List<Map<String, String>> allCitations = new ArrayList<>();
-                        Set<String> uniqueUris = new HashSet<>();
+    /** Gemini calls give up after the Vertex AI deadline rather than the client's default of minutes. */
+    private ApiCallContext callContext() {
+        return GrpcCallContext.createDefault().withTimeoutDuration(vertexAi.deadline());
+    }
 
-                        return Flux.fromIterable(stream)
-                                .map(resp -> {
-                                    String text = ResponseHandler.getText(resp);
-
-                                    // Citations
-                                    if (resp.getCandidatesCount() > 0) {
-                                        Candidate candidate = resp.getCandidates(0);
-                                        if (candidate.hasGroundingMetadata()) {
-                                            GroundingMetadata metadata = candidate.getGroundingMetadata();
-                                            for (GroundingChunk chunk : metadata.getGroundingChunksList()) {
-                                                if (chunk.hasRetrievedContext()) {
-                                                    GroundingChunk.RetrievedContext context = chunk.getRetrievedContext();
-                                                    String uri = context.getUri().trim();
-                                                    if (uniqueUris.add(uri)) {
-                                                        Map<String, String> citation = new HashMap<>();
-                                                        citation.put("uri", uri);
-                                                        citation.put("title", context.getTitle());
-                                                        allCitations.add(citation);
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
+    /** Up-front token estimate for admission: the budgeted input plus a fixed allowance for grounding and output. */
+    private int estimateTokens(int inputTokens) {
+        return inputTokens + baseTokenEstimate;
+    }
 
-                                    if (text != null) {
-                                        fullResponse.append(text);
-                                        try {
-                                            Map<String, String> chunkMap = new HashMap<>();
-                                            chunkMap.put("text", text);
-                                            return objectMapper.writeValueAsString(chunkMap);
-                                        } catch (Exception e) { return ""; }
-                                    }
-                                    return "";
-                                })
-                                .filter(s -> !s.isEmpty())
-                                .doOnComplete(() -> {
-                                    log.info("Stream finished. Citations: {}", allCitations.size());
-                                    // Save to DB
-                                    ChatMessage modelMessage = new ChatMessage(
-                                            UUID.randomUUID().toString(),
-                                            sessionId,
-                                            MessageRole.MODEL,
-                                            fullResponse.toString(),
-                                            Instant.now().toString());
-                                    modelMessage.setCitations(allCitations);
-                                    chatSessionRepository.saveMessage(modelMessage);
-                                })
-                                .concatWith(Flux.defer(() -> {
-                                    if (!allCitations.isEmpty()) {
-                                        try {
-                                            List<Map<String, String>> displayCitations = new ArrayList<>();
-                                            for (Map<String, String> cite : allCitations) {
-                                                Map<String, String> displayCite = new HashMap<>(cite);
-                                                displayCite.put("uri", documentService.generateReadSignedUrl(cite.get("uri")));
-                                                displayCitations.add(displayCite);
-                                            }
-                                            Map<String, Object> finalChunk = new HashMap<>();
-                                            finalChunk.put("citations", displayCitations);
-                                            return Flux.just(objectMapper.writeValueAsString(finalChunk));
-                                        } catch (Exception e) { log.error("Citation JSON Error", e); }
-                                    }
-                                    return Flux.empty();
-                                }));
+    private static void recordUsage(GenerationAdmission.Permit permit, GenerateContentResponse response) {
+        if (response != null && response.hasUsageMetadata()) {
+            permit.recordUsage(response.getUsageMetadata().getTotalTokenCount());
+        }
+    }
 
-                    } catch (Exception e) {
-                        return Flux.error(e);
-                    }
-                },
-                VertexAI::close
-            )
-        ).subscribeOn(Schedulers.boundedElastic());
+    /** Replays stored messages as model history, skipping {@code excludeMessageId} (the turn being sent). */
+    static List<Content> buildHistory(List<ChatMessage> messages, String excludeMessageId) {
+        List<Content> historyContent = new ArrayList<>(messages.size());
+        for (ChatMessage msg : messages) {
+            if (msg.getId().equals(excludeMessageId)) continue;
+            if (msg.getRole() == MessageRole.USER) {
+                historyContent.add(ContentMaker.fromMultiModalData(msg.getContent()));
+            } else {
+                historyContent.add(ContentMaker.forRole("model").fromString(msg.getContent()));
+            }
+        }
+        return historyContent;
+    }
+
+    /** Appends the response's retrieved-context citations to {@code citations}, skipping URIs already in {@code seenUris}. */
+    static void collectCitations(GenerateContentResponse response, Set<String> seenUris, List<Map<String, String>> citations) {
+        if (response.getCandidatesCount() == 0) return;
+        Candidate candidate = response.getCandidates(0);
+        if (!candidate.hasGroundingMetadata()) return;
+        GroundingMetadata metadata = candidate.getGroundingMetadata();
+        for (GroundingChunk chunk : metadata.getGroundingChunksList()) {
+            if (chunk.hasRetrievedContext()) {
+                GroundingChunk.RetrievedContext context = chunk.getRetrievedContext();
+                String uri = context.getUri().trim();
+                if (seenUris.add(uri)) {
+                    Map<String, String> citation = new HashMap<>();
+                    citation.put("uri", uri);
+                    citation.put("title", context.getTitle());
+                    citations.add(citation);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,184 @@
+package com.sanjeets.DocTalk.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjeets.DocTalk.model.dto.ChatExportLine;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ChatSession;
+import com.sanjeets.DocTalk.repository.ReactiveChatSessionRepository;
+import com.sanjeets.DocTalk.repository.ReactiveProjectRepository;
+import com.sanjeets.DocTalk.repository.SessionIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bulk export and import of a project's chat history as NDJSON {@link ChatExportLine}s.
+ * <p>
+ * Export pages through the project's sessions and each session's messages only as fast as
+ * the client reads, so memory stays flat however large the project is. Citations keep their
+ * {@code gs://} URIs instead of being signed. Import writes lines in Firestore batches as they
+ * arrive, into the target project. Sessions and messages get fresh IDs, since session IDs are
+ * looked up across every project and an export may be imported more than once; rerunning a
+ * failed import therefore writes a second copy of what it had written. Conversation state is
+ * not carried over: an imported session rebuilds it from its messages on its first turn.
+ */
+@Service
+public class ChatTransferService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatTransferService.class);
+
+    private final ReactiveChatSessionRepository chatSessionRepository;
+    private final ReactiveProjectRepository projectRepository;
+    private final ChatSearchService chatSearchService;
+    private final ObjectMapper objectMapper;
+    private final Scheduler blockingScheduler;
+    private final int batchSize;
+
+    public ChatTransferService(ReactiveChatSessionRepository chatSessionRepository,
+                               ReactiveProjectRepository projectRepository, ChatSearchService chatSearchService,
+                               ObjectMapper objectMapper,
+                               Scheduler blockingScheduler,
+                               @Value("${doctalk.chat.transfer.batch-size:200}") int batchSize) {
+        this.chatSessionRepository = chatSessionRepository;
+        this.projectRepository = projectRepository;
+        this.chatSearchService = chatSearchService;
+        this.objectMapper = objectMapper;
+        this.blockingScheduler = blockingScheduler;
+        // Each import batch is one Firestore write batch, which takes at most 500 writes
+        this.batchSize = Math.max(1, Math.min(batchSize, 500));
+    }
+
+    /** Resolves to the project's sessions, each followed by its messages, once the project is known to exist. */
+    public Mono<Flux<ChatExportLine>> exportHistory(String projectId) {
+        return projectRepository.findById(projectId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Project not found")))
+                .map(project -> chatSessionRepository.streamSessionsByProject(projectId, batchSize)
+                        .concatMap(session -> Flux.concat(
+                                Mono.just(ChatExportLine.of(session)),
+                                chatSessionRepository.streamMessages(session, batchSize).map(ChatExportLine::of)), 1));
+    }
+
+    /**
+     * Imports an export into {@code projectId}, which becomes the project of every session.
+     * Every message must follow its own session's line, as in an export. Returns the number of
+     * sessions and messages written; on a malformed line, the batches before it stay written.
+     * A failure to read the body itself is passed on as it is, not reported as a malformed line.
+     */
+    public Mono<Map<String, Long>> importHistory(String projectId, InputStream body) {
+        return projectRepository.findById(projectId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Project not found")))
+                .flatMap(project -> {
+                    ImportState state = new ImportState(projectId);
+                    return Flux.using(
+                                    () -> objectMapper.readerFor(ChatExportLine.class).<ChatExportLine>readValues(body),
+                                    lines -> Flux.fromIterable(() -> lines),
+                                    ChatTransferService::close)
+                            // Jackson wraps read and parse failures alike; only the client's JSON is a bad request
+                            .onErrorMap(ChatTransferService::isMalformed, e -> new IllegalArgumentException(
+                                    "Malformed line " + (state.lines + 1) + ": " + e.getMessage(), e))
+                            // Reading the request body blocks
+                            .subscribeOn(blockingScheduler)
+                            .doOnNext(state::accept)
+                            .buffer(batchSize)
+                            .concatMap(batch -> write(projectId, batch), 1)
+                            // Whatever was written, the project's search index no longer matches it
+                            .doFinally(signal -> chatSearchService.invalidate(projectId))
+                            .then(Mono.fromSupplier(() -> {
+                                log.info("Imported {} sessions and {} messages into project {}",
+                                        state.sessions, state.messages, projectId);
+                                Map<String, Long> counts = new LinkedHashMap<>();
+                                counts.put("sessions", state.sessions);
+                                counts.put("messages", state.messages);
+                                return counts;
+                            }));
+                });
+    }
+
+    private Mono<Void> write(String projectId, List<ChatExportLine> batch) {
+        List<ChatSession> sessions = new ArrayList<>();
+        List<ChatMessage> messages = new ArrayList<>();
+        for (ChatExportLine line : batch) {
+            if (line.getSession() != null) {
+                sessions.add(line.getSession());
+            } else {
+                messages.add(line.getMessage());
+            }
+        }
+        return chatSessionRepository.saveAll(projectId, sessions, messages);
+    }
+
+    /** Whether {@code e} is, or wraps, a failure to parse or map the JSON itself rather than to read it. */
+    private static boolean isMalformed(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JsonProcessingException) return true;
+        }
+        return false;
+    }
+
+    private static void close(MappingIterator<ChatExportLine> lines) {
+        try {
+            lines.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Checks and renames each line as it is read; only the current session is remembered. */
+    private static final class ImportState {
+        private final String projectId;
+        private String currentSessionId; // As exported
+        private String importedSessionId;
+        private long lines;
+        private long sessions;
+        private long messages;
+
+        ImportState(String projectId) {
+            this.projectId = projectId;
+        }
+
+        void accept(ChatExportLine line) {
+            lines++;
+            ChatSession session = line.getSession();
+            ChatMessage message = line.getMessage();
+            if ((session == null) == (message == null)) {
+                throw new IllegalArgumentException("Line " + lines + ": expected either a session or a message");
+            }
+            if (session != null) {
+                if (session.getId() == null || session.getId().isEmpty()) {
+                    throw new IllegalArgumentException("Line " + lines + ": session without an ID");
+                }
+                currentSessionId = session.getId();
+                importedSessionId = SessionIds.next();
+                session.setId(importedSessionId);
+                session.setProjectId(projectId);
+                session.setConversation(null);
+                sessions++;
+            } else {
+                if (message.getId() == null || message.getId().isEmpty()) {
+                    throw new IllegalArgumentException("Line " + lines + ": message without an ID");
+                }
+                if (message.getSessionId() == null || !message.getSessionId().equals(currentSessionId)) {
+                    throw new IllegalArgumentException("Line " + lines + ": message does not follow its session");
+                }
+                message.setId(UUID.randomUUID().toString());
+                message.setSessionId(importedSessionId);
+                messages++;
+            }
+        }
+    }
+}
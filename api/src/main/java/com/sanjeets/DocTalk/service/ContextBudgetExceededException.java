@@ -0,0 +1,21 @@
+package com.sanjeets.DocTalk.service;
+
+/**
+ * Thrown when a chat turn cannot fit the per-request input token budget even with no
+ * history, i.e. the system prompt and question alone are too large.
+ */
+public class ContextBudgetExceededException extends RuntimeException {
+
+    private final int inputTokens;
+    private final int budget;
+
+    public ContextBudgetExceededException(int inputTokens, int budget) {
+        super("Message is too long: about " + inputTokens + " tokens, the limit is " + budget);
+        this.inputTokens = inputTokens;
+        this.budget = budget;
+    }
+
+    public int getInputTokens() { return inputTokens; }
+
+    public int getBudget() { return budget; }
+}
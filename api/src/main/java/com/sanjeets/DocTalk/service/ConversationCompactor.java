@@ -0,0 +1,173 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ConversationState;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains a session's {@link ConversationState}. The latest {@code doctalk.chat.state.recent-messages}
+ * messages are kept verbatim, as long as they fit in {@code doctalk.chat.state.recent-bytes}. Older
+ * exchanges are folded into a rolling summary of one line per message, and the oldest lines are
+ * dropped once it exceeds {@code doctalk.chat.state.summary-tokens}. Only the latest
+ * {@code doctalk.chat.state.max-citations} cited documents are remembered. Together these keep the
+ * session document well under Firestore's 1 MiB limit, however long or wordy the conversation.
+ * <p>
+ * States are never modified in place: Firestore may retry the transaction that applies them.
+ */
+@Component
+public class ConversationCompactor {
+
+    private static final int SUMMARY_LINE_CHARS = 200;
+
+    private final int recentMessages;
+    private final int recentBytes;
+    private final int summaryTokens;
+    private final int maxCitations;
+
+    public ConversationCompactor(@Value("${doctalk.chat.state.recent-messages:20}") int recentMessages,
+                                 @Value("${doctalk.chat.state.recent-bytes:131072}") int recentBytes,
+                                 @Value("${doctalk.chat.state.summary-tokens:1000}") int summaryTokens,
+                                 @Value("${doctalk.chat.state.max-citations:100}") int maxCitations) {
+        this.recentMessages = recentMessages;
+        this.recentBytes = recentBytes;
+        this.summaryTokens = summaryTokens;
+        this.maxCitations = maxCitations;
+    }
+
+    /** Builds a state from a session's stored messages, skipping {@code excludeMessageId}. */
+    public ConversationState seed(List<ChatMessage> messages, String excludeMessageId) {
+        ConversationState state = new ConversationState();
+        List<ChatMessage> recent = new ArrayList<>(messages.size());
+        Set<String> citationUris = new LinkedHashSet<>();
+        for (ChatMessage message : messages) {
+            if (message.getId().equals(excludeMessageId)) continue;
+            recent.add(compact(message));
+            addCitations(message, citationUris);
+            if (message.getRole() == MessageRole.MODEL) {
+                state.setExchanges(state.getExchanges() + 1);
+            }
+        }
+        state.setCitationUris(latest(citationUris));
+        return fold(state, recent, null);
+    }
+
+    /** The state after {@code question} and {@code answer}; {@code state} is left as it was. */
+    public ConversationState append(ConversationState state, ChatMessage question, ChatMessage answer) {
+        List<ChatMessage> recent = new ArrayList<>(state.getRecent().size() + 2);
+        recent.addAll(state.getRecent());
+        recent.add(compact(question));
+        recent.add(compact(answer));
+
+        Set<String> citationUris = new LinkedHashSet<>(state.getCitationUris());
+        addCitations(answer, citationUris);
+
+        ConversationState next = new ConversationState();
+        next.setCitationUris(latest(citationUris));
+        next.setExchanges(state.getExchanges() + 1);
+        return fold(next, recent, state.getSummary());
+    }
+
+    /** Moves the oldest messages beyond the window into the summary; the window always opens on a user turn. */
+    private ConversationState fold(ConversationState state, List<ChatMessage> recent, String summary) {
+        int start = Math.max(0, recent.size() - recentMessages);
+        // Counted in bytes rather than tokens: whitespace costs no tokens but does fill the document
+        int bytes = 0;
+        for (int i = recent.size() - 1; i >= start; i--) {
+            bytes += utf8Length(recent.get(i).getContent());
+            if (bytes > recentBytes) {
+                start = i + 1;
+                break;
+            }
+        }
+        while (start < recent.size() && recent.get(start).getRole() != MessageRole.USER) {
+            start++;
+        }
+
+        List<String> lines = new ArrayList<>();
+        if (summary != null && !summary.isEmpty()) {
+            lines.addAll(List.of(summary.split("\n")));
+        }
+        for (ChatMessage message : recent.subList(0, start)) {
+            lines.add(summaryLine(message));
+        }
+        int tokens = 0;
+        for (String line : lines) {
+            tokens += TokenAccounting.estimate(line);
+        }
+        int first = 0;
+        while (first < lines.size() && tokens > summaryTokens) {
+            tokens -= TokenAccounting.estimate(lines.get(first++));
+        }
+
+        state.setRecent(new ArrayList<>(recent.subList(start, recent.size())));
+        state.setSummary(first < lines.size() ? String.join("\n", lines.subList(first, lines.size())) : null);
+        return state;
+    }
+
+    /** A copy without citations, which only the UI shows, or the session ID, which the document implies. */
+    private static ChatMessage compact(ChatMessage message) {
+        ChatMessage copy = new ChatMessage(message.getId(), null, message.getRole(), message.getContent(), message.getCreatedAt());
+        copy.setTokenCount(message.getTokenCount());
+        return copy;
+    }
+
+    /** The message's first sentence, at most {@link #SUMMARY_LINE_CHARS} long, labelled with who said it. */
+    static String summaryLine(ChatMessage message) {
+        String text = message.getContent() == null ? "" : message.getContent().strip().replaceAll("\\s+", " ");
+        int end = text.length();
+        for (int i = 0; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == '?' || c == '!') && text.charAt(i + 1) == ' ') {
+                end = i + 1;
+                break;
+            }
+        }
+        String sentence = end > SUMMARY_LINE_CHARS ? text.substring(0, SUMMARY_LINE_CHARS) + "..." : text.substring(0, end);
+        return (message.getRole() == MessageRole.USER ? "User: " : "Assistant: ") + sentence;
+    }
+
+    /** Adds the message's cited URIs, moving any already known to the end as the most recent. */
+    private static void addCitations(ChatMessage message, Set<String> citationUris) {
+        if (message.getCitations() == null) return;
+        for (Map<String, String> citation : message.getCitations()) {
+            String uri = citation.get("uri");
+            if (uri != null) {
+                citationUris.remove(uri);
+                citationUris.add(uri);
+            }
+        }
+    }
+
+    /** The last {@code maxCitations} URIs, least recently cited first. */
+    private List<String> latest(Set<String> citationUris) {
+        List<String> uris = new ArrayList<>(citationUris);
+        return new ArrayList<>(uris.subList(Math.max(0, uris.size() - maxCitations), uris.size()));
+    }
+
+    static int utf8Length(String text) {
+        if (text == null) return 0;
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4; // With its low surrogate
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -1,36 +1,79 @@
 package com.sanjeets.DocTalk.service;
 
+import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.HttpMethod;
 import com.google.cloud.storage.Storage;
+import com.sanjeets.DocTalk.config.DependencyGuard;
+import com.sanjeets.DocTalk.config.DependencyGuards;
 import com.sanjeets.DocTalk.model.dto.DocumentSummary;
+import com.sanjeets.DocTalk.model.entity.DocumentContent;
+import com.sanjeets.DocTalk.model.entity.DocumentLink;
 import com.sanjeets.DocTalk.model.entity.Project;
+import com.sanjeets.DocTalk.model.entity.StorageMode;
+import com.sanjeets.DocTalk.repository.DocumentContentRepository;
 import com.sanjeets.DocTalk.repository.ProjectRepository;
+import io.micrometer.observation.annotation.Observed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.StreamSupport;
 
 @Service
+@Observed(name = "doctalk.service")
 public class DocumentService {
 
+    private static final Logger log = LoggerFactory.getLogger(DocumentService.class);
+
+    // Uploads to deduplicated projects land here first, outside every project's prefix
+    static final String STAGING_PREFIX = "_staging/";
+
     private final Storage storage;
     private final ProjectRepository projectRepository;
+    private final DocumentContentRepository documentContentRepository;
+    private final ProjectService projectService;
+    private final DependencyGuard storageGuard;
 
     @Value("${doctalk.gcs.bucket-name}")
     private String defaultBucketName;
 
-    public DocumentService(Storage storage, ProjectRepository projectRepository) {
+    // Signed upload URLs live 15 minutes, so anything staged this long ago was abandoned
+    @Value("${doctalk.gcs.staging-ttl:1h}")
+    private Duration stagingTtl;
+
+    public DocumentService(Storage storage, ProjectRepository projectRepository,
+            DocumentContentRepository documentContentRepository, ProjectService projectService,
+            DependencyGuards guards) {
         this.storage = storage;
         this.projectRepository = projectRepository;
+        this.documentContentRepository = documentContentRepository;
+        this.projectService = projectService;
+        this.storageGuard = guards.storage();
     }
 
+    /** A finished upload; {@code reindex} is false when the project's index already holds its bytes. */
+    public record CompletedUpload(DocumentLink link, boolean reindex) {}
+
     public URL generateUploadSignedUrl(String projectId, String fileName, String contentType) {
         Project project = projectRepository.findById(projectId);
         if (project == null) {
@@ -39,7 +82,9 @@ public class DocumentService {
 
         String bucketName = project.getBucketName() != null ? project.getBucketName() : defaultBucketName;
         String prefix = project.getBucketPrefix() != null ? project.getBucketPrefix() : (projectId + "/");
-        String objectName = prefix + fileName;
+        // A deduplicated name is only replaced once the new bytes are in and hashed, so an
+        // abandoned upload leaves the current document as it is
+        String objectName = isDeduplicated(project) ? stagingName(projectId, fileName) : prefix + fileName;
 
         BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, objectName)
                 .setContentType(contentType)
@@ -48,14 +93,14 @@ public class DocumentService {
         Map<String, String> extensionHeaders = new HashMap<>();
         extensionHeaders.put("Content-Type", contentType);
 
-        return storage.signUrl(
+        return storageGuard.call(() -> storage.signUrl(
                 blobInfo,
                 15, // URL valid for 15 minutes
                 TimeUnit.MINUTES,
                 Storage.SignUrlOption.httpMethod(HttpMethod.PUT),
                 Storage.SignUrlOption.withExtHeaders(extensionHeaders),
                 Storage.SignUrlOption.withV4Signature()
-        );
+        ));
     }
 
     public List<DocumentSummary> listDocuments(String projectId) {
@@ -74,7 +119,7 @@ public class DocumentService {
 
         Iterable<Blob> blobs = bucket.list(Storage.BlobListOption.prefix(prefix)).iterateAll();
 
-        return StreamSupport.stream(blobs.spliterator(), false)
+        List<DocumentSummary> documents = new ArrayList<>(StreamSupport.stream(blobs.spliterator(), false)
                 .filter(blob -> !blob.getName().endsWith("/")) // Exclude the folder itself if returned
                 .map(blob -> DocumentSummary.builder()
                         .name(blob.getName().substring(prefix.length())) // Strip prefix from name for display
@@ -83,7 +128,97 @@ public class DocumentService {
                         .timeCreated(blob.getCreateTimeOffsetDateTime().toString())
                         .updated(blob.getUpdateTimeOffsetDateTime().toString())
                         .build())
-                .toList();
+                .toList());
+
+        // Deduplicated names have no object of their own
+        if (isDeduplicated(project)) {
+            for (DocumentLink link : documentContentRepository.findLinksByProject(projectId)) {
+                if (link.isLinked()) {
+                    documents.add(DocumentSummary.builder()
+                            .name(link.getFileName())
+                            .contentType(link.getContentType())
+                            .size(link.getSize())
+                            .timeCreated(link.getCreatedAt())
+                            .updated(link.getCreatedAt())
+                            .build());
+                }
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Called by the client once its signed-URL upload has finished. Hashes the uploaded bytes and,
+     * if identical content is already stored, links the name to it and drops the new object.
+     * Otherwise the staged upload is moved into place, replacing whatever the name held before.
+     * A linked result needs no re-indexing when the content already lives in the same project.
+     */
+    public CompletedUpload completeUpload(String projectId, String fileName) {
+        Project project = projectRepository.findById(projectId);
+        if (project == null) {
+            throw new IllegalArgumentException("Project not found: " + projectId);
+        }
+
+        String bucketName = project.getBucketName() != null ? project.getBucketName() : defaultBucketName;
+        String prefix = project.getBucketPrefix() != null ? project.getBucketPrefix() : (projectId + "/");
+        String objectName = prefix + fileName;
+
+        // BYOB buckets belong to the user and are uploaded to in place; never delete their objects
+        boolean deduplicated = isDeduplicated(project);
+        BlobId uploaded = BlobId.of(bucketName, deduplicated ? stagingName(projectId, fileName) : objectName);
+        Blob blob = storage.get(uploaded);
+        if (blob == null) {
+            throw new IllegalArgumentException("Uploaded document not found: " + uploaded.getName());
+        }
+
+        String contentHash = "sha256-" + hash(blob.getBlobId());
+        DocumentLink link = new DocumentLink(
+                DocumentContentRepository.linkId(projectId, fileName),
+                projectId,
+                fileName,
+                contentHash,
+                bucketName,
+                objectName,
+                blob.getContentType(),
+                blob.getSize(),
+                Instant.now().toString());
+
+        if (!deduplicated) {
+            return new CompletedUpload(link, true);
+        }
+
+        DocumentLink existing = documentContentRepository.findLink(projectId, fileName);
+        if (existing != null && contentHash.equals(existing.getContentHash())) {
+            storage.delete(uploaded);
+            return new CompletedUpload(existing, false);
+        }
+        if (existing != null) {
+            // Hands the old bytes to a successor first if other names still link to them
+            releaseReference(projectId, fileName);
+        }
+
+        storage.copy(Storage.CopyRequest.of(uploaded, BlobId.of(bucketName, objectName))).getResult();
+        storage.delete(uploaded);
+
+        DocumentContent candidate = new DocumentContent(contentHash, bucketName, objectName,
+                blob.getContentType(), blob.getSize(), link.getCreatedAt());
+        DocumentLink stored = documentContentRepository.addReference(link, candidate);
+
+        if (stored.isLinked()) {
+            DocumentContent content = documentContentRepository.findContent(contentHash);
+            if (content == null || storage.get(BlobId.of(content.getBucketName(), content.getObjectName())) == null) {
+                // Canonical copy vanished out-of-band; the new upload takes its place
+                documentContentRepository.promote(stored);
+                stored.setLinked(false);
+            } else {
+                storage.delete(bucketName, objectName);
+                log.info("Deduplicated {} in project {} against {}", fileName, projectId, content.getObjectName());
+                // Bytes under this project's prefix are already matched by its import wildcard
+                boolean inProject = content.getBucketName().equals(bucketName) && content.getObjectName().startsWith(prefix);
+                return new CompletedUpload(stored, !inProject);
+            }
+        }
+        return new CompletedUpload(stored, true);
     }
 
     public void deleteDocument(String projectId, String fileName) {
@@ -96,35 +231,123 @@ public class DocumentService {
         String prefix = project.getBucketPrefix() != null ? project.getBucketPrefix() : (projectId + "/");
         String objectName = prefix + fileName;
 
+        if (isDeduplicated(project) && documentContentRepository.findLink(projectId, fileName) != null) {
+            releaseReference(projectId, fileName);
+            return;
+        }
+
         boolean deleted = storage.delete(bucketName, objectName);
         if (!deleted) {
             throw new RuntimeException("Failed to delete document: " + objectName + " (it might not exist)");
         }
     }
 
+    /**
+     * Drops a name's reference to shared content. The physical object is deleted with the last
+     * reference; if other names still point at it, it is first copied to one of their locations
+     * and the other projects linking to it are re-indexed against the new location.
+     */
+    private void releaseReference(String projectId, String fileName) {
+        DocumentLink link = documentContentRepository.findLink(projectId, fileName);
+        if (link == null) return;
+
+        DocumentContent content = documentContentRepository.removeReference(projectId, fileName);
+        if (link.isLinked()) return;
+
+        // A missing content record still leaves this name's object behind, so it is deleted all the same
+        BlobId canonical = BlobId.of(link.getBucketName(), link.getObjectName());
+        if (content != null && content.getRefCount() > 0) {
+            List<DocumentLink> remaining = documentContentRepository.findLinksByContent(content.getId());
+            if (!remaining.isEmpty()) {
+                DocumentLink successor = remaining.get(0);
+                storage.copy(Storage.CopyRequest.of(canonical, BlobId.of(successor.getBucketName(), successor.getObjectName())))
+                        .getResult();
+                documentContentRepository.promote(successor);
+
+                Set<String> projects = new LinkedHashSet<>();
+                for (DocumentLink other : remaining) projects.add(other.getProjectId());
+                projects.remove(projectId);
+                projects.forEach(this::reindex);
+            }
+        }
+        storage.delete(canonical);
+    }
+
+    private void reindex(String projectId) {
+        try {
+            projectService.triggerSync(projectId);
+        } catch (RuntimeException e) {
+            // Picked up by the project's next sync
+            log.warn("Failed to re-index project {} after its document moved", projectId, e);
+        }
+    }
+
+    /** Deletes staged uploads that never reached {@link #completeUpload}. */
+    @Scheduled(fixedDelayString = "${doctalk.gcs.staging-sweep-interval:1h}")
+    public void sweepStaging() {
+        Instant cutoff = Instant.now().minus(stagingTtl);
+        int deleted = 0;
+        for (Blob blob : storage.list(defaultBucketName, Storage.BlobListOption.prefix(STAGING_PREFIX)).iterateAll()) {
+            if (blob.getCreateTimeOffsetDateTime().toInstant().isBefore(cutoff) && storage.delete(blob.getBlobId())) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} abandoned staged uploads", deleted);
+        }
+    }
+
+    /** Where an upload to a deduplicated project waits until {@link #completeUpload} has hashed it. */
+    static String stagingName(String projectId, String fileName) {
+        return STAGING_PREFIX + projectId + "/" + fileName;
+    }
+
+    /** Parses {@code gs://bucket-name/object-name}; null if the URI has no object part. */
+    static BlobId parseGsUri(String gsUri) {
+        String path = gsUri.substring(5);
+        int firstSlash = path.indexOf('/');
+        if (firstSlash == -1) return null;
+        return BlobId.of(path.substring(0, firstSlash), path.substring(firstSlash + 1));
+    }
+
+    private boolean isDeduplicated(Project project) {
+        return project.getStorageMode() != StorageMode.BYOB;
+    }
+
+    private String hash(BlobId blobId) {
+        try (ReadChannel reader = storage.reader(blobId)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+            while (reader.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to hash document: " + blobId.getName(), e);
+        }
+    }
+
     public String generateReadSignedUrl(String gsUri) {
         if (gsUri == null || !gsUri.startsWith("gs://")) {
             return gsUri;
         }
 
         try {
-            // gs://bucket-name/object-name
-            String path = gsUri.substring(5);
-            int firstSlash = path.indexOf('/');
-            if (firstSlash == -1) return gsUri;
+            BlobId blobId = parseGsUri(gsUri);
+            if (blobId == null) return gsUri;
 
-            String bucket = path.substring(0, firstSlash);
-            String objectName = path.substring(firstSlash + 1);
+            BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
 
-            BlobInfo blobInfo = BlobInfo.newBuilder(bucket, objectName).build();
-            
-            URL url = storage.signUrl(
+            // Signing may call IAM; while the guard is open this falls back without waiting on it
+            URL url = storageGuard.call(() -> storage.signUrl(
                     blobInfo,
                     60, // Valid for 1 hour
                     TimeUnit.MINUTES,
                     Storage.SignUrlOption.httpMethod(HttpMethod.GET),
                     Storage.SignUrlOption.withV4Signature()
-            );
+            ));
             return url.toString();
         } catch (Exception e) {
             // Fallback to original URI if signing fails
@@ -0,0 +1,369 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.model.entity.Project;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for Gemini calls. A call needs a global and a per-project concurrency
+ * slot plus room in the global and per-project token buckets (tokens per minute, debited
+ * by an estimate up front and corrected with the real usage afterwards).
+ * <p>
+ * Calls that cannot start wait in a bounded per-project queue. Free capacity goes to the
+ * waiting project that has consumed the fewest tokens relative to its
+ * {@link Project#getSchedulingWeight() weight} (weighted fair queueing), so one tenant's
+ * batch cannot starve everyone else. Full queues and long waits are rejected with a
+ * retry-after hint instead of piling up.
+ * <p>
+ * Only projects with waiting calls are considered when capacity frees up, in virtual-time
+ * order, and a project's bookkeeping is dropped once it has been idle long enough for its
+ * token bucket to refill.
+ */
+@Component
+public class GenerationAdmission {
+
+    // Waiters re-check on this interval because token buckets refill with time, not on release
+    private static final long REFILL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double HOLD_SMOOTHING = 0.2;
+    // A bucket refills completely within a minute, so an idle project has nothing left to remember after one
+    private static final long PRUNE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final int maxConcurrency;
+    private final int projectMaxConcurrency;
+    private final int maxQueue;
+    private final int projectMaxQueue;
+    private final long maxWaitNanos;
+    private final long projectTokensPerMinute;
+    private final TokenBucket globalTokens;
+    private final MeterRegistry registry;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ProjectQueue> projects = new HashMap<>();
+    // Projects with waiting calls, lowest virtual time first; a queue's virtual time only changes while it is out of this set
+    private final TreeSet<ProjectQueue> backlogged = new TreeSet<>(
+            Comparator.<ProjectQueue>comparingDouble(q -> q.virtualTime).thenComparing(q -> q.id));
+    private long prunedAt = System.nanoTime();
+    private volatile int active;
+    private volatile int waiting;
+    private double virtualClock;
+    private double averageHoldNanos;
+
+    public GenerationAdmission(MeterRegistry registry,
+                               @Value("${doctalk.admission.max-concurrency:32}") int maxConcurrency,
+                               @Value("${doctalk.admission.project-max-concurrency:8}") int projectMaxConcurrency,
+                               @Value("${doctalk.admission.tokens-per-minute:0}") long tokensPerMinute,
+                               @Value("${doctalk.admission.project-tokens-per-minute:0}") long projectTokensPerMinute,
+                               @Value("${doctalk.admission.max-queue:200}") int maxQueue,
+                               @Value("${doctalk.admission.project-max-queue:50}") int projectMaxQueue,
+                               @Value("${doctalk.admission.max-wait:30s}") Duration maxWait) {
+        this.registry = registry;
+        this.maxConcurrency = maxConcurrency;
+        this.projectMaxConcurrency = projectMaxConcurrency;
+        this.maxQueue = maxQueue;
+        this.projectMaxQueue = projectMaxQueue;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.projectTokensPerMinute = projectTokensPerMinute;
+        this.globalTokens = new TokenBucket(tokensPerMinute);
+
+        Gauge.builder("doctalk.admission.queue.depth", this, a -> a.waiting)
+                .description("Gemini calls waiting for admission")
+                .register(registry);
+        Gauge.builder("doctalk.admission.active", this, a -> a.active)
+                .description("Gemini calls currently admitted")
+                .register(registry);
+    }
+
+    /**
+     * Fails fast if {@code project} could not queue another call right now. Lets a caller
+     * reject a request before doing any work for it; {@link #acquire} checks again.
+     */
+    public void checkQueue(Project project) {
+        lock.lock();
+        try {
+            ProjectQueue queue = projects.get(project.getId());
+            int queued = queue == null ? 0 : queue.waiters.size();
+            if (waiting >= maxQueue || queued >= projectMaxQueue) {
+                throw reject(project.getId(), "queue_full", queue, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a call for {@code project} estimated at {@code estimatedTokens} may start.
+     * The returned permit must be closed when the call finishes.
+     *
+     * @throws AdmissionRejectedException if the queue is full or the wait exceeds the limit
+     */
+    public Permit acquire(Project project, int estimatedTokens) {
+        lock.lock();
+        try {
+            pruneIdle();
+            ProjectQueue queue = projects.computeIfAbsent(project.getId(), ProjectQueue::new);
+            queue.weight = weight(project);
+            if (queue.waiters.isEmpty() && queue.active == 0) {
+                // A project returning from idle starts level with the others, not with banked credit
+                queue.virtualTime = Math.max(queue.virtualTime, virtualClock);
+            }
+
+            Permit permit = new Permit(queue, estimatedTokens);
+            if (queue.waiters.isEmpty()) {
+                backlogged.add(queue);
+            }
+            queue.waiters.add(permit);
+            waiting++;
+            dispatch();
+
+            if (permit.state == State.WAITING && (waiting > maxQueue || queue.waiters.size() > projectMaxQueue)) {
+                permit.abandon();
+                throw reject(project.getId(), "queue_full", queue, estimatedTokens);
+            }
+
+            long deadline = permit.enqueuedAt + maxWaitNanos;
+            while (permit.state == State.WAITING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    permit.abandon();
+                    recordWait("timeout", permit.enqueuedAt);
+                    throw reject(project.getId(), "timeout", queue, estimatedTokens);
+                }
+                try {
+                    permit.admitted.awaitNanos(Math.min(remaining, REFILL_CHECK_NANOS));
+                } catch (InterruptedException e) {
+                    permit.abandon();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted waiting for generation capacity", e);
+                }
+                dispatch();
+            }
+            return permit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Starts as many waiting calls as capacity allows, lowest virtual time first. Caller holds the lock. */
+    private void dispatch() {
+        while (active < maxConcurrency) {
+            ProjectQueue next = null;
+            for (ProjectQueue queue : backlogged) {
+                if (queue.active < projectMaxConcurrency && queue.tokens.covers(queue.waiters.peek().estimatedTokens)) {
+                    next = queue;
+                    break;
+                }
+            }
+            if (next == null || !globalTokens.covers(next.waiters.peek().estimatedTokens)) {
+                return;
+            }
+
+            backlogged.remove(next);
+            Permit permit = next.waiters.poll();
+            waiting--;
+            virtualClock = next.virtualTime;
+            next.virtualTime += Math.max(1, permit.estimatedTokens) / next.weight;
+            if (!next.waiters.isEmpty()) {
+                backlogged.add(next);
+            }
+            next.active++;
+            active++;
+            next.tokens.take(permit.estimatedTokens);
+            globalTokens.take(permit.estimatedTokens);
+
+            permit.state = State.ADMITTED;
+            permit.admittedAt = System.nanoTime();
+            recordWait("admitted", permit.enqueuedAt);
+            permit.admitted.signal();
+        }
+    }
+
+    /** Forgets projects with nothing waiting or running whose buckets are full again. Caller holds the lock. */
+    private void pruneIdle() {
+        long now = System.nanoTime();
+        if (now - prunedAt < PRUNE_INTERVAL_NANOS) return;
+        prunedAt = now;
+        projects.values().removeIf(queue -> queue.waiters.isEmpty() && queue.active == 0 && queue.tokens.full());
+    }
+
+    private AdmissionRejectedException reject(String projectId, String reason, ProjectQueue queue, int estimatedTokens) {
+        registry.counter("doctalk.admission.rejected", "project", projectId, "reason", reason).increment();
+        return new AdmissionRejectedException(
+                "timeout".equals(reason) ? "Timed out waiting for generation capacity" : "Too many requests waiting for generation capacity",
+                retryAfter(queue, estimatedTokens));
+    }
+
+    /** Roughly how long until the queue ahead drains and the buckets hold enough tokens. */
+    private Duration retryAfter(ProjectQueue queue, int estimatedTokens) {
+        double hold = averageHoldNanos > 0 ? averageHoldNanos : TimeUnit.SECONDS.toNanos(1);
+        double nanos = hold * (waiting + 1) / maxConcurrency;
+        nanos = Math.max(nanos, globalTokens.nanosUntil(estimatedTokens));
+        if (queue != null) {
+            nanos = Math.max(nanos, hold * (queue.waiters.size() + 1) / projectMaxConcurrency);
+            nanos = Math.max(nanos, queue.tokens.nanosUntil(estimatedTokens));
+        }
+        return Duration.ofNanos(Math.max((long) nanos, TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private void recordWait(String outcome, long enqueuedAt) {
+        Timer.builder("doctalk.admission.wait")
+                .description("Time Gemini calls spent waiting for admission")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+    }
+
+    private static double weight(Project project) {
+        Double weight = project.getSchedulingWeight();
+        return weight != null && weight > 0 ? weight : 1.0;
+    }
+
+    private enum State { WAITING, ADMITTED, RELEASED }
+
+    /** An admitted call. Closing it frees its slots for the next waiter. */
+    public final class Permit implements AutoCloseable {
+
+        private final ProjectQueue queue;
+        private final int estimatedTokens;
+        private final Condition admitted = lock.newCondition();
+        private final long enqueuedAt = System.nanoTime();
+        private long admittedAt;
+        private State state = State.WAITING;
+        private boolean usageRecorded;
+
+        private Permit(ProjectQueue queue, int estimatedTokens) {
+            this.queue = queue;
+            this.estimatedTokens = estimatedTokens;
+        }
+
+        /** Replaces the up-front estimate with the tokens the call actually used. */
+        public void recordUsage(int totalTokens) {
+            lock.lock();
+            try {
+                if (usageRecorded) return;
+                usageRecorded = true;
+                int correction = totalTokens - estimatedTokens;
+                queue.tokens.take(correction);
+                globalTokens.take(correction);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (state != State.ADMITTED) return;
+                double held = System.nanoTime() - admittedAt;
+                averageHoldNanos = averageHoldNanos == 0 ? held : averageHoldNanos + HOLD_SMOOTHING * (held - averageHoldNanos);
+                release();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gives up a permit whose caller stops waiting. It may have been admitted meanwhile: an
+         * interrupted wait re-takes the lock before it throws, and a release can dispatch to it
+         * first. Its slots and tokens are then handed back, since the call never runs. Caller
+         * holds the lock.
+         */
+        private void abandon() {
+            if (state == State.ADMITTED) {
+                queue.tokens.take(-estimatedTokens);
+                globalTokens.take(-estimatedTokens);
+                release();
+                return;
+            }
+            if (queue.waiters.remove(this)) {
+                waiting--;
+                if (queue.waiters.isEmpty()) {
+                    backlogged.remove(queue);
+                }
+            }
+            state = State.RELEASED;
+        }
+
+        /** Frees an admitted permit's slots for the next waiter. Caller holds the lock. */
+        private void release() {
+            state = State.RELEASED;
+            queue.active--;
+            active--;
+            dispatch();
+        }
+    }
+
+    private final class ProjectQueue {
+        final String id;
+        final ArrayDeque<Permit> waiters = new ArrayDeque<>();
+        final TokenBucket tokens = new TokenBucket(projectTokensPerMinute);
+        int active;
+        double weight = 1.0;
+        double virtualTime;
+
+        ProjectQueue(String id) {
+            this.id = id;
+        }
+    }
+
+    /** Holds up to a minute of tokens, refilled continuously. A limit of 0 means unlimited. */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double refillPerNano;
+        private double available;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(long tokensPerMinute) {
+            this.capacity = tokensPerMinute;
+            this.refillPerNano = tokensPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available = capacity;
+        }
+
+        /** Calls larger than the whole bucket are let through once it is full. */
+        boolean covers(int tokens) {
+            if (capacity <= 0) return true;
+            refill();
+            return available >= Math.min(tokens, capacity);
+        }
+
+        /** Negative amounts refund tokens; a call that overran its estimate can leave the bucket in debt. */
+        void take(int tokens) {
+            if (capacity <= 0) return;
+            refill();
+            available = Math.min(capacity, available - tokens);
+        }
+
+        boolean full() {
+            if (capacity <= 0) return true;
+            refill();
+            return available >= capacity;
+        }
+
+        double nanosUntil(int tokens) {
+            if (capacity <= 0) return 0;
+            refill();
+            double missing = Math.min(tokens, capacity) - available;
+            return missing <= 0 ? 0 : missing / refillPerNano;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - refilledAt) * refillPerNano);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.sanjeets.DocTalk.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Single-flight for identical generations. While a generation for a key is in flight,
+ * later callers with the same key subscribe to it instead of starting their own, and
+ * receive every element from the beginning. The upstream is cancelled only once all of
+ * its subscribers have gone.
+ */
+@Component
+public class GenerationCoalescer {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.]+$");
+    private static final char SEPARATOR = '\u0000';
+
+    private final Map<String, Flux<?>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry registry;
+
+    public GenerationCoalescer(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("doctalk.chat.coalesce.inflight", inFlight, Map::size)
+                .description("Distinct generations currently shared between subscribers")
+                .register(registry);
+    }
+
+    /**
+     * Identifies a first-turn question: the same words, for the same project, prompt and
+     * index version, get the same grounded answer.
+     */
+    public static String key(String projectId, String promptId, String indexVersion, String question) {
+        return projectId + SEPARATOR + (promptId != null ? promptId : "") + SEPARATOR
+                + (indexVersion != null ? indexVersion : "") + SEPARATOR + normalize(question);
+    }
+
+    /** Case, Unicode form, runs of whitespace and trailing punctuation do not change the question. */
+    static String normalize(String question) {
+        String normalized = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        normalized = WHITESPACE.matcher(normalized.strip()).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+
+    /** Returns the in-flight generation for {@code key}, starting one from {@code generation} if there is none. */
+    @SuppressWarnings("unchecked")
+    public <T> Flux<T> join(String key, Supplier<Flux<T>> generation) {
+        boolean[] leader = {false};
+        Flux<T> shared = (Flux<T>) inFlight.computeIfAbsent(key, k -> {
+            leader[0] = true;
+            return generation.get()
+                    .doFinally(signal -> inFlight.remove(k))
+                    .replay()
+                    .refCount(1);
+        });
+        registry.counter("doctalk.chat.coalesce", "role", leader[0] ? "leader" : "follower").increment();
+        return shared;
+    }
+}
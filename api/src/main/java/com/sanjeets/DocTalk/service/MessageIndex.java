@@ -0,0 +1,238 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.model.dto.ChatSearchHit;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over one project's message contents, ranked with BM25. Messages are keyed by
+ * ID, so putting one again replaces it. Reads share a lock and writes take it exclusively; a
+ * search holds it only while scoring, which is in-memory and proportional to the postings of
+ * the query's terms.
+ */
+final class MessageIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int SNIPPET_CHARS = 160;
+    private static final int SNIPPET_LEAD = 60;
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "do", "for", "from", "how", "i", "in", "is", "it",
+            "me", "my", "of", "on", "or", "that", "the", "this", "to", "was", "we", "what", "with", "you");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>(); // term -> message ID -> frequency
+    private final Map<String, Entry> messages = new HashMap<>();
+    private final Map<String, String> sessionTitles = new HashMap<>();
+    private final long builtAtMillis;
+    private long totalLength;
+    private volatile boolean dirty;
+
+    /** What is kept of a message: enough to rank it, remove it and show a hit. */
+    private record Entry(String id, String sessionId, MessageRole role, String createdAt, String content,
+                         int length, Map<String, Integer> terms) {}
+
+    /** The index as saved to disk; postings are rebuilt from the messages when it is read back. */
+    record Snapshot(long builtAtMillis, Map<String, String> sessionTitles, List<ChatMessage> messages) {}
+
+    MessageIndex(long builtAtMillis) {
+        this.builtAtMillis = builtAtMillis;
+    }
+
+    static MessageIndex of(Snapshot snapshot) {
+        MessageIndex index = new MessageIndex(snapshot.builtAtMillis());
+        index.sessionTitles.putAll(snapshot.sessionTitles());
+        snapshot.messages().forEach(index::putLocked);
+        return index;
+    }
+
+    /** When the index was last built from Firestore; later changes are applied on top. */
+    long builtAtMillis() {
+        return builtAtMillis;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void putSession(String sessionId, String title) {
+        lock.writeLock().lock();
+        try {
+            sessionTitles.put(sessionId, title);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void put(ChatMessage message) {
+        if (message.getContent() == null) return;
+        lock.writeLock().lock();
+        try {
+            putLocked(message);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void removeSession(String sessionId) {
+        lock.writeLock().lock();
+        try {
+            sessionTitles.remove(sessionId);
+            List<String> ids = new ArrayList<>();
+            for (Entry entry : messages.values()) {
+                if (entry.sessionId().equals(sessionId)) ids.add(entry.id());
+            }
+            ids.forEach(this::removeLocked);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** The best {@code limit} messages for {@code query}, best first. */
+    List<ChatSearchHit> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokens(query));
+        if (terms.isEmpty()) return List.of();
+
+        lock.readLock().lock();
+        try {
+            int count = messages.size();
+            if (count == 0) return List.of();
+            double averageLength = Math.max(1.0, (double) totalLength / count);
+
+            Map<String, Double> scores = new HashMap<>();
+            for (String term : terms) {
+                Map<String, Integer> matches = postings.get(term);
+                if (matches == null) continue;
+                double idf = Math.log(1 + (count - matches.size() + 0.5) / (matches.size() + 0.5));
+                for (Map.Entry<String, Integer> match : matches.entrySet()) {
+                    int frequency = match.getValue();
+                    double norm = K1 * (1 - B + B * messages.get(match.getKey()).length() / averageLength);
+                    scores.merge(match.getKey(), idf * frequency * (K1 + 1) / (frequency + norm), Double::sum);
+                }
+            }
+
+            // Keep the top hits only, rather than sorting every match
+            PriorityQueue<Map.Entry<String, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                top.add(score);
+                if (top.size() > limit) top.poll();
+            }
+            List<Map.Entry<String, Double>> ranked = new ArrayList<>(top);
+            ranked.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+
+            List<ChatSearchHit> hits = new ArrayList<>(ranked.size());
+            for (Map.Entry<String, Double> score : ranked) {
+                Entry entry = messages.get(score.getKey());
+                hits.add(new ChatSearchHit(entry.id(), entry.sessionId(), sessionTitles.get(entry.sessionId()),
+                        entry.role(), entry.createdAt(), snippet(entry.content(), terms), score.getValue()));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** A copy to save, or null if nothing changed since the last one. Writers are held off meanwhile. */
+    Snapshot snapshotIfDirty() {
+        lock.readLock().lock();
+        try {
+            if (!dirty) return null;
+            dirty = false;
+            List<ChatMessage> saved = new ArrayList<>(messages.size());
+            for (Entry entry : messages.values()) {
+                saved.add(new ChatMessage(entry.id(), entry.sessionId(), entry.role(), entry.content(), entry.createdAt()));
+            }
+            return new Snapshot(builtAtMillis, new HashMap<>(sessionTitles), saved);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Marks the index as needing to be saved, e.g. when a save failed. */
+    void markDirty() {
+        dirty = true;
+    }
+
+    private void putLocked(ChatMessage message) {
+        removeLocked(message.getId());
+        Map<String, Integer> terms = new HashMap<>();
+        int length = 0;
+        for (String token : tokens(message.getContent())) {
+            terms.merge(token, 1, Integer::sum);
+            length++;
+        }
+        messages.put(message.getId(), new Entry(message.getId(), message.getSessionId(), message.getRole(),
+                message.getCreatedAt(), message.getContent(), length, terms));
+        for (Map.Entry<String, Integer> term : terms.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), t -> new HashMap<>()).put(message.getId(), term.getValue());
+        }
+        totalLength += length;
+    }
+
+    private void removeLocked(String messageId) {
+        Entry previous = messages.remove(messageId);
+        if (previous == null) return;
+        for (String term : previous.terms().keySet()) {
+            Map<String, Integer> matches = postings.get(term);
+            matches.remove(messageId);
+            if (matches.isEmpty()) postings.remove(term);
+        }
+        totalLength -= previous.length();
+    }
+
+    /** Words and numbers, case- and Unicode-form-folded, without stopwords. */
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            String token = fold(matcher.group());
+            if (!STOPWORDS.contains(token)) tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static String fold(String token) {
+        return Normalizer.normalize(token, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    /** About {@link #SNIPPET_CHARS} of {@code content} around the first query term, on one line. */
+    static String snippet(String content, Set<String> terms) {
+        String text = WHITESPACE.matcher(content.strip()).replaceAll(" ");
+        int at = 0;
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            if (terms.contains(fold(matcher.group()))) {
+                at = matcher.start();
+                break;
+            }
+        }
+        int start = Math.max(0, at - SNIPPET_LEAD);
+        int end = Math.min(text.length(), start + SNIPPET_CHARS);
+        start = Math.max(0, Math.min(start, end - SNIPPET_CHARS));
+        return (start > 0 ? "..." : "") + text.substring(start, end) + (end < text.length() ? "..." : "");
+    }
+}
@@ -0,0 +1,142 @@
+package com.sanjeets.DocTalk.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the model for a chat turn. With {@code doctalk.chat.routing.policy} {@code auto}, each
+ * turn is classified from cheap local features (question length, wording, history length) and
+ * sent to the fast model unless it looks like it needs the strong one ({@code doctalk.chat.model}).
+ * {@code strong} and {@code fast} pin every turn to one model.
+ * <p>
+ * Streamed turns on the strong model are hedged: if no response has arrived {@code hedge-after}
+ * past its admission, the same turn is started on the fast model and whichever answers first is kept. Routes are counted by {@code doctalk.chat.route}, hedges by {@code doctalk.chat.route.hedge}.
+ */
+@Component
+public class ModelRouter {
+
+    public static final String FAST = "fast";
+    public static final String STRONG = "strong";
+
+    // Turns that only acknowledge or greet; no retrieval or reasoning to speak of
+    private static final Pattern ACKNOWLEDGEMENT = Pattern.compile(
+            "^(thanks?( you)?|thx|ok(ay)?|great|got it|cool|perfect|yes|no|hi|hello|hey)\\b[\\s!.?]*$");
+    // Wording that asks for comparison, explanation or synthesis across documents
+    private static final Pattern REASONING = Pattern.compile(
+            "\\b(why|compare|comparison|contrast|differences?|explain|analy[sz]e|analysis|summari[sz]e|evaluate"
+                    + "|implications?|trade-?offs?|pros and cons|step by step|in detail|reconcile)\\b");
+
+    public enum Policy { AUTO, FAST, STRONG }
+
+    /** Where a turn goes: {@link #FAST} or {@link #STRONG}, the model, and why. */
+    public record Route(String name, String model, String reason) {}
+
+    private final MeterRegistry registry;
+    private final Policy policy;
+    private final String strongModel;
+    private final String fastModel;
+    private final int fastMaxQuestionTokens;
+    private final int fastMaxHistoryMessages;
+    private final Duration hedgeAfter;
+
+    public ModelRouter(MeterRegistry registry,
+                       @Value("${doctalk.chat.routing.policy:auto}") String policy,
+                       @Value("${doctalk.chat.model:gemini-1.5-flash-001}") String strongModel,
+                       @Value("${doctalk.chat.routing.fast-model:gemini-2.5-flash}") String fastModel,
+                       @Value("${doctalk.chat.routing.fast-max-question-tokens:40}") int fastMaxQuestionTokens,
+                       @Value("${doctalk.chat.routing.fast-max-history-messages:6}") int fastMaxHistoryMessages,
+                       @Value("${doctalk.chat.routing.hedge-after:0s}") Duration hedgeAfter) {
+        this.registry = registry;
+        this.policy = Policy.valueOf(policy.strip().toUpperCase(Locale.ROOT));
+        this.strongModel = strongModel;
+        this.fastModel = fastModel;
+        this.fastMaxQuestionTokens = fastMaxQuestionTokens;
+        this.fastMaxHistoryMessages = fastMaxHistoryMessages;
+        this.hedgeAfter = hedgeAfter;
+    }
+
+    /**
+     * Routes a turn asking {@code question} after {@code historyMessages} messages of history;
+     * {@code summarized} means older turns were folded into a summary as well.
+     */
+    public Route route(String question, int historyMessages, boolean summarized) {
+        Route route = switch (policy) {
+            case STRONG -> strong("policy");
+            case FAST -> fast("policy");
+            case AUTO -> classify(question, historyMessages, summarized);
+        };
+        registry.counter("doctalk.chat.route", "route", route.name(), "reason", route.reason()).increment();
+        return route;
+    }
+
+    private Route classify(String question, int historyMessages, boolean summarized) {
+        String normalized = GenerationCoalescer.normalize(question);
+        if (ACKNOWLEDGEMENT.matcher(normalized).matches()) return fast("acknowledgement");
+        if (TokenAccounting.estimate(question) > fastMaxQuestionTokens) return strong("long_question");
+        if (REASONING.matcher(normalized).find()) return strong("reasoning");
+        if (summarized || historyMessages > fastMaxHistoryMessages) return strong("long_history");
+        return fast("simple");
+    }
+
+    /** The fast route a hedged turn falls back to. */
+    public Route fallback() {
+        return fast("hedge");
+    }
+
+    /**
+     * {@code primary} alone, unless {@code route} is strong and it has emitted nothing
+     * {@code hedge-after} after it was admitted. Then {@code fallback} is started as well; the first
+     * to emit is kept and the other cancelled. Both hold their own admission permit while they race;
+     * a fallback that fails never ends the turn, which is then the primary's to answer or fail.
+     * <p>
+     * {@code primary} is handed the callback to run once its admission permit is granted; time
+     * spent queueing for one is not the model being slow, and a hedge would only queue behind it.
+     */
+    public <T> Flux<T> hedge(Route route, Function<Runnable, Flux<T>> primary, Supplier<Flux<T>> fallback) {
+        if (!STRONG.equals(route.name()) || hedgeAfter.isZero() || strongModel.equals(fastModel)) {
+            return primary.apply(() -> {});
+        }
+        return Flux.defer(() -> {
+            AtomicBoolean hedged = new AtomicBoolean();
+            AtomicBoolean decided = new AtomicBoolean();
+            Sinks.Empty<Void> admitted = Sinks.empty();
+            Flux<T> late = admitted.asMono()
+                    .then(Mono.delay(hedgeAfter))
+                    .flatMapMany(tick -> {
+                        hedged.set(true);
+                        return fallback.get();
+                    })
+                    .doOnNext(item -> {
+                        if (decided.compareAndSet(false, true)) recordHedge("fallback");
+                    })
+                    // A hedge that is rejected or fails leaves the answer to the primary
+                    .onErrorResume(e -> Flux.never());
+            return Flux.firstWithSignal(primary.apply(admitted::tryEmitEmpty).doOnNext(item -> {
+                if (decided.compareAndSet(false, true) && hedged.get()) recordHedge("primary");
+            }), late);
+        });
+    }
+
+    private void recordHedge(String winner) {
+        registry.counter("doctalk.chat.route.hedge", "winner", winner).increment();
+    }
+
+    private Route strong(String reason) {
+        return new Route(STRONG, strongModel, reason);
+    }
+
+    private Route fast(String reason) {
+        return new Route(FAST, fastModel, reason);
+    }
+}
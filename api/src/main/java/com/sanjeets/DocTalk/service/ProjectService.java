@@ -1,37 +1,55 @@
 package com.sanjeets.DocTalk.service;
 
 import com.sanjeets.DocTalk.controller.dto.CreateProjectRequest;
+import com.sanjeets.DocTalk.model.dto.PageResult;
 import com.sanjeets.DocTalk.model.entity.Project;
 import com.sanjeets.DocTalk.model.entity.ProjectStatus;
 import com.sanjeets.DocTalk.model.entity.StorageMode;
 import com.sanjeets.DocTalk.repository.ProjectRepository;
+import com.sanjeets.DocTalk.repository.ReactiveProjectRepository;
+import io.micrometer.observation.annotation.Observed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
 public class ProjectService {
 
+    private static final Logger log = LoggerFactory.getLogger(ProjectService.class);
+    private static final Duration SYNC_CLAIM_TIMEOUT = Duration.ofMinutes(5);
+
     private final ProjectRepository projectRepository;
+    private final ReactiveProjectRepository reactiveProjectRepository;
     private final SearchInfraService searchInfraService;
+    private final Scheduler blockingScheduler;
 
     @Value("${doctalk.gcs.bucket-name}")
     private String defaultBucketName;
 
-    public ProjectService(ProjectRepository projectRepository, SearchInfraService searchInfraService) {
+    public ProjectService(ProjectRepository projectRepository, ReactiveProjectRepository reactiveProjectRepository,
+                          SearchInfraService searchInfraService, Scheduler blockingScheduler) {
         this.projectRepository = projectRepository;
+        this.reactiveProjectRepository = reactiveProjectRepository;
         this.searchInfraService = searchInfraService;
+        this.blockingScheduler = blockingScheduler;
     }
 
-    public Project createProject(CreateProjectRequest request) {
+    public Mono<Project> createProject(CreateProjectRequest request) {
         String id = UUID.randomUUID().toString();
         Project project = new Project();
         project.setId(id);
         project.setName(request.getName());
         project.setStatus(ProjectStatus.CREATED);
+        project.setStatusChangedAt(Instant.now().toString());
         project.setGcsPrefix(id + "/"); // For backward compatibility
         project.setCreatedAt(Instant.now().toString());
 
@@ -52,80 +70,104 @@ public class ProjectService {
             project.setBucketPrefix(id + "/");
         }
 
-        projectRepository.save(project);
-
-        // Trigger Async Provisioning
-        searchInfraService.provisionProject(project.getId());
-
-        return project;
+        return reactiveProjectRepository.save(project)
+                // Trigger Async Provisioning
+                .then(Mono.fromRunnable(() -> searchInfraService.provisionProject(project.getId())))
+                .thenReturn(project);
     }
 
-    public List<Project> getAllProjects() {
-        List<Project> projects = projectRepository.findAll();
-        for (Project project : projects) {
-            if ("RUNNING".equals(project.getImportStatus()) && project.getLatestImportOperation() != null) {
-                try {
-                    SearchInfraService.ImportStatusResult result = searchInfraService.getImportOperationStatus(project.getLatestImportOperation());
-                    if (!"RUNNING".equals(result.status)) {
-                        project.setImportStatus(result.status);
-                        if ("COMPLETED".equals(result.status) && result.completionTime != null) {
-                            project.setLastIndexedAt(result.completionTime);
+    public Mono<PageResult<Project>> listProjects(ProjectStatus status, int pageSize, String pageToken, boolean summary) {
+        return reactiveProjectRepository.findPage(status, pageSize, pageToken, summary)
+                // Refreshing a running import polls Discovery Engine, which blocks
+                .publishOn(blockingScheduler)
+                .map(page -> {
+                    for (Project project : page.getItems()) {
+                        try {
+                            refreshImportStatus(project);
+                        } catch (Exception e) {
+                            // Log but don't fail the list
+                            log.warn("Failed to check status for project {}", project.getId(), e);
                         }
-                        projectRepository.save(project);
                     }
-                } catch (Exception e) {
-                    // Log but don't fail the list
-                    System.err.println("Failed to check status for project " + project.getId());
-                }
-            }
-        }
-        return projects;
+                    return page;
+                });
     }
 
+    @Observed(name = "doctalk.service")
     public Project getProject(String id) {
         Project project = projectRepository.findById(id);
-        if (project != null && "RUNNING".equals(project.getImportStatus()) && project.getLatestImportOperation() != null) {
+        if (project != null) {
+            refreshImportStatus(project);
+        }
+        return project;
+    }
+
+    private void refreshImportStatus(Project project) {
+        if ("RUNNING".equals(project.getImportStatus()) && project.getLatestImportOperation() != null) {
             // Check if operation finished
-            SearchInfraService.ImportStatusResult result = searchInfraService.getImportOperationStatus(project.getLatestImportOperation());
+            String operation = project.getLatestImportOperation();
+            SearchInfraService.ImportStatusResult result = searchInfraService.getImportOperationStatus(operation);
             if (!"RUNNING".equals(result.status)) {
-                project.setImportStatus(result.status);
+                Map<String, Object> fields = new HashMap<>();
+                fields.put("importStatus", result.status);
                 if ("COMPLETED".equals(result.status) && result.completionTime != null) {
-                    project.setLastIndexedAt(result.completionTime);
+                    fields.put("lastIndexedAt", result.completionTime);
+                }
+                // Only record the outcome if no newer sync has been started meanwhile
+                Map<String, Object> applied = projectRepository.update(project.getId(), current ->
+                        "RUNNING".equals(current.getImportStatus()) && operation.equals(current.getLatestImportOperation())
+                                ? fields : null);
+                if (applied != null) {
+                    project.setImportStatus(result.status);
+                    if (fields.containsKey("lastIndexedAt")) {
+                        project.setLastIndexedAt(result.completionTime);
+                    }
                 }
-                projectRepository.save(project);
             }
         }
-        return project;
     }
 
+    @Observed(name = "doctalk.service")
     public String triggerSync(String projectId) {
         Project project = getProject(projectId);
         if (project == null) throw new IllegalArgumentException("Project not found");
 
-        if ("RUNNING".equals(project.getImportStatus())) {
-            // Double check in case it finished but we haven't updated yet
-            if (project.getLatestImportOperation() != null) {
-                SearchInfraService.ImportStatusResult result = searchInfraService.getImportOperationStatus(project.getLatestImportOperation());
-                if ("RUNNING".equals(result.status)) {
-                    throw new IllegalStateException("Sync already in progress");
-                }
-            }
+        // Claim the sync slot atomically, so concurrent triggers on any replica start a single import
+        Map<String, Object> claim = new HashMap<>();
+        claim.put("importStatus", "RUNNING");
+        claim.put("latestImportOperation", null);
+        claim.put("importRequestedAt", Instant.now().toString());
+        Map<String, Object> claimed = projectRepository.update(projectId, current ->
+                "RUNNING".equals(current.getImportStatus()) && !isAbandonedClaim(current) ? null : claim);
+        if (claimed == null) {
+            throw new IllegalStateException("Sync already in progress");
         }
 
         // Use reconciliation mode based on storage mode
         boolean useFullSync = project.getStorageMode() == StorageMode.BYOB;
 
-        String opName = searchInfraService.importDocuments(
-                project.getId(),
-                project.getDataStoreId(),
-                project.getBucketName(),
-                project.getBucketPrefix(),
-                useFullSync
-        );
-        project.setLatestImportOperation(opName);
-        project.setImportStatus("RUNNING");
+        String opName;
+        try {
+            opName = searchInfraService.importDocuments(
+                    project.getId(),
+                    project.getDataStoreId(),
+                    project.getBucketName(),
+                    project.getBucketPrefix(),
+                    useFullSync
+            );
+        } catch (RuntimeException e) {
+            projectRepository.updateFields(projectId, Map.of("importStatus", "FAILED"));
+            throw e;
+        }
         // lastIndexedAt is updated only when the job completes
-        projectRepository.save(project);
+        projectRepository.updateFields(projectId, Map.of("latestImportOperation", opName));
         return opName;
     }
+
+    /** A claim whose import never got an operation name, e.g. because the claiming replica died. */
+    private boolean isAbandonedClaim(Project project) {
+        return project.getLatestImportOperation() == null
+                && project.getImportRequestedAt() != null
+                && Instant.parse(project.getImportRequestedAt()).plus(SYNC_CLAIM_TIMEOUT).isBefore(Instant.now());
+    }
 }
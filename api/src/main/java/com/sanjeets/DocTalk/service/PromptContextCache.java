@@ -0,0 +1,201 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.cloud.vertexai.api.CachedContent;
+import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.Tool;
+import com.sanjeets.DocTalk.config.ContextCacheClient;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vertex AI context caching for the fixed part of a chat request: model, persona and
+ * grounding tool. Each distinct prefix is keyed by a hash of its content, so an edited prompt
+ * is a new entry and the old one simply stops being used.
+ * <p>
+ * A prefix of at least {@code doctalk.chat.context-cache.min-tokens} is registered once it has
+ * been used {@code min-uses} times; registration runs in the background, so a turn never waits
+ * on it and sends the prefix inline until the entry exists. Entries still in use are extended
+ * before they expire, and idle ones are deleted. Each replica keeps its own entries.
+ */
+@Component
+public class PromptContextCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptContextCache.class);
+    // Entries this close to expiry are not handed out, so a request never references a vanished cache
+    private static final Duration EXPIRY_SLACK = Duration.ofSeconds(30);
+
+    private final ContextCacheClient client;
+    private final MeterRegistry registry;
+    private final Scheduler blockingScheduler;
+    private final boolean enabled;
+    private final int minTokens;
+    private final int minUses;
+    private final Duration ttl;
+    private final Duration refreshMargin;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public PromptContextCache(ContextCacheClient client, MeterRegistry registry, Scheduler blockingScheduler,
+                              @Value("${doctalk.chat.context-cache.enabled:true}") boolean enabled,
+                              @Value("${doctalk.chat.context-cache.min-tokens:4096}") int minTokens,
+                              @Value("${doctalk.chat.context-cache.min-uses:3}") int minUses,
+                              @Value("${doctalk.chat.context-cache.ttl:60m}") Duration ttl,
+                              @Value("${doctalk.chat.context-cache.refresh-margin:10m}") Duration refreshMargin) {
+        this.client = client;
+        this.registry = registry;
+        this.blockingScheduler = blockingScheduler;
+        this.enabled = enabled;
+        this.minTokens = minTokens;
+        this.minUses = minUses;
+        this.ttl = ttl;
+        this.refreshMargin = refreshMargin;
+        Gauge.builder("doctalk.chat.context_cache.entries", entries,
+                        e -> e.values().stream().filter(entry -> entry.name != null).count())
+                .description("Prompt prefixes currently registered as Vertex AI cached content")
+                .register(registry);
+    }
+
+    /**
+     * The cached content to reference instead of sending this prefix, or null. {@code tokens}
+     * is the persona's size; smaller prefixes are not worth, or not allowed, caching.
+     */
+    public String lookup(String model, Content systemInstruction, List<Tool> tools, int tokens) {
+        if (!enabled || systemInstruction == null || tokens < minTokens) return null;
+
+        String key = key(model, systemInstruction, tools);
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry(CachedContent.newBuilder()
+                .setModel(model)
+                .setDisplayName("doctalk-" + k.substring(0, 16))
+                .setSystemInstruction(systemInstruction)
+                .addAllTools(tools)
+                .build()));
+        entry.lastUsed = Instant.now();
+
+        String name = entry.name;
+        if (name != null && entry.expireTime.isAfter(Instant.now().plus(EXPIRY_SLACK))) {
+            registry.counter("doctalk.chat.context_cache.lookups", "result", "hit").increment();
+            return name;
+        }
+        registry.counter("doctalk.chat.context_cache.lookups", "result", "miss").increment();
+        if (entry.uses.incrementAndGet() >= minUses && entry.retryAfter.isBefore(Instant.now())
+                && entry.busy.compareAndSet(false, true)) {
+            blockingScheduler.schedule(() -> register(entry));
+        }
+        return null;
+    }
+
+    private void register(Entry entry) {
+        try {
+            CachedContent created = client.create(entry.content.toBuilder()
+                    .setTtl(com.google.protobuf.Duration.newBuilder().setSeconds(ttl.toSeconds()))
+                    .build());
+            entry.expireTime = ContextCacheClient.toInstant(created.getExpireTime());
+            entry.name = created.getName();
+            registry.counter("doctalk.chat.context_cache.registrations", "outcome", "success").increment();
+            log.info("Registered context cache {} until {}", created.getName(), entry.expireTime);
+        } catch (Exception e) {
+            // Too small for the model, quota, or an outage: send the prefix inline for a while
+            entry.retryAfter = Instant.now().plus(ttl);
+            registry.counter("doctalk.chat.context_cache.registrations", "outcome", "failure").increment();
+            log.warn("Failed to register context cache {}", entry.content.getDisplayName(), e);
+        } finally {
+            entry.busy.set(false);
+        }
+    }
+
+    /** Extends entries in use that are close to expiry, and drops idle ones. */
+    @Scheduled(fixedDelayString = "${doctalk.chat.context-cache.refresh-interval:1m}")
+    public void refresh() {
+        Instant now = Instant.now();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            if (!entry.busy.compareAndSet(false, true)) continue;
+            try {
+                if (entry.lastUsed.isBefore(now.minus(ttl))) {
+                    entries.remove(item.getKey());
+                    delete(entry);
+                } else if (entry.name != null && entry.expireTime.isBefore(now.plus(refreshMargin))) {
+                    extend(entry);
+                }
+            } finally {
+                entry.busy.set(false);
+            }
+        }
+    }
+
+    private void extend(Entry entry) {
+        try {
+            entry.expireTime = client.extend(entry.name, ttl);
+            registry.counter("doctalk.chat.context_cache.refreshes", "outcome", "success").increment();
+        } catch (Exception e) {
+            // Most likely already expired or deleted; the next uses register it again
+            log.warn("Failed to extend context cache {}", entry.name, e);
+            entry.name = null;
+            entry.uses.set(0);
+            registry.counter("doctalk.chat.context_cache.refreshes", "outcome", "failure").increment();
+        }
+    }
+
+    private void delete(Entry entry) {
+        if (entry.name == null) return;
+        try {
+            client.delete(entry.name);
+        } catch (Exception e) {
+            log.warn("Failed to delete context cache {}; it expires at {}", entry.name, entry.expireTime, e);
+        }
+    }
+
+    /** Deletes this replica's entries rather than paying for their storage until they expire. */
+    @PreDestroy
+    public void close() {
+        entries.values().forEach(this::delete);
+        entries.clear();
+    }
+
+    static String key(String model, Content systemInstruction, List<Tool> tools) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update(systemInstruction.toByteArray());
+            for (Tool tool : tools) {
+                digest.update(tool.toByteArray());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        final CachedContent content;
+        final AtomicInteger uses = new AtomicInteger();
+        // Held while registering, extending or deleting, so those never overlap for one entry
+        final AtomicBoolean busy = new AtomicBoolean();
+        volatile String name;
+        volatile Instant expireTime = Instant.EPOCH;
+        volatile Instant lastUsed = Instant.now();
+        volatile Instant retryAfter = Instant.EPOCH;
+
+        Entry(CachedContent content) {
+            this.content = content;
+        }
+    }
+}
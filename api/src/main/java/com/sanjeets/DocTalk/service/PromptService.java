@@ -1,40 +1,39 @@
 package com.sanjeets.DocTalk.service;
 
+import com.sanjeets.DocTalk.model.dto.PageResult;
 import com.sanjeets.DocTalk.model.entity.Prompt;
-import com.sanjeets.DocTalk.repository.PromptRepository;
+import com.sanjeets.DocTalk.repository.ReactivePromptRepository;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 import java.time.Instant;
-import java.util.List;
 import java.util.UUID;
 
 @Service
 public class PromptService {
 
-    private final PromptRepository promptRepository;
+    private final ReactivePromptRepository promptRepository;
 
-    public PromptService(PromptRepository promptRepository) {
+    public PromptService(ReactivePromptRepository promptRepository) {
         this.promptRepository = promptRepository;
     }
 
-    public Prompt createPrompt(String name, String content) {
+    public Mono<Prompt> createPrompt(String name, String content) {
         String id = UUID.randomUUID().toString();
         Prompt prompt = new Prompt(id, name, content, Instant.now().toString());
-        promptRepository.save(prompt);
-        return prompt;
+        return promptRepository.save(prompt).thenReturn(prompt);
     }
 
-    public List<Prompt> getAllPrompts() {
-        return promptRepository.findAll();
+    public Mono<PageResult<Prompt>> listPrompts(int pageSize, String pageToken, boolean summary) {
+        return promptRepository.findPage(pageSize, pageToken, summary);
     }
 
-    public Prompt updatePrompt(String id, String name, String content) {
+    public Mono<Prompt> updatePrompt(String id, String name, String content) {
         Prompt prompt = new Prompt(id, name, content, Instant.now().toString());
-        promptRepository.save(prompt);
-        return prompt;
+        return promptRepository.save(prompt).thenReturn(prompt);
     }
 
-    public void deletePrompt(String id) {
-        promptRepository.delete(id);
+    public Mono<Void> deletePrompt(String id) {
+        return promptRepository.delete(id);
     }
 }
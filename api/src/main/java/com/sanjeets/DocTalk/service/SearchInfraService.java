@@ -2,9 +2,16 @@ package com.sanjeets.DocTalk.service;
 
 import com.google.api.gax.longrunning.OperationFuture;
 import com.google.cloud.discoveryengine.v1.*;
+import com.sanjeets.DocTalk.config.DependencyGuard;
+import com.sanjeets.DocTalk.config.DependencyGuards;
+import com.sanjeets.DocTalk.config.DiscoveryEngineFactory;
+import com.sanjeets.DocTalk.model.entity.DocumentContent;
+import com.sanjeets.DocTalk.model.entity.DocumentLink;
 import com.sanjeets.DocTalk.model.entity.Project;
 import com.sanjeets.DocTalk.model.entity.ProjectStatus;
+import com.sanjeets.DocTalk.repository.DocumentContentRepository;
 import com.sanjeets.DocTalk.repository.ProjectRepository;
+import io.micrometer.observation.annotation.Observed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,16 +20,27 @@ import org.springframework.stereotype.Service;
 
 import com.sanjeets.DocTalk.model.dto.DocumentSummary;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
+@Observed(name = "doctalk.service")
 public class SearchInfraService {
 
     private static final Logger log = LoggerFactory.getLogger(SearchInfraService.class);
+    private static final Duration PROVISIONING_TIMEOUT = Duration.ofHours(1);
+    // The most input URIs a single GcsSource accepts
+    private static final int MAX_INPUT_URIS = 100;
 
     @Value("${doctalk.gcp.project-id}")
     private String gcpProjectId;
@@ -33,10 +51,21 @@ public class SearchInfraService {
     @Value("${doctalk.gcs.bucket-name}")
     private String bucketName;
 
+    // Provisioning runs in the background, so it queues for the bulkhead rather than failing
+    @Value("${doctalk.resilience.discovery-engine.max-wait:10m}")
+    private Duration maxWait;
+
     private final ProjectRepository projectRepository;
+    private final DocumentContentRepository documentContentRepository;
+    private final DiscoveryEngineFactory discoveryEngineFactory;
+    private final DependencyGuard discoveryEngine;
 
-    public SearchInfraService(ProjectRepository projectRepository) {
+    public SearchInfraService(ProjectRepository projectRepository, DocumentContentRepository documentContentRepository,
+                              DiscoveryEngineFactory discoveryEngineFactory, DependencyGuards guards) {
         this.projectRepository = projectRepository;
+        this.documentContentRepository = documentContentRepository;
+        this.discoveryEngineFactory = discoveryEngineFactory;
+        this.discoveryEngine = guards.discoveryEngine();
     }
 
     @Async
@@ -47,20 +76,25 @@ public class SearchInfraService {
             return;
         }
 
+        // Claim provisioning atomically; another replica may already be running it
+        Map<String, Object> claimed = projectRepository.update(projectId, current ->
+                current.getStatus() == ProjectStatus.PROVISIONING && !isAbandonedProvisioning(current)
+                        ? null : statusFields(ProjectStatus.PROVISIONING));
+        if (claimed == null) {
+            log.info("Project {} is already being provisioned", project.getName());
+            return;
+        }
         log.info("Starting provisioning for Project: {}", project.getName());
-        updateStatus(project, ProjectStatus.PROVISIONING);
 
         try {
             // 1. Create Data Store
             // Format: ds-<short-uuid> (Data Store IDs must be 1-63 chars, lowercase, no spaces)
             String dataStoreId = "ds-" + projectId; 
             createDataStore(dataStoreId, project.getName());
-            project.setDataStoreId(dataStoreId);
 
             // 2. Create Engine (App)
             String engineId = "app-" + projectId;
             createEngine(engineId, dataStoreId, project.getName());
-            project.setEngineId(engineId);
 
             // 3. Import Documents (Initial Sync)
             // Note: This triggers a long-running import job.
@@ -69,20 +103,36 @@ public class SearchInfraService {
             String bucketPrefix = project.getBucketPrefix() != null ? project.getBucketPrefix() : project.getGcsPrefix();
             boolean useFullSync = project.getStorageMode() == com.sanjeets.DocTalk.model.entity.StorageMode.BYOB;
             importDocuments(projectId, dataStoreId, bucketName, bucketPrefix, useFullSync);
-            project.setLastIndexedAt(Instant.now().toString());
 
             // 4. Complete
-            updateStatus(project, ProjectStatus.READY);
+            Map<String, Object> fields = statusFields(ProjectStatus.READY);
+            fields.put("dataStoreId", dataStoreId);
+            fields.put("engineId", engineId);
+            fields.put("lastIndexedAt", Instant.now().toString());
+            projectRepository.updateFields(projectId, fields);
             log.info("Provisioning complete for Project: {}", project.getName());
 
         } catch (Exception e) {
             log.error("Provisioning failed for Project: " + project.getName(), e);
-            updateStatus(project, ProjectStatus.FAILED);
+            projectRepository.updateFields(projectId, statusFields(ProjectStatus.FAILED));
         }
     }
 
+    private Map<String, Object> statusFields(ProjectStatus status) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("status", status.name());
+        fields.put("statusChangedAt", Instant.now().toString());
+        return fields;
+    }
+
+    /** Provisioning that has not finished in time is assumed to have died with its replica. */
+    private boolean isAbandonedProvisioning(Project project) {
+        return project.getStatusChangedAt() == null
+                || Instant.parse(project.getStatusChangedAt()).plus(PROVISIONING_TIMEOUT).isBefore(Instant.now());
+    }
+
     private void createDataStore(String dataStoreId, String projectName) throws Exception {
-        try (DataStoreServiceClient client = DataStoreServiceClient.create()) {
+        try (DataStoreServiceClient client = discoveryEngineFactory.dataStores()) {
             String parent = String.format("projects/%s/locations/%s/collections/default_collection", gcpProjectId, location);
             
             try {
@@ -104,14 +154,13 @@ public class SearchInfraService {
                     .setDataStoreId(dataStoreId)
                     .build();
 
-            OperationFuture<DataStore, CreateDataStoreMetadata> operation = client.createDataStoreAsync(request);
-            operation.get();
+            await(() -> client.createDataStoreAsync(request));
             log.info("Created Data Store: {}", dataStoreId);
         }
     }
 
     private void createEngine(String engineId, String dataStoreId, String projectName) throws Exception {
-        try (EngineServiceClient client = EngineServiceClient.create()) {
+        try (EngineServiceClient client = discoveryEngineFactory.engines()) {
             String parent = String.format("projects/%s/locations/%s/collections/default_collection", gcpProjectId, location);
 
             try {
@@ -132,39 +181,58 @@ public class SearchInfraService {
                     .setEngineId(engineId)
                     .build();
 
-            OperationFuture<Engine, CreateEngineMetadata> operation = client.createEngineAsync(request);
-            operation.get();
+            await(() -> client.createEngineAsync(request));
             log.info("Created Engine: {}", engineId);
         }
     }
 
+    /**
+     * Starts a long-running operation and waits for it under the Discovery Engine guard, first
+     * waiting up to {@code max-wait} for a bulkhead slot. One still running at the deadline fails
+     * provisioning like any other error.
+     */
+    private <T> T await(Supplier<OperationFuture<T, ?>> start) throws Exception {
+        try (DependencyGuard.Permit permit = discoveryEngine.acquire(maxWait)) {
+            try {
+                T result = start.get().get(discoveryEngine.deadline().toMillis(), TimeUnit.MILLISECONDS);
+                permit.success();
+                return result;
+            } catch (Exception e) {
+                permit.failure(e);
+                throw e;
+            }
+        }
+    }
+
     public String importDocuments(String projectId, String dataStoreId, String bucketName, String bucketPrefix, boolean useFullSync) {
-        try (DocumentServiceClient client = DocumentServiceClient.create()) {
+        try (DocumentServiceClient client = discoveryEngineFactory.documents()) {
              String parent = String.format("projects/%s/locations/%s/collections/default_collection/dataStores/%s/branches/default_branch", gcpProjectId, location, dataStoreId);
 
              // GCS URI: gs://bucket/prefix/*
              String gcsUri = String.format("gs://%s/%s*", bucketName, bucketPrefix);
 
-             GcsSource gcsSource = GcsSource.newBuilder()
-                     .addInputUris(gcsUri)
-                     .setDataSchema("content")
-                     .build();
-
              // Use FULL mode for BYOB (to remove deleted files), INCREMENTAL for managed
              ImportDocumentsRequest.ReconciliationMode mode = useFullSync ?
                      ImportDocumentsRequest.ReconciliationMode.FULL :
                      ImportDocumentsRequest.ReconciliationMode.INCREMENTAL;
 
-             ImportDocumentsRequest request = ImportDocumentsRequest.newBuilder()
-                 .setParent(parent)
-                 .setGcsSource(gcsSource)
-                 .setReconciliationMode(mode)
-                 .build();
+             // The wildcard shares the tracked import with as many linked objects as fit
+             List<String> linked = linkedContentUris(projectId, bucketName, bucketPrefix);
+             int first = Math.min(linked.size(), MAX_INPUT_URIS - 1);
+             List<String> uris = new ArrayList<>();
+             uris.add(gcsUri);
+             uris.addAll(linked.subList(0, first));
 
-             OperationFuture<ImportDocumentsResponse, ImportDocumentsMetadata> operation = client.importDocumentsAsync(request);
-             String opName = operation.getName();
+             String opName = startImport(client, parent, uris, mode);
              log.info("Import operation initiated: {} (mode: {})", opName, mode);
 
+             // The rest are only ever added; a FULL import of part of the sources would remove the others
+             for (int from = first; from < linked.size(); from += MAX_INPUT_URIS) {
+                 List<String> batch = linked.subList(from, Math.min(from + MAX_INPUT_URIS, linked.size()));
+                 String batchOp = startImport(client, parent, batch, ImportDocumentsRequest.ReconciliationMode.INCREMENTAL);
+                 log.info("Import operation initiated for {} linked documents: {}", batch.size(), batchOp);
+             }
+
              return opName;
         } catch (IOException | InterruptedException | ExecutionException e) {
             log.error("Failed to trigger import for DataStore " + dataStoreId, e);
@@ -172,6 +240,44 @@ public class SearchInfraService {
         }
     }
 
+    private String startImport(DocumentServiceClient client, String parent, List<String> uris,
+            ImportDocumentsRequest.ReconciliationMode mode) throws InterruptedException, ExecutionException {
+        GcsSource gcsSource = GcsSource.newBuilder()
+                .addAllInputUris(uris)
+                .setDataSchema("content")
+                .build();
+
+        ImportDocumentsRequest request = ImportDocumentsRequest.newBuilder()
+                .setParent(parent)
+                .setGcsSource(gcsSource)
+                .setReconciliationMode(mode)
+                .build();
+
+        OperationFuture<ImportDocumentsResponse, ImportDocumentsMetadata> operation = client.importDocumentsAsync(request);
+        return operation.getName();
+    }
+
+    /**
+     * Deduplicated names whose bytes live under another project's prefix are not matched by
+     * this project's wildcard, so their canonical objects are imported explicitly.
+     */
+    private List<String> linkedContentUris(String projectId, String bucketName, String bucketPrefix) {
+        Set<String> contentHashes = new LinkedHashSet<>();
+        for (DocumentLink link : documentContentRepository.findLinksByProject(projectId)) {
+            if (link.isLinked()) contentHashes.add(link.getContentHash());
+        }
+
+        Set<String> uris = new LinkedHashSet<>();
+        for (DocumentContent content : documentContentRepository.findContents(contentHashes)) {
+            boolean underPrefix = content.getBucketName().equals(bucketName)
+                    && content.getObjectName().startsWith(bucketPrefix);
+            if (!underPrefix) {
+                uris.add(String.format("gs://%s/%s", content.getBucketName(), content.getObjectName()));
+            }
+        }
+        return new ArrayList<>(uris);
+    }
+
     public static class ImportStatusResult {
         public String status;
         public String completionTime; // ISO Instant
@@ -183,7 +289,7 @@ public class SearchInfraService {
     }
 
     public ImportStatusResult getImportOperationStatus(String operationName) {
-        try (DocumentServiceClient client = DocumentServiceClient.create()) {
+        try (DocumentServiceClient client = discoveryEngineFactory.documents()) {
             com.google.longrunning.Operation operation = client.getOperationsClient().getOperation(operationName);
             
             if (!operation.getDone()) {
@@ -222,7 +328,7 @@ public class SearchInfraService {
         Project project = projectRepository.findById(projectId);
         if (project == null || project.getDataStoreId() == null) return 0;
 
-        try (DocumentServiceClient client = DocumentServiceClient.create()) {
+        try (DocumentServiceClient client = discoveryEngineFactory.documents()) {
             String parent = String.format("projects/%s/locations/%s/collections/default_collection/dataStores/%s/branches/default_branch", gcpProjectId, location, project.getDataStoreId());
             
             // List documents and count
@@ -242,7 +348,7 @@ public class SearchInfraService {
         if (project == null || project.getDataStoreId() == null) return Collections.emptyList();
 
         List<DocumentSummary> summaries = new ArrayList<>();
-        try (DocumentServiceClient client = DocumentServiceClient.create()) {
+        try (DocumentServiceClient client = discoveryEngineFactory.documents()) {
             String parent = String.format("projects/%s/locations/%s/collections/default_collection/dataStores/%s/branches/default_branch", gcpProjectId, location, project.getDataStoreId());
             
             for (Document doc : client.listDocuments(parent).iterateAll()) {
@@ -259,9 +365,4 @@ public class SearchInfraService {
         }
         return summaries;
     }
-
-    private void updateStatus(Project project, ProjectStatus status) {
-        project.setStatus(status);
-        projectRepository.save(project);
-    }
 }
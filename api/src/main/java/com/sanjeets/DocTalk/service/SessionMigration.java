@@ -0,0 +1,126 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.repository.ReactiveChatSessionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online migration of chat sessions from the top-level collection into their projects. It runs
+ * in the background while the app keeps serving: sessions are moved {@code migration-concurrency}
+ * at a time as the old collection is paged through, and meanwhile reads fall back to the old
+ * layout (see {@link ReactiveChatSessionRepository}). Moving a session can be repeated, so a run
+ * that failed or was cut short by a restart is simply started again. Once {@code remaining} is
+ * zero, {@code doctalk.chat.sessions.legacy-read} can be turned off.
+ */
+@Service
+public class SessionMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionMigration.class);
+
+    private final ReactiveChatSessionRepository chatSessionRepository;
+    private final int batchSize;
+    private final int concurrency;
+    private final Counter migratedSessions;
+    private final Counter failedSessions;
+    private final Counter migratedMessages;
+
+    // One run at a time per replica; its progress is what the status reports
+    private volatile String state = "idle"; // Then running, done or failed
+    private volatile String startedAt;
+    private volatile String finishedAt;
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public SessionMigration(ReactiveChatSessionRepository chatSessionRepository, MeterRegistry registry,
+                            @Value("${doctalk.chat.sessions.migration-batch-size:200}") int batchSize,
+                            @Value("${doctalk.chat.sessions.migration-concurrency:4}") int concurrency) {
+        this.chatSessionRepository = chatSessionRepository;
+        this.batchSize = batchSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.migratedSessions = Counter.builder("doctalk.chat.migration.sessions")
+                .description("Sessions moved into their project")
+                .tag("outcome", "migrated")
+                .register(registry);
+        this.failedSessions = Counter.builder("doctalk.chat.migration.sessions")
+                .description("Sessions moved into their project")
+                .tag("outcome", "failed")
+                .register(registry);
+        this.migratedMessages = Counter.builder("doctalk.chat.migration.messages")
+                .description("Messages moved with their session")
+                .register(registry);
+    }
+
+    /** Starts a run unless one is already going on this replica; resolves to the status either way. */
+    public Mono<Map<String, Object>> start() {
+        synchronized (this) {
+            if (!state.equals("running")) {
+                state = "running";
+                startedAt = Instant.now().toString();
+                finishedAt = null;
+                sessions.set(0);
+                messages.set(0);
+                failures.set(0);
+                log.info("Session migration started");
+                chatSessionRepository.streamLegacySessionIds(batchSize)
+                        .flatMap(this::migrate, concurrency)
+                        .subscribe(null, this::failed, () -> finish("done"));
+            }
+        }
+        return status();
+    }
+
+    public Mono<Map<String, Object>> status() {
+        return chatSessionRepository.countLegacySessions().map(remaining -> {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("state", state);
+            status.put("startedAt", startedAt);
+            status.put("finishedAt", finishedAt);
+            status.put("sessions", sessions.get());
+            status.put("messages", messages.get());
+            status.put("failures", failures.get());
+            status.put("remaining", remaining);
+            return status;
+        });
+    }
+
+    /** Moves one session; a session that cannot be moved is logged and left in place for the next run. */
+    private Mono<Void> migrate(String sessionId) {
+        return chatSessionRepository.migrateSession(sessionId)
+                .doOnNext(migration -> {
+                    sessions.incrementAndGet();
+                    messages.addAndGet(migration.messages());
+                    migratedSessions.increment();
+                    migratedMessages.increment(migration.messages());
+                })
+                .onErrorResume(e -> {
+                    log.warn("Failed to migrate session {}", sessionId, e);
+                    failures.incrementAndGet();
+                    failedSessions.increment();
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void failed(Throwable error) {
+        log.error("Session migration stopped", error);
+        finish("failed");
+    }
+
+    private void finish(String outcome) {
+        state = outcome;
+        finishedAt = Instant.now().toString();
+        log.info("Session migration {}: {} sessions and {} messages moved, {} failed",
+                outcome, sessions.get(), messages.get(), failures.get());
+    }
+}
@@ -0,0 +1,138 @@
+package com.sanjeets.DocTalk.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the chat stream's SSE payloads ({@code {"text":...}}, {@code {"status":...}},
+ * {@code {"citations":[...]}} and {@code {"error":...}}) without an intermediate map or a Jackson generator. Each event
+ * is written into a per-thread buffer behind a precomputed prefix, so the only allocation
+ * per chunk is the resulting string. Output is the same JSON Jackson would produce.
+ */
+final class SseEventEncoder {
+
+    private static final String TEXT_PREFIX = "{\"text\":";
+    private static final String STATUS_PREFIX = "{\"status\":";
+    private static final String CITATIONS_PREFIX = "{\"citations\":[";
+    private static final String ERROR_PREFIX = "{\"error\":";
+    private static final String RETRY_AFTER_FIELD = ",\"retryAfter\":";
+    private static final String ARRAY_SUFFIX = "]}";
+    private static final String COMPLETE_ARRAY_SUFFIX = "],\"final\":true}";
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Buffers that grew for an unusually large event are dropped rather than pinned to the thread
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+
+    private SseEventEncoder() {}
+
+    static String text(String text) {
+        return string(TEXT_PREFIX, text);
+    }
+
+    static String status(String status) {
+        return string(STATUS_PREFIX, status);
+    }
+
+    /** A turn that could not be served. */
+    static String error(String message) {
+        return string(ERROR_PREFIX, message);
+    }
+
+    /** A turn that could not be served yet, with the seconds after which retrying should succeed. */
+    static String error(String message, long retryAfterSeconds) {
+        StringBuilder out = buffer();
+        out.append(ERROR_PREFIX);
+        appendValue(out, message);
+        out.append(RETRY_AFTER_FIELD).append(retryAfterSeconds).append('}');
+        return release(out);
+    }
+
+    static String citations(List<Map<String, String>> citations) {
+        return citations(citations, false);
+    }
+
+    /** {@code complete} marks the closing event, whose list supersedes any sent during the stream. */
+    static String citations(List<Map<String, String>> citations, boolean complete) {
+        StringBuilder out = buffer();
+        out.append(CITATIONS_PREFIX);
+        for (int i = 0; i < citations.size(); i++) {
+            if (i > 0) out.append(',');
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, String> field : citations.get(i).entrySet()) {
+                if (!first) out.append(',');
+                first = false;
+                appendString(out, field.getKey());
+                out.append(':');
+                appendValue(out, field.getValue());
+            }
+            out.append('}');
+        }
+        out.append(complete ? COMPLETE_ARRAY_SUFFIX : ARRAY_SUFFIX);
+        return release(out);
+    }
+
+    private static String string(String prefix, String value) {
+        StringBuilder out = buffer();
+        out.append(prefix);
+        appendValue(out, value);
+        out.append('}');
+        return release(out);
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        return out;
+    }
+
+    private static String release(StringBuilder out) {
+        String encoded = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFER.remove();
+        }
+        return encoded;
+    }
+
+    /** A JSON string, or {@code null} as Jackson writes a null field. */
+    private static void appendValue(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+        } else {
+            appendString(out, value);
+        }
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        appendEscaped(out, value);
+        out.append('"');
+    }
+
+    /** JSON string escaping, matching Jackson's defaults: quotes, backslash and control characters only. */
+    private static void appendEscaped(StringBuilder out, String value) {
+        int runStart = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            out.append(value, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(value, runStart, length);
+    }
+}
@@ -0,0 +1,213 @@
+package com.sanjeets.DocTalk.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.discoveryengine.v1.DataStoreServiceClient;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
+import com.google.cloud.vertexai.generativeai.ContentMaker;
+import com.sanjeets.DocTalk.config.DiscoveryEngineFactory;
+import com.sanjeets.DocTalk.config.VertexAiFactory;
+import com.sanjeets.DocTalk.model.dto.PageResult;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ChatSession;
+import com.sanjeets.DocTalk.model.entity.ConversationState;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+import com.sanjeets.DocTalk.model.entity.Project;
+import com.sanjeets.DocTalk.model.entity.ProjectStatus;
+import com.sanjeets.DocTalk.model.entity.Prompt;
+import com.sanjeets.DocTalk.repository.ReactiveChatSessionRepository;
+import com.sanjeets.DocTalk.repository.ReactiveProjectRepository;
+import com.sanjeets.DocTalk.repository.ReactivePromptRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pays the first-request costs before the instance takes traffic: fetching credentials,
+ * opening Firestore and GCS connections, loading the Vertex AI and Discovery Engine client
+ * classes, priming the project and prompt caches with the projects behind the most recent
+ * sessions, and running the JSON paths once.
+ * <p>
+ * Runners complete before Spring Boot marks the application ready, so readiness stays
+ * {@code REFUSING_TRAFFIC} until warm-up is done. A failed or slow step is logged and skipped;
+ * the whole phase is bounded by {@code doctalk.warmup.timeout}. Steps are timed under
+ * {@code doctalk.warmup.step}, the phase under {@code doctalk.warmup}.
+ */
+@Component
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private final GoogleCredentials credentials;
+    private final Storage storage;
+    private final VertexAiFactory vertexAiFactory;
+    private final DiscoveryEngineFactory discoveryEngineFactory;
+    private final ReactiveChatSessionRepository chatSessionRepository;
+    private final ReactiveProjectRepository projectRepository;
+    private final ReactivePromptRepository promptRepository;
+    private final DocumentService documentService;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry registry;
+    private final Scheduler blockingScheduler;
+    private final boolean enabled;
+    private final int recentSessions;
+    private final Duration timeout;
+
+    @Value("${doctalk.gcs.bucket-name}")
+    private String bucketName;
+
+    public StartupWarmup(GoogleCredentials credentials, Storage storage,
+                         VertexAiFactory vertexAiFactory, DiscoveryEngineFactory discoveryEngineFactory,
+                         ReactiveChatSessionRepository chatSessionRepository, ReactiveProjectRepository projectRepository,
+                         ReactivePromptRepository promptRepository, DocumentService documentService,
+                         ObjectMapper objectMapper, MeterRegistry registry, Scheduler blockingScheduler,
+                         @Value("${doctalk.warmup.enabled:true}") boolean enabled,
+                         @Value("${doctalk.warmup.recent-sessions:200}") int recentSessions,
+                         @Value("${doctalk.warmup.timeout:60s}") Duration timeout) {
+        this.credentials = credentials;
+        this.storage = storage;
+        this.vertexAiFactory = vertexAiFactory;
+        this.discoveryEngineFactory = discoveryEngineFactory;
+        this.chatSessionRepository = chatSessionRepository;
+        this.projectRepository = projectRepository;
+        this.promptRepository = promptRepository;
+        this.documentService = documentService;
+        this.objectMapper = objectMapper;
+        this.registry = registry;
+        this.blockingScheduler = blockingScheduler;
+        this.enabled = enabled;
+        this.recentSessions = recentSessions;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) return;
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            Mono.when(
+                    // Credentials first: every other client would otherwise fetch a token on its first call
+                    step("credentials", credentials::refreshIfExpired).then(Mono.when(
+                            step("caches", primeCaches()),
+                            step("storage", this::warmStorage),
+                            step("vertex_ai", this::warmVertexAi),
+                            step("discovery_engine", this::warmDiscoveryEngine))),
+                    step("serialization", this::warmSerialization)
+            ).block(timeout);
+        } catch (RuntimeException e) {
+            outcome = "timeout";
+            log.warn("Warm-up did not finish within {}; taking traffic anyway", timeout, e);
+        }
+        long nanos = System.nanoTime() - start;
+        Timer.builder("doctalk.warmup")
+                .description("Startup warm-up, during which the instance reports not ready")
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+        log.info("Warm-up finished in {} ms", nanos / 1_000_000);
+    }
+
+    /** Loads the projects and prompts of the most recent sessions through the repositories, which cache them. */
+    private Mono<Void> primeCaches() {
+        return chatSessionRepository.findRecent(recentSessions)
+                .flatMap(sessions -> Mono.when(
+                        Flux.fromIterable(sessions).map(ChatSession::getProjectId).filter(Objects::nonNull).distinct()
+                                .flatMap(projectRepository::findById),
+                        Flux.fromIterable(sessions).map(ChatSession::getPromptId).filter(Objects::nonNull).distinct()
+                                .flatMap(promptRepository::findById)))
+                .doOnSuccess(ignored -> log.debug("Primed caches from the {} most recent sessions", recentSessions));
+    }
+
+    private void warmStorage() {
+        storage.get(bucketName, Storage.BucketGetOption.fields(Storage.BucketField.NAME));
+        // Citations are signed on every grounded turn
+        documentService.generateReadSignedUrl("gs://" + bucketName + "/warmup");
+    }
+
+    /** Clients are created per turn, so this loads their classes and transport rather than keeping a connection. */
+    private void warmVertexAi() {
+        try (VertexAI vertexAI = vertexAiFactory.create()) {
+            vertexAI.getPredictionServiceClient();
+            GenerateContentRequest.newBuilder()
+                    .addContents(ContentMaker.fromMultiModalData("warm-up"))
+                    .build()
+                    .toByteString();
+        }
+    }
+
+    private void warmDiscoveryEngine() throws Exception {
+        try (DataStoreServiceClient client = discoveryEngineFactory.dataStores()) {
+            client.getSettings();
+        }
+    }
+
+    /** The response shapes of the chat, project and prompt endpoints, and the stream's events. */
+    private void warmSerialization() throws JsonProcessingException {
+        String now = Instant.now().toString();
+        ChatMessage message = new ChatMessage("warmup", "warmup", MessageRole.MODEL, "warm-up", now);
+        message.setCitations(List.of(Map.of("uri", "gs://warmup/warmup", "title", "warm-up")));
+        ChatSession session = new ChatSession("warmup", "warmup", "warmup", "warm-up", now);
+        session.setConversation(new ConversationState());
+        Project project = new Project("warmup", "warm-up", ProjectStatus.READY, "warmup/", null, null, now);
+        Prompt prompt = new Prompt("warmup", "warm-up", "warm-up", now);
+
+        for (Object value : List.of(message, session, project, prompt,
+                new PageResult<>(List.of(project), null), new PageResult<>(List.of(prompt), null))) {
+            objectMapper.readValue(objectMapper.writeValueAsString(value), value.getClass());
+        }
+        SseEventEncoder.status("warm-up");
+        SseEventEncoder.text("warm-up");
+        SseEventEncoder.citations(message.getCitations(), true);
+    }
+
+    private Mono<Void> step(String name, BlockingStep work) {
+        return step(name, Mono.fromCallable(() -> {
+            work.run();
+            return name;
+        }).subscribeOn(blockingScheduler).then());
+    }
+
+    private Mono<Void> step(String name, Mono<Void> work) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return work
+                    .doOnSuccess(ignored -> record(name, "success", start))
+                    .onErrorResume(e -> {
+                        record(name, "failure", start);
+                        log.warn("Warm-up step {} failed", name, e);
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    private void record(String step, String outcome, long start) {
+        Timer.builder("doctalk.warmup.step")
+                .description("Each startup warm-up step")
+                .tags("step", step, "outcome", outcome)
+                .register(registry)
+                .record(Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    @FunctionalInterface
+    private interface BlockingStep {
+        void run() throws Exception;
+    }
+}
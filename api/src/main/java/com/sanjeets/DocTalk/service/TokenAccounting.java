@@ -0,0 +1,196 @@
+package com.sanjeets.DocTalk.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+import com.sanjeets.DocTalk.model.entity.Prompt;
+import com.sanjeets.DocTalk.repository.TokenUsageRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token sizes of what a chat turn sends, and what it cost.
+ * <p>
+ * Counts are taken once per item: messages carry their own count when saved (estimated
+ * for user turns, reported by the model for replies), and older messages and prompts
+ * are estimated and cached. {@link #fit} uses them to keep a request's input within
+ * {@code doctalk.tokens.input-budget} by dropping the oldest history. Reported usage is
+ * summed per project and day and flushed to Firestore periodically, so a busy project
+ * costs one write per interval rather than one per turn.
+ */
+@Component
+public class TokenAccounting {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenAccounting.class);
+
+    private final TokenUsageRepository usageRepository;
+    private final MeterRegistry registry;
+    private final int inputBudget;
+    private final Cache<String, Integer> counts;
+    private final Map<String, UsageTotals> pending = new HashMap<>();
+
+    public TokenAccounting(TokenUsageRepository usageRepository, MeterRegistry registry,
+                           @Value("${doctalk.tokens.input-budget:0}") int inputBudget,
+                           @Value("${doctalk.tokens.cache-size:100000}") long cacheSize) {
+        this.usageRepository = usageRepository;
+        this.registry = registry;
+        this.inputBudget = inputBudget;
+        this.counts = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /** History that fits the budget, and the input tokens of the whole request. */
+    public record Budgeted(List<ChatMessage> history, int inputTokens) {}
+
+    /**
+     * Rough token count: a token per four characters of a word, one per symbol, and one
+     * per CJK character. Errs high for short words, which is the safe side for a budget.
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp < 0x2E80 && Character.isLetterOrDigit(cp)) {
+                wordLength++;
+                continue;
+            }
+            tokens += (wordLength + 3) / 4;
+            wordLength = 0;
+            if (!Character.isWhitespace(cp)) {
+                tokens++;
+            }
+        }
+        return tokens + (wordLength + 3) / 4;
+    }
+
+    public int count(ChatMessage message) {
+        if (message.getTokenCount() != null) return message.getTokenCount();
+        return counts.get("message:" + message.getId(), k -> estimate(message.getContent()));
+    }
+
+    public int count(Prompt prompt) {
+        if (prompt == null || prompt.getContent() == null) return 0;
+        // Keyed on content too, so an edited prompt is counted again
+        return counts.get("prompt:" + prompt.getId() + ":" + prompt.getContent().hashCode(), k -> estimate(prompt.getContent()));
+    }
+
+    /** Rejects a question that could not fit the budget on its own. */
+    public void checkQuestion(String question) {
+        int tokens = estimate(question);
+        if (inputBudget > 0 && tokens > inputBudget) {
+            throw new ContextBudgetExceededException(tokens, inputBudget);
+        }
+    }
+
+    /**
+     * Keeps the most recent history, skipping {@code excludeMessageId}, that fits the budget
+     * alongside {@code prompt}, the conversation's {@code summary} (may be null) and
+     * {@code question}. Kept history always starts on a user turn.
+     *
+     * @throws ContextBudgetExceededException if the prompt, summary and question alone exceed the budget
+     */
+    public Budgeted fit(Prompt prompt, String summary, List<ChatMessage> messages, String excludeMessageId, String question) {
+        int inputTokens = count(prompt) + estimate(summary) + estimate(question);
+        if (inputBudget > 0 && inputTokens > inputBudget) {
+            throw new ContextBudgetExceededException(inputTokens, inputBudget);
+        }
+
+        List<ChatMessage> candidates = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            if (!message.getId().equals(excludeMessageId)) candidates.add(message);
+        }
+
+        int start = candidates.size();
+        int historyTokens = 0;
+        while (start > 0) {
+            int tokens = count(candidates.get(start - 1));
+            if (inputBudget > 0 && inputTokens + historyTokens + tokens > inputBudget) break;
+            historyTokens += tokens;
+            start--;
+        }
+        // Gemini expects history to open with a user turn
+        while (start < candidates.size() && candidates.get(start).getRole() != MessageRole.USER) {
+            historyTokens -= count(candidates.get(start));
+            start++;
+        }
+        if (start > 0) {
+            registry.counter("doctalk.tokens.history.dropped").increment(start);
+        }
+        List<ChatMessage> history = candidates.subList(start, candidates.size());
+
+        inputTokens += historyTokens;
+        DistributionSummary.builder("doctalk.tokens.input")
+                .description("Estimated input tokens per chat request, after history trimming")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(inputTokens);
+        return new Budgeted(history, inputTokens);
+    }
+
+    /** Adds a call's reported usage to the project's running daily totals. */
+    public void recordUsage(String projectId, GenerateContentResponse response) {
+        if (response == null || !response.hasUsageMetadata()) return;
+        GenerateContentResponse.UsageMetadata usage = response.getUsageMetadata();
+        String key = projectId + "|" + LocalDate.now(ZoneOffset.UTC);
+        synchronized (pending) {
+            pending.computeIfAbsent(key, k -> new UsageTotals())
+                    .add(usage.getPromptTokenCount(), usage.getCandidatesTokenCount(), usage.getTotalTokenCount(), 1);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${doctalk.tokens.flush-interval:30s}")
+    @PreDestroy
+    public void flush() {
+        Map<String, UsageTotals> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = new HashMap<>(pending);
+            pending.clear();
+        }
+        for (Map.Entry<String, UsageTotals> entry : batch.entrySet()) {
+            int split = entry.getKey().indexOf('|');
+            UsageTotals totals = entry.getValue();
+            try {
+                usageRepository.increment(entry.getKey().substring(0, split), entry.getKey().substring(split + 1),
+                        totals.prompt, totals.candidates, totals.total, totals.calls);
+            } catch (RuntimeException e) {
+                log.warn("Failed to flush token usage for {}; retrying next interval", entry.getKey(), e);
+                synchronized (pending) {
+                    pending.computeIfAbsent(entry.getKey(), k -> new UsageTotals())
+                            .add(totals.prompt, totals.candidates, totals.total, totals.calls);
+                }
+            }
+        }
+    }
+
+    private static final class UsageTotals {
+        long prompt;
+        long candidates;
+        long total;
+        long calls;
+
+        void add(long prompt, long candidates, long total, long calls) {
+            this.prompt += prompt;
+            this.candidates += candidates;
+            this.total += total;
+            this.calls += calls;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.sanjeets.DocTalk.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DependencyGuardTest {
+
+    private static final Duration OPEN_FOR = Duration.ofMillis(50);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void opensOnceFailuresReachTheRate() {
+        DependencyGuard guard = guard(Duration.ofSeconds(10), 8);
+        succeed(guard);
+        fail(guard);
+        succeed(guard);
+        assertEquals(DependencyGuard.State.CLOSED, guard.state());
+
+        fail(guard);
+
+        assertEquals(DependencyGuard.State.OPEN, guard.state());
+        DependencyUnavailableException rejected = assertThrows(DependencyUnavailableException.class, guard::acquire);
+        assertTrue(rejected.getRetryAfter().compareTo(OPEN_FOR) <= 0);
+        assertEquals(1, calls("rejected_open"));
+        assertEquals(1, registry.counter("doctalk.dependency.transitions", "dependency", "test", "to", "open").count());
+    }
+
+    @Test
+    void clientErrorsDoNotOpen() {
+        DependencyGuard guard = guard(Duration.ofSeconds(10), 8);
+        for (int i = 0; i < 8; i++) {
+            assertThrows(IllegalArgumentException.class, () -> guard.call(() -> {
+                throw new IllegalArgumentException("Bad request");
+            }));
+        }
+
+        assertEquals(DependencyGuard.State.CLOSED, guard.state());
+        assertEquals(8, calls("client_error"));
+    }
+
+    @Test
+    void successfulTrialsCloseAHalfOpenBreaker() throws InterruptedException {
+        DependencyGuard guard = opened();
+        Thread.sleep(OPEN_FOR.toMillis() + 10);
+
+        DependencyGuard.Permit trial = guard.acquire();
+        assertEquals(DependencyGuard.State.HALF_OPEN, guard.state());
+        // Only half-open-calls trials at once
+        assertThrows(DependencyUnavailableException.class, guard::acquire);
+
+        trial.success();
+        trial.close();
+
+        assertEquals(DependencyGuard.State.CLOSED, guard.state());
+        guard.acquire().close();
+    }
+
+    @Test
+    void failedTrialOpensTheBreakerAgain() throws InterruptedException {
+        DependencyGuard guard = opened();
+        Thread.sleep(OPEN_FOR.toMillis() + 10);
+
+        fail(guard);
+
+        assertEquals(DependencyGuard.State.OPEN, guard.state());
+        assertThrows(DependencyUnavailableException.class, guard::acquire);
+    }
+
+    @Test
+    void abandonedTrialLetsAnotherThrough() throws InterruptedException {
+        DependencyGuard guard = opened();
+        Thread.sleep(OPEN_FOR.toMillis() + 10);
+
+        // Closed without an outcome, as when the caller cancels
+        guard.acquire().close();
+
+        assertEquals(DependencyGuard.State.HALF_OPEN, guard.state());
+        succeed(guard);
+        assertEquals(DependencyGuard.State.CLOSED, guard.state());
+    }
+
+    @Test
+    void callPastTheDeadlineTimesOut() {
+        DependencyGuard guard = guard(Duration.ofMillis(50), 8);
+
+        DependencyUnavailableException timedOut = assertThrows(DependencyUnavailableException.class,
+                () -> guard.mono(Mono.never()).block(Duration.ofSeconds(5)));
+
+        assertTrue(timedOut.getMessage().contains("did not answer"));
+        assertEquals(1, calls("timeout"));
+        assertEquals(0, inflight());
+    }
+
+    @Test
+    void fullBulkheadRejectsAtOnce() {
+        DependencyGuard guard = guard(Duration.ofSeconds(10), 1);
+        DependencyGuard.Permit held = guard.acquire();
+
+        assertThrows(DependencyUnavailableException.class, guard::acquire);
+        assertEquals(1, calls("rejected_bulkhead"));
+        assertEquals(1, inflight());
+
+        held.close();
+        guard.acquire().close();
+        assertEquals(0, inflight());
+    }
+
+    @Test
+    void waitingAcquireGetsTheNextFreeSlot() throws Exception {
+        DependencyGuard guard = guard(Duration.ofSeconds(10), 1);
+        DependencyGuard.Permit held = guard.acquire();
+        CompletableFuture.runAsync(held::close, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+
+        try (DependencyGuard.Permit permit = guard.acquire(Duration.ofSeconds(5))) {
+            assertEquals(1, inflight());
+        }
+        assertEquals(0, calls("rejected_bulkhead"));
+    }
+
+    @Test
+    void waitingAcquireGivesUpAfterItsTimeout() {
+        DependencyGuard guard = guard(Duration.ofSeconds(10), 1);
+        guard.acquire();
+
+        assertThrows(DependencyUnavailableException.class, () -> guard.acquire(Duration.ofMillis(20)));
+        assertEquals(1, calls("rejected_bulkhead"));
+    }
+
+    private DependencyGuard guard(Duration deadline, int maxConcurrent) {
+        return new DependencyGuard("test",
+                new DependencyGuard.Settings(deadline, null, maxConcurrent, 4, 4, 0.5, OPEN_FOR, 1), registry);
+    }
+
+    private DependencyGuard opened() {
+        DependencyGuard guard = guard(Duration.ofSeconds(10), 8);
+        for (int i = 0; i < 4; i++) fail(guard);
+        assertEquals(DependencyGuard.State.OPEN, guard.state());
+        return guard;
+    }
+
+    private static void succeed(DependencyGuard guard) {
+        guard.call(() -> "ok");
+    }
+
+    private static void fail(DependencyGuard guard) {
+        assertThrows(IllegalStateException.class, () -> guard.call(() -> {
+            throw new IllegalStateException("Backend down");
+        }));
+    }
+
+    private double calls(String outcome) {
+        return registry.counter("doctalk.dependency.calls", "dependency", "test", "outcome", outcome).count();
+    }
+
+    private double inflight() {
+        return registry.get("doctalk.dependency.inflight").gauge().value();
+    }
+}
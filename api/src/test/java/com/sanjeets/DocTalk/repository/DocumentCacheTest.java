@@ -0,0 +1,78 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.DocumentSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class DocumentCacheTest {
+
+    private final DocumentCache cache = new DocumentCache("test", 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+    @Test
+    void invalidationDuringLoadKeepsTheStaleSnapshotOut() {
+        DocumentSnapshot stale = mock(DocumentSnapshot.class);
+        DocumentSnapshot fresh = mock(DocumentSnapshot.class);
+        CompletableFuture<DocumentSnapshot> inFlight = new CompletableFuture<>();
+
+        CompletableFuture<DocumentSnapshot> first = cache.getAsync("p", key -> inFlight);
+        cache.invalidate("p"); // A write lands while the read is still out
+        inFlight.complete(stale);
+
+        assertSame(stale, first.join());
+        assertSame(fresh, cache.getAsync("p", key -> CompletableFuture.completedFuture(fresh)).join());
+    }
+
+    @Test
+    void concurrentMissesShareOneRead() {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<DocumentSnapshot> inFlight = new CompletableFuture<>();
+
+        CompletableFuture<DocumentSnapshot> first = cache.getAsync("p", key -> {
+            loads.incrementAndGet();
+            return inFlight;
+        });
+        CompletableFuture<DocumentSnapshot> second = cache.getAsync("p", key -> {
+            loads.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        inFlight.complete(mock(DocumentSnapshot.class));
+
+        assertEquals(1, loads.get());
+        assertSame(first.join(), second.join());
+    }
+
+    @Test
+    void blockingGetCachesTheLoadedSnapshot() throws Exception {
+        DocumentSnapshot document = mock(DocumentSnapshot.class);
+        SettableApiFuture<DocumentSnapshot> read = SettableApiFuture.create();
+        read.set(document);
+
+        assertSame(document, cache.get("p", key -> read));
+        assertSame(document, cache.get("p", key -> {
+            throw new AssertionError("Should have been a hit");
+        }));
+    }
+
+    @Test
+    void failedReadIsNotCached() throws Exception {
+        SettableApiFuture<DocumentSnapshot> failed = SettableApiFuture.create();
+        failed.setException(new IllegalStateException("unavailable"));
+        assertThrows(ExecutionException.class, () -> cache.get("p", key -> failed));
+
+        DocumentSnapshot document = mock(DocumentSnapshot.class);
+        SettableApiFuture<DocumentSnapshot> retry = SettableApiFuture.create();
+        retry.set(document);
+        assertSame(document, cache.get("p", key -> retry));
+    }
+}
@@ -0,0 +1,48 @@
+package com.sanjeets.DocTalk.repository;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PageTokensTest {
+
+    @Test
+    void limitClampsToOneAndMaximum() {
+        assertEquals(1, PageTokens.limit(0));
+        assertEquals(1, PageTokens.limit(-5));
+        assertEquals(20, PageTokens.limit(20));
+        assertEquals(PageTokens.MAX_PAGE_SIZE, PageTokens.limit(10_000));
+    }
+
+    @Test
+    void nextTreatsNonPositivePageSizeAsOne() {
+        // The query was limited to one document, so one back means there may be more
+        assertNotNull(PageTokens.next(List.of(document("a", "id-a")), "name", 0));
+    }
+
+    @Test
+    void nextIsNullForShortOrEmptyPage() {
+        assertNull(PageTokens.next(List.of(), "name", 10));
+        assertNull(PageTokens.next(List.of(document("a", "id-a")), "name", 2));
+    }
+
+    @Test
+    void nextIsNullBelowClampedMaximum() {
+        List<DocumentSnapshot> page = List.of(document("a", "id-a"));
+        assertNull(PageTokens.next(page, "name", PageTokens.MAX_PAGE_SIZE + 1));
+    }
+
+    private static DocumentSnapshot document(String name, String id) {
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.getString("name")).thenReturn(name);
+        when(snapshot.getId()).thenReturn(id);
+        return snapshot;
+    }
+}
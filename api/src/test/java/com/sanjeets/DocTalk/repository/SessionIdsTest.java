@@ -0,0 +1,72 @@
+package com.sanjeets.DocTalk.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionIdsTest {
+
+    private static final String CROCKFORD = "[0-9A-HJKMNP-TV-Z]";
+
+    @Test
+    void idsAre26CrockfordCharacters() {
+        for (int i = 0; i < 1000; i++) {
+            String id = SessionIds.next();
+            assertTrue(id.matches(CROCKFORD + "{26}"), id);
+            // 48 timestamp bits fit in 10 characters only if the first is at most 7
+            assertTrue(id.charAt(0) <= '7', id);
+        }
+    }
+
+    @Test
+    void timestampIsTheCreationMillisecond() {
+        long before = System.currentTimeMillis();
+        String id = SessionIds.next();
+        long after = System.currentTimeMillis();
+
+        long millis = 0;
+        for (char c : id.substring(0, 10).toCharArray()) {
+            millis = millis * 32 + "0123456789ABCDEFGHJKMNPQRSTVWXYZ".indexOf(c);
+        }
+        assertTrue(millis >= before && millis <= after, id + " at " + millis);
+    }
+
+    @Test
+    void idsSortInCreationOrderWithinOneMillisecond() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(SessionIds.next());
+        }
+
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        assertEquals(ids, sorted);
+        assertEquals(ids.size(), new HashSet<>(ids).size());
+        // Far more IDs than milliseconds went by, so some shared one and were ordered by the random part
+        long sharedMillisecond = 0;
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i).regionMatches(0, ids.get(i - 1), 0, 10)) sharedMillisecond++;
+        }
+        assertTrue(sharedMillisecond > 0);
+    }
+
+    @Test
+    void idsAreUniqueAcrossThreads() throws InterruptedException {
+        List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 2_000; i++) ids.add(SessionIds.next());
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(8_000, new HashSet<>(ids).size());
+    }
+}
@@ -0,0 +1,104 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.ConversationState;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationCompactorTest {
+
+    private int sequence;
+
+    @Test
+    void recentKeepsTheLatestMessagesAndOpensOnAUserTurn() {
+        ConversationCompactor compactor = new ConversationCompactor(4, 1 << 20, 1000, 100);
+        ConversationState state = new ConversationState();
+        for (int i = 0; i < 5; i++) {
+            state = compactor.append(state, question("Question " + i + "."), answer("Answer " + i + "."));
+        }
+
+        assertEquals(4, state.getRecent().size());
+        assertEquals(MessageRole.USER, state.getRecent().get(0).getRole());
+        assertEquals("Question 3.", state.getRecent().get(0).getContent());
+        assertTrue(state.getSummary().startsWith("User: Question 0.\nAssistant: Answer 0."));
+        assertEquals(5, state.getExchanges());
+    }
+
+    @Test
+    void recentIsBoundedInBytes() {
+        ConversationCompactor compactor = new ConversationCompactor(20, 10_000, 1000, 100);
+        ConversationState state = new ConversationState();
+        for (int i = 0; i < 10; i++) {
+            // Whitespace costs no tokens, so only a byte bound catches it
+            state = compactor.append(state, question("Question " + i + "." + " ".repeat(1500)), answer("Answer " + i + "."));
+        }
+
+        int bytes = state.getRecent().stream().mapToInt(m -> ConversationCompactor.utf8Length(m.getContent())).sum();
+        assertTrue(bytes <= 10_000, "recent holds " + bytes + " bytes");
+        assertEquals(MessageRole.USER, state.getRecent().get(0).getRole());
+        assertEquals("Question 9." + " ".repeat(1500), state.getRecent().get(state.getRecent().size() - 2).getContent());
+    }
+
+    @Test
+    void exchangeLargerThanTheBoundIsOnlySummarised() {
+        ConversationCompactor compactor = new ConversationCompactor(20, 10_000, 1000, 100);
+        ConversationState state = compactor.append(new ConversationState(),
+                question("Paste. " + "x".repeat(50_000)), answer("Thanks."));
+
+        assertTrue(state.getRecent().isEmpty());
+        assertNotNull(state.getSummary());
+        assertTrue(state.getSummary().length() < 500);
+    }
+
+    @Test
+    void citationsKeepTheMostRecentlyCited() {
+        ConversationCompactor compactor = new ConversationCompactor(20, 1 << 20, 1000, 3);
+        ConversationState state = new ConversationState();
+        state = compactor.append(state, question("Q1"), answer("A1", "gs://b/a", "gs://b/b"));
+        state = compactor.append(state, question("Q2"), answer("A2", "gs://b/c", "gs://b/d"));
+        state = compactor.append(state, question("Q3"), answer("A3", "gs://b/b"));
+
+        assertEquals(List.of("gs://b/c", "gs://b/d", "gs://b/b"), state.getCitationUris());
+    }
+
+    @Test
+    void seedAppliesTheSameBounds() {
+        ConversationCompactor compactor = new ConversationCompactor(20, 100, 1000, 1);
+        List<ChatMessage> messages = List.of(
+                question("Old question. " + "y".repeat(200)), answer("Old answer.", "gs://b/a"),
+                question("New question."), answer("New answer.", "gs://b/b"),
+                question("In flight."));
+
+        ConversationState state = compactor.seed(messages, messages.get(4).getId());
+
+        assertEquals(List.of("New question.", "New answer."), state.getRecent().stream().map(ChatMessage::getContent).toList());
+        assertEquals(List.of("gs://b/b"), state.getCitationUris());
+        assertEquals(2, state.getExchanges());
+    }
+
+    @Test
+    void utf8LengthCountsMultiByteCharacters() {
+        assertEquals(0, ConversationCompactor.utf8Length(null));
+        assertEquals("aé中😀".getBytes(StandardCharsets.UTF_8).length,
+                ConversationCompactor.utf8Length("aé中😀"));
+    }
+
+    private ChatMessage question(String content) {
+        return new ChatMessage("m" + sequence++, "s", MessageRole.USER, content, "2026-01-01T00:00:00Z");
+    }
+
+    private ChatMessage answer(String content, String... uris) {
+        ChatMessage message = new ChatMessage("m" + sequence++, "s", MessageRole.MODEL, content, "2026-01-01T00:00:00Z");
+        message.setCitations(Arrays.stream(uris).map(uri -> Map.of("uri", uri)).toList());
+        return message;
+    }
+}
@@ -0,0 +1,187 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.model.entity.Project;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GenerationAdmissionTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void freeCapacityGoesToTheProjectThatHasUsedLeast() throws Exception {
+        GenerationAdmission admission = admission(1, 0, 0, Duration.ofSeconds(10));
+        GenerationAdmission.Permit blocker = admission.acquire(project("blocker", null), 1000);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> calls = new ArrayList<>();
+        // A batch from one project queues ahead of a single call from another
+        for (String label : List.of("a-batch-1", "a-batch-2", "a-batch-3", "b-single")) {
+            Project project = project(label.startsWith("a") ? "a" : "b", null);
+            calls.add(executor.submit(() -> {
+                try (GenerationAdmission.Permit permit = admission.acquire(project, 1000)) {
+                    order.add(label);
+                }
+            }));
+            awaitQueueDepth(calls.size());
+        }
+
+        blocker.close();
+        for (Future<?> call : calls) call.get(5, TimeUnit.SECONDS);
+
+        // Equal virtual time breaks ties by project, then the single call is not left behind the batch
+        assertEquals(List.of("a-batch-1", "b-single", "a-batch-2", "a-batch-3"), order);
+    }
+
+    @Test
+    void heavierWeightGetsProportionallyMoreTurns() throws Exception {
+        GenerationAdmission admission = admission(1, 0, 0, Duration.ofSeconds(10));
+        GenerationAdmission.Permit blocker = admission.acquire(project("blocker", null), 1000);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            for (String id : List.of("heavy", "light")) {
+                Project project = project(id, id.equals("heavy") ? 3.0 : 1.0);
+                calls.add(executor.submit(() -> {
+                    try (GenerationAdmission.Permit permit = admission.acquire(project, 1000)) {
+                        order.add(id);
+                    }
+                }));
+                awaitQueueDepth(calls.size());
+            }
+        }
+
+        blocker.close();
+        for (Future<?> call : calls) call.get(5, TimeUnit.SECONDS);
+
+        // Weight 3 advances virtual time a third as fast per call
+        assertEquals(List.of("heavy", "light", "heavy", "heavy", "light", "light"), order);
+    }
+
+    @Test
+    void waitsForTheTokenBucketToRefill() {
+        // 60,000 tokens a minute refill at 1,000 a second
+        GenerationAdmission admission = admission(4, 60_000, 0, Duration.ofSeconds(5));
+        admission.acquire(project("p", null), 60_000).close();
+
+        long start = System.nanoTime();
+        admission.acquire(project("p", null), 500).close();
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(waitedMillis >= 400, "waited " + waitedMillis + "ms");
+        assertTrue(waitedMillis < 2_000, "waited " + waitedMillis + "ms");
+    }
+
+    @Test
+    void recordedUsageRefundsAnOverestimate() {
+        GenerationAdmission admission = admission(4, 0, 60_000, Duration.ofMillis(300));
+        try (GenerationAdmission.Permit permit = admission.acquire(project("p", null), 60_000)) {
+            permit.recordUsage(1_000);
+        }
+
+        long start = System.nanoTime();
+        admission.acquire(project("p", null), 30_000).close();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    void rejectsAfterMaxWait() {
+        GenerationAdmission admission = admission(1, 0, 0, Duration.ofMillis(200));
+        try (GenerationAdmission.Permit held = admission.acquire(project("p", null), 1000)) {
+            long start = System.nanoTime();
+            AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                    () -> admission.acquire(project("q", null), 1000));
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(waitedMillis >= 200, "waited " + waitedMillis + "ms");
+            assertTrue(rejected.getRetryAfterSeconds() >= 1);
+            assertEquals(1.0, registry.get("doctalk.admission.rejected").tag("reason", "timeout").counter().count());
+            assertEquals(0.0, registry.get("doctalk.admission.queue.depth").gauge().value());
+        }
+    }
+
+    @Test
+    void checkQueueRejectsWhenTheProjectQueueIsFull() throws Exception {
+        GenerationAdmission admission = new GenerationAdmission(registry, 1, 1, 0, 0, 10, 1, Duration.ofSeconds(5));
+        GenerationAdmission.Permit held = admission.acquire(project("p", null), 1000);
+        Future<?> queued = executor.submit(() -> admission.acquire(project("p", null), 1000).close());
+        awaitQueueDepth(1);
+
+        assertThrows(AdmissionRejectedException.class, () -> admission.checkQueue(project("p", null)));
+        admission.checkQueue(project("other", null));
+
+        held.close();
+        queued.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void interruptedWaiterAdmittedByARacingReleaseGivesItsSlotBack() throws Exception {
+        // The interrupted waiter needs the lock back before it can throw, so the release usually admits it first
+        for (int i = 0; i < 50; i++) {
+            SimpleMeterRegistry meters = new SimpleMeterRegistry();
+            GenerationAdmission admission = new GenerationAdmission(meters, 1, 1, 0, 0, 10, 10, Duration.ofSeconds(5));
+            GenerationAdmission.Permit held = admission.acquire(project("p", null), 1000);
+            Thread waiter = Thread.ofPlatform().start(() -> {
+                try {
+                    admission.acquire(project("p", null), 1000).close();
+                } catch (RuntimeException interrupted) {
+                    // Either outcome is fine, as long as the slot comes back
+                }
+            });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (meters.get("doctalk.admission.queue.depth").gauge().value() < 1) {
+                if (System.nanoTime() > deadline) throw new AssertionError("waiter never queued");
+                Thread.sleep(1);
+            }
+
+            waiter.interrupt();
+            held.close();
+            waiter.join(5_000);
+
+            assertEquals(0.0, meters.get("doctalk.admission.active").gauge().value());
+            admission.acquire(project("p", null), 1000).close();
+        }
+    }
+
+    private GenerationAdmission admission(int maxConcurrency, long tokensPerMinute, long projectTokensPerMinute,
+                                          Duration maxWait) {
+        return new GenerationAdmission(registry, maxConcurrency, maxConcurrency, tokensPerMinute, projectTokensPerMinute,
+                100, 100, maxWait);
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("doctalk.admission.queue.depth").gauge().value() < depth) {
+            if (System.nanoTime() > deadline) throw new AssertionError("queue never reached " + depth);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Project project(String id, Double weight) {
+        Project project = new Project();
+        project.setId(id);
+        project.setSchedulingWeight(weight);
+        return project;
+    }
+}
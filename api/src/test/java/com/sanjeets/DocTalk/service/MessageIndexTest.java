@@ -0,0 +1,153 @@
+package com.sanjeets.DocTalk.service;
+
+import com.sanjeets.DocTalk.model.dto.ChatSearchHit;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageIndexTest {
+
+    @Test
+    void scoresWithBm25() {
+        MessageIndex index = new MessageIndex(0);
+        index.put(message("m1", "s1", "Alpha beta"));
+        index.put(message("m2", "s1", "Gamma delta epsilon zeta"));
+
+        List<ChatSearchHit> hits = index.search("alpha", 10);
+
+        // One of two messages matches; its 2 terms against an average of 3
+        double idf = Math.log(1 + (2 - 1 + 0.5) / (1 + 0.5));
+        double expected = idf * 1 * (1.2 + 1) / (1 + 1.2 * (1 - 0.75 + 0.75 * 2 / 3.0));
+        assertEquals(1, hits.size());
+        assertEquals("m1", hits.get(0).getMessageId());
+        assertEquals(expected, hits.get(0).getScore(), 1e-9);
+    }
+
+    @Test
+    void rarerTermsAndShorterMessagesRankFirst() {
+        MessageIndex index = new MessageIndex(0);
+        index.put(message("common", "s1", "Invoice totals for the quarter"));
+        index.put(message("rare", "s1", "Invoice refund policy"));
+        index.put(message("long", "s1", "Invoice " + "padding ".repeat(30)));
+        index.put(message("other", "s1", "Invoice dates"));
+
+        List<ChatSearchHit> hits = index.search("invoice refund", 10);
+
+        assertEquals("rare", hits.get(0).getMessageId());
+        assertEquals("long", hits.get(hits.size() - 1).getMessageId());
+        assertEquals(4, hits.size());
+    }
+
+    @Test
+    void matchesFoldedTermsAndSkipsStopwords() {
+        MessageIndex index = new MessageIndex(0);
+        index.put(message("m1", "s1", "CAFÉ opening hours"));
+
+        assertEquals(1, index.search("café", 10).size());
+        assertTrue(index.search("the of and", 10).isEmpty());
+    }
+
+    @Test
+    void snippetSurroundsTheFirstMatchOnOneLine() {
+        String content = "word ".repeat(100) + "needle\n\nafter " + "tail ".repeat(100);
+
+        String snippet = MessageIndex.snippet(content, Set.of("needle"));
+
+        assertTrue(snippet.startsWith("..."));
+        assertTrue(snippet.endsWith("..."));
+        assertTrue(snippet.contains("needle after"));
+        assertEquals(160 + 6, snippet.length());
+        assertEquals("Short answer.", MessageIndex.snippet("  Short answer.  ", Set.of("missing")));
+    }
+
+    @Test
+    void putReplacesAndRemoveSessionDropsItsMessages() {
+        MessageIndex index = new MessageIndex(0);
+        index.putSession("s1", "First");
+        index.putSession("s2", "Second");
+        index.put(message("m1", "s1", "Original wording"));
+        index.put(message("m1", "s1", "Revised wording"));
+        index.put(message("m2", "s2", "Wording elsewhere"));
+
+        assertTrue(index.search("original", 10).isEmpty());
+        assertEquals("First", index.search("revised", 10).get(0).getSessionTitle());
+        assertEquals(2, index.size());
+
+        index.removeSession("s1");
+
+        assertEquals(1, index.size());
+        assertEquals(List.of("m2"), index.search("wording", 10).stream().map(ChatSearchHit::getMessageId).toList());
+        assertTrue(index.search("revised", 10).isEmpty());
+    }
+
+    @Test
+    void snapshotRoundTripsAndIsOnlyTakenWhenChanged() {
+        MessageIndex index = new MessageIndex(42);
+        index.putSession("s1", "Title");
+        index.put(message("m1", "s1", "Saved message"));
+
+        MessageIndex.Snapshot snapshot = index.snapshotIfDirty();
+        assertNull(index.snapshotIfDirty());
+
+        MessageIndex restored = MessageIndex.of(snapshot);
+        assertEquals(42, restored.builtAtMillis());
+        assertEquals("Title", restored.search("saved", 10).get(0).getSessionTitle());
+    }
+
+    @Test
+    void concurrentPutsAndSearches() throws Exception {
+        MessageIndex index = new MessageIndex(0);
+        int writers = 4;
+        int perWriter = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perWriter; i++) {
+                        index.put(message("m" + writer + "-" + i, "s" + writer, "Shared term number " + i));
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < 2; r++) {
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perWriter; i++) {
+                        for (ChatSearchHit hit : index.search("shared term", 20)) {
+                            assertTrue(hit.getScore() > 0);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) task.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(writers * perWriter, index.size());
+        assertEquals(20, index.search("shared", 20).size());
+    }
+
+    private static ChatMessage message(String id, String sessionId, String content) {
+        return new ChatMessage(id, sessionId, MessageRole.USER, content, "2026-01-01T00:00:00Z");
+    }
+}
@@ -0,0 +1,99 @@
+package com.sanjeets.DocTalk.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SseEventEncoderTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    // Quotes, backslashes, every control character, DEL, a surrogate pair and plain non-ASCII
+    private static final List<String> VALUES = Arrays.asList(
+            "",
+            "plain text",
+            "say \"hi\" \\ bye",
+            controlCharacters(),
+            "tab\tnew\nline\rfeed\fback\bspace",
+            "\u007F del",
+            "emoji 😀 and 📄",
+            "unpaired \uD83D high and \uDE00 low",
+            "café     </script>",
+            null);
+
+    @Test
+    void textMatchesJackson() throws JsonProcessingException {
+        for (String value : VALUES) {
+            assertEquals(jackson("text", value), SseEventEncoder.text(value), () -> describe(value));
+        }
+    }
+
+    @Test
+    void statusMatchesJackson() throws JsonProcessingException {
+        for (String value : VALUES) {
+            assertEquals(jackson("status", value), SseEventEncoder.status(value), () -> describe(value));
+        }
+    }
+
+    @Test
+    void errorMatchesJackson() throws JsonProcessingException {
+        for (String value : VALUES) {
+            assertEquals(jackson("error", value), SseEventEncoder.error(value), () -> describe(value));
+
+            Map<String, Object> withRetry = new LinkedHashMap<>();
+            withRetry.put("error", value);
+            withRetry.put("retryAfter", 7L);
+            assertEquals(JSON.writeValueAsString(withRetry), SseEventEncoder.error(value, 7), () -> describe(value));
+        }
+    }
+
+    @Test
+    void citationsMatchJackson() throws JsonProcessingException {
+        List<Map<String, String>> citations = VALUES.stream().map(value -> {
+            Map<String, String> citation = new LinkedHashMap<>();
+            citation.put("title", value);
+            citation.put("uri", "gs://bucket/" + value);
+            citation.put("snippet", null);
+            return citation;
+        }).toList();
+
+        Map<String, Object> partial = new LinkedHashMap<>();
+        partial.put("citations", citations);
+        assertEquals(JSON.writeValueAsString(partial), SseEventEncoder.citations(citations));
+
+        Map<String, Object> complete = new LinkedHashMap<>(partial);
+        complete.put("final", true);
+        assertEquals(JSON.writeValueAsString(complete), SseEventEncoder.citations(citations, true));
+        assertEquals("{\"citations\":[]}", SseEventEncoder.citations(List.of()));
+    }
+
+    @Test
+    void largeEventsDoNotLeakIntoLaterOnes() throws JsonProcessingException {
+        String large = "x".repeat(100_000);
+        assertEquals(jackson("text", large), SseEventEncoder.text(large));
+        assertEquals(jackson("text", "small"), SseEventEncoder.text("small"));
+    }
+
+    private static String jackson(String field, String value) throws JsonProcessingException {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put(field, value);
+        return JSON.writeValueAsString(event);
+    }
+
+    private static String controlCharacters() {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) all.append(c).append('.');
+        return all.toString();
+    }
+
+    private static String describe(String value) {
+        return value == null ? "null" : value.chars().mapToObj(c -> String.format("%04x", c)).toList().toString();
+    }
+}
@@ -0,0 +1,166 @@
+package com.sanjeets.DocTalk.service;
+
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.sanjeets.DocTalk.model.entity.ChatMessage;
+import com.sanjeets.DocTalk.model.entity.MessageRole;
+import com.sanjeets.DocTalk.model.entity.Prompt;
+import com.sanjeets.DocTalk.repository.TokenUsageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class TokenAccountingTest {
+
+    private static final String TODAY = LocalDate.now(ZoneOffset.UTC).toString();
+
+    private final TokenUsageRepository usageRepository = mock(TokenUsageRepository.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void fitDropsOldestHistoryFirstAndStartsOnAUserTurn() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 100, 1000);
+        List<ChatMessage> messages = List.of(
+                message("u1", MessageRole.USER, 30), message("m1", MessageRole.MODEL, 30),
+                message("u2", MessageRole.USER, 30), message("m2", MessageRole.MODEL, 30));
+
+        TokenAccounting.Budgeted budgeted = accounting.fit(null, null, messages, null, "q");
+
+        // u1 does not fit; m1 would, but history may not open on a model turn
+        assertEquals(List.of("u2", "m2"), budgeted.history().stream().map(ChatMessage::getId).toList());
+        assertEquals(TokenAccounting.estimate("q") + 60, budgeted.inputTokens());
+        assertEquals(2.0, registry.get("doctalk.tokens.history.dropped").counter().count());
+    }
+
+    @Test
+    void fitCountsPromptAndSummaryAgainstTheBudgetAndSkipsTheExcludedMessage() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 100, 1000);
+        Prompt prompt = new Prompt("p", "persona", "word ".repeat(40), "now"); // 40 tokens
+        String summary = "word ".repeat(20); // 20 tokens
+        List<ChatMessage> messages = List.of(
+                message("u1", MessageRole.USER, 15), message("m1", MessageRole.MODEL, 15),
+                message("u2", MessageRole.USER, 15), message("current", MessageRole.USER, 5));
+
+        TokenAccounting.Budgeted budgeted = accounting.fit(prompt, summary, messages, "current", "q");
+
+        // 61 of 100 used before history; u2 and m1 fit, u1 does not, and m1 cannot open the history
+        assertEquals(List.of("u2"), budgeted.history().stream().map(ChatMessage::getId).toList());
+        assertEquals(40 + 20 + 1 + 15, budgeted.inputTokens());
+    }
+
+    @Test
+    void fitKeepsEverythingWithoutABudget() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 0, 1000);
+        List<ChatMessage> messages = List.of(message("u1", MessageRole.USER, 50_000), message("m1", MessageRole.MODEL, 50_000));
+
+        assertEquals(2, accounting.fit(null, null, messages, null, "q").history().size());
+    }
+
+    @Test
+    void fitRejectsWhatCannotFitWithoutHistory() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 10, 1000);
+
+        ContextBudgetExceededException e = assertThrows(ContextBudgetExceededException.class,
+                () -> accounting.fit(null, "word ".repeat(20), List.of(), null, "q"));
+        assertEquals(21, e.getInputTokens());
+        assertThrows(ContextBudgetExceededException.class, () -> accounting.checkQuestion("word ".repeat(11)));
+    }
+
+    @Test
+    void countsAreCachedPerMessageAndPromptContent() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 0, 1000);
+        ChatMessage message = new ChatMessage("m", "s", MessageRole.USER, "one two three", "now");
+        int first = accounting.count(message);
+
+        // A hit returns the cached count, not a fresh estimate of the changed content
+        message.setContent("one two three four five six seven eight");
+        assertEquals(first, accounting.count(message));
+
+        // A saved count wins over the cache
+        message.setTokenCount(99);
+        assertEquals(99, accounting.count(message));
+
+        // An edited prompt is a new key, so it is counted again
+        Prompt prompt = new Prompt("p", "persona", "short", "now");
+        assertEquals(TokenAccounting.estimate("short"), accounting.count(prompt));
+        prompt.setContent("a much longer persona than before");
+        assertEquals(TokenAccounting.estimate("a much longer persona than before"), accounting.count(prompt));
+    }
+
+    @Test
+    void usageIsBufferedPerProjectAndDayUntilFlushed() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 0, 1000);
+        accounting.recordUsage("a", usage(10, 5));
+        accounting.recordUsage("a", usage(20, 7));
+        accounting.recordUsage("b", usage(1, 1));
+        accounting.recordUsage("a", GenerateContentResponse.getDefaultInstance()); // No usage metadata
+        accounting.recordUsage("a", null);
+        verifyNoInteractions(usageRepository);
+
+        accounting.flush();
+        verify(usageRepository).increment("a", TODAY, 30, 12, 42, 2);
+        verify(usageRepository).increment("b", TODAY, 1, 1, 2, 1);
+
+        // Nothing pending, nothing written
+        accounting.flush();
+        verify(usageRepository, times(2)).increment(anyString(), anyString(), anyLong(), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void failedFlushIsRetriedWithLaterUsageAdded() {
+        TokenAccounting accounting = new TokenAccounting(usageRepository, registry, 0, 1000);
+        doThrow(new RuntimeException("Database error")).doNothing()
+                .when(usageRepository).increment(anyString(), anyString(), anyLong(), anyLong(), anyLong(), anyLong());
+
+        accounting.recordUsage("a", usage(10, 5));
+        accounting.flush();
+        accounting.recordUsage("a", usage(1, 1));
+        accounting.flush();
+
+        verify(usageRepository).increment("a", TODAY, 11, 6, 17, 2);
+    }
+
+    @Test
+    void pendingUsageIsFlushedWhenTheContextCloses() {
+        MeterRegistry meters = new SimpleMeterRegistry();
+        TokenAccounting accounting;
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.registerBean(TokenAccounting.class, () -> new TokenAccounting(usageRepository, meters, 0, 1000));
+            context.refresh();
+            accounting = context.getBean(TokenAccounting.class);
+            accounting.recordUsage("a", usage(3, 4));
+            verify(usageRepository, never()).increment(anyString(), anyString(), anyLong(), anyLong(), anyLong(), anyLong());
+        }
+        verify(usageRepository).increment("a", TODAY, 3, 4, 7, 1);
+    }
+
+    private static ChatMessage message(String id, MessageRole role, int tokens) {
+        ChatMessage message = new ChatMessage(id, "s", role, "text of " + id, "now");
+        message.setTokenCount(tokens);
+        return message;
+    }
+
+    private static GenerateContentResponse usage(int prompt, int candidates) {
+        return GenerateContentResponse.newBuilder()
+                .setUsageMetadata(GenerateContentResponse.UsageMetadata.newBuilder()
+                        .setPromptTokenCount(prompt)
+                        .setCandidatesTokenCount(candidates)
+                        .setTotalTokenCount(prompt + candidates))
+                .build();
+    }
+}
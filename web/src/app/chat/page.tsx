@@ -46,7 +46,7 @@ export default function ChatPage() {
         if (!activeProject) return; 
         
         getSessions(activeProject.id).then(setSessions).catch(console.error);
-        getPrompts().then(setPrompts).catch(console.error);
+        getPrompts(true).then(setPrompts).catch(console.error);
         
         // Reset state
         setActiveSessionId(null);
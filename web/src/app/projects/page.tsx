@@ -12,7 +12,7 @@ import {
   DropdownMenuItem,
   DropdownMenuTrigger,
 } from '@/components/ui/dropdown-menu';
-import { createProject, getProjects, provisionProject, syncProject, getIndexingStatus, Project, CreateProjectRequest } from '@/services/projectService';
+import { createProject, getProjectsPage, reloadProjects, provisionProject, syncProject, getIndexingStatus, Project, CreateProjectRequest } from '@/services/projectService';
 import { useProjectStore } from '@/store/projectStore';
 import { useRouter } from 'next/navigation';
 import { cn, timeAgo } from '@/lib/utils';
@@ -38,6 +38,8 @@ type ProjectForm = z.infer<typeof projectSchema>;
 export default function ProjectsPage() {
     const { projects, setProjects, activeProject, setActiveProject } = useProjectStore();
     const [loading, setLoading] = useState(false);
+    const [loadingMore, setLoadingMore] = useState(false);
+    const [nextPageToken, setNextPageToken] = useState<string | undefined>();
     const [creating, setCreating] = useState(false);
     const [provisioningId, setProvisioningId] = useState<string | null>(null);
     const [isCreateOpen, setIsCreateOpen] = useState(false);
@@ -55,12 +57,29 @@ export default function ProjectsPage() {
 
     useEffect(() => {
         setLoading(true);
-        getProjects()
-            .then(setProjects)
+        getProjectsPage()
+            .then(page => {
+                setProjects(page.items);
+                setNextPageToken(page.nextPageToken);
+            })
             .catch(console.error)
             .finally(() => setLoading(false));
     }, [setProjects]);
 
+    const loadMore = async () => {
+        if (!nextPageToken) return;
+        setLoadingMore(true);
+        try {
+            const page = await getProjectsPage(nextPageToken);
+            setProjects([...projects, ...page.items]);
+            setNextPageToken(page.nextPageToken);
+        } catch (error) {
+            console.error(error);
+        } finally {
+            setLoadingMore(false);
+        }
+    };
+
     // Polling for status updates (Provisioning OR Syncing)
     useEffect(() => {
         const needsPolling = projects.some(p => 
@@ -69,8 +88,11 @@ export default function ProjectsPage() {
         if (!needsPolling) return;
 
         const interval = setInterval(() => {
-            getProjects()
-                .then(setProjects)
+            reloadProjects(projects.length)
+                .then(page => {
+                    setProjects(page.items);
+                    setNextPageToken(page.nextPageToken);
+                })
                 .catch(console.error);
         }, 5000); 
 
@@ -450,6 +472,15 @@ export default function ProjectsPage() {
                         })}
                     </div>
                 )}
+
+                {!loading && nextPageToken && (
+                    <div className="flex justify-center mt-8">
+                        <Button onClick={loadMore} variant="outline" disabled={loadingMore}>
+                            {loadingMore ? <Loader2 className="animate-spin mr-2 h-4 w-4" /> : null}
+                            Load more projects
+                        </Button>
+                    </div>
+                )}
             </div>
         </div>
     );
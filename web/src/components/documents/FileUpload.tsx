@@ -6,6 +6,7 @@ import { Upload, X, FileText, CheckCircle, AlertCircle } from 'lucide-react';
 import { Button } from '@/components/ui/button';
 import { Progress } from '@/components/ui/progress';
 import { uploadFile } from '@/services/documentService';
+import { syncProject } from '@/services/projectService';
 import { cn } from '@/lib/utils';
 import { useProjectStore } from '@/store/projectStore';
 
@@ -58,6 +59,7 @@ export function FileUpload({ onUploadComplete }: FileUploadProps) {
     }
 
     const pendingFiles = files.filter((f) => f.status === 'pending');
+    let reindex = false;
 
     for (const fileStatus of pendingFiles) {
       setFiles((prev) =>
@@ -69,7 +71,7 @@ export function FileUpload({ onUploadComplete }: FileUploadProps) {
       );
 
       try {
-        await uploadFile(activeProject.id, fileStatus.file, (progress) => {
+        const result = await uploadFile(activeProject.id, fileStatus.file, (progress) => {
           setFiles((prev) =>
             prev.map((f) =>
               f.file.name === fileStatus.file.name
@@ -78,6 +80,7 @@ export function FileUpload({ onUploadComplete }: FileUploadProps) {
             )
           );
         });
+        reindex = reindex || result.reindex;
 
         setFiles((prev) =>
           prev.map((f) =>
@@ -97,6 +100,16 @@ export function FileUpload({ onUploadComplete }: FileUploadProps) {
         );
       }
     }
+
+    // Duplicates of documents already in the index need no import
+    if (reindex) {
+      try {
+        await syncProject(activeProject.id);
+      } catch (error) {
+        // Already running, or not provisioned yet; the next sync picks the files up
+        console.error("Sync failed", error);
+      }
+    }
     
     if (onUploadComplete) onUploadComplete();
   };
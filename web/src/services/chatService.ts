@@ -82,6 +82,10 @@ export async function streamMessage(
         body: JSON.stringify({ content }),
     });
 
+    if (response.status === 429) {
+        throw new Error(`Too many requests, try again in ${response.headers.get('Retry-After') ?? 'a few'} seconds`);
+    }
+    if (response.status === 413) throw new Error('Message is too long');
     if (!response.ok) throw new Error('Failed to start stream');
     if (!response.body) throw new Error('ReadableStream not supported');
 
@@ -105,19 +109,26 @@ export async function streamMessage(
                 const data = line.slice(5).trim();
                 if (!data) continue;
                 
+                let parsed;
                 try {
-                    const parsed = JSON.parse(data);
-                    if (parsed.status && onStatus) {
-                        onStatus(parsed.status);
-                    }
-                    if (parsed.text) {
-                        onChunk(parsed.text);
-                    }
-                    if (parsed.citations && onCitations) {
-                        onCitations(parsed.citations);
-                    }
+                    parsed = JSON.parse(data);
                 } catch (e) {
                     console.warn("Failed to parse SSE JSON chunk", data);
+                    continue;
+                }
+                if (parsed.error) {
+                    throw new Error(parsed.retryAfter
+                        ? `${parsed.error}, try again in ${parsed.retryAfter} seconds`
+                        : parsed.error);
+                }
+                if (parsed.status && onStatus) {
+                    onStatus(parsed.status);
+                }
+                if (parsed.text) {
+                    onChunk(parsed.text);
+                }
+                if (parsed.citations && onCitations) {
+                    onCitations(parsed.citations);
                 }
             }
         }
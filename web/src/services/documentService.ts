@@ -52,12 +52,32 @@ async function uploadFileToGcs(signedUrl: string, file: File, onProgress?: (prog
   });
 }
 
-export async function uploadFile(projectId: string, file: File, onProgress?: (progress: number) => void) {
+export interface UploadResult {
+    fileName: string;
+    contentHash: string;
+    duplicate: boolean;
+    reindex: boolean; // false when the project's index already holds these bytes
+}
+
+export async function completeUpload(projectId: string, fileName: string): Promise<UploadResult> {
+    const response = await fetch(`${API_BASE_URL}/documents/complete?projectId=${projectId}&fileName=${encodeURIComponent(fileName)}`, {
+        method: 'POST',
+    });
+    if (!response.ok) {
+        throw new Error('Failed to complete upload');
+    }
+    return response.json();
+}
+
+export async function uploadFile(projectId: string, file: File, onProgress?: (progress: number) => void): Promise<UploadResult> {
     // 1. Get Signed URL
     const { url } = await getUploadUrl(projectId, file.name, file.type);
     
     // 2. Upload to GCS
     await uploadFileToGcs(url, file, onProgress);
+
+    // 3. Register content (deduplicates identical bytes)
+    return completeUpload(projectId, file.name);
 }
 
 export async function deleteDocument(projectId: string, fileName: string): Promise<void> {
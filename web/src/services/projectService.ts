@@ -34,12 +34,34 @@ export async function createProject(request: CreateProjectRequest): Promise<Proj
     return response.json();
 }
 
-export async function getProjects(): Promise<Project[]> {
-    const response = await fetch(`${API_BASE_URL}/projects`);
+export interface Page<T> {
+    items: T[];
+    nextPageToken?: string;
+}
+
+export const PROJECTS_PAGE_SIZE = 30;
+
+export async function getProjectsPage(pageToken?: string, status?: Project['status']): Promise<Page<Project>> {
+    const params = new URLSearchParams({ pageSize: String(PROJECTS_PAGE_SIZE) });
+    if (pageToken) params.set('pageToken', pageToken);
+    if (status) params.set('status', status);
+    const response = await fetch(`${API_BASE_URL}/projects?${params}`);
     if (!response.ok) throw new Error('Failed to fetch projects');
     return response.json();
 }
 
+// Re-reads the pages already on screen, e.g. to refresh statuses while polling
+export async function reloadProjects(count: number): Promise<Page<Project>> {
+    const items: Project[] = [];
+    let pageToken: string | undefined;
+    do {
+        const page = await getProjectsPage(pageToken);
+        items.push(...page.items);
+        pageToken = page.nextPageToken;
+    } while (pageToken && items.length < count);
+    return { items, nextPageToken: pageToken };
+}
+
 export async function provisionProject(projectId: string): Promise<void> {
     const response = await fetch(`${API_BASE_URL}/projects/${projectId}/provision`, {
         method: 'POST',
@@ -19,10 +19,20 @@ export async function createPrompt(name: string, content: string): Promise<Promp
     return response.json();
 }
 
-export async function getPrompts(): Promise<Prompt[]> {
-    const response = await fetch(`${API_BASE_URL}/prompts`);
-    if (!response.ok) throw new Error('Failed to fetch prompts');
-    return response.json();
+// `summary` omits prompt content, for pickers that only need names
+export async function getPrompts(summary = false): Promise<Prompt[]> {
+    const prompts: Prompt[] = [];
+    let pageToken: string | undefined;
+    do {
+        const params = new URLSearchParams({ pageSize: '100', view: summary ? 'summary' : 'full' });
+        if (pageToken) params.set('pageToken', pageToken);
+        const response = await fetch(`${API_BASE_URL}/prompts?${params}`);
+        if (!response.ok) throw new Error('Failed to fetch prompts');
+        const page: { items: Prompt[]; nextPageToken?: string } = await response.json();
+        prompts.push(...page.items);
+        pageToken = page.nextPageToken;
+    } while (pageToken);
+    return prompts;
 }
 
 export async function updatePrompt(id: string, name: string, content: string): Promise<Prompt> {